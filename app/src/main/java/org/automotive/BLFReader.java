@@ -0,0 +1,314 @@
+package org.automotive;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader for Vector BLF binary logs.
+ *
+ * A BLF file starts with a "LOGG" header followed by "LOBJ" objects. The CAN
+ * messages are normally stored inside log container objects that are zlib
+ * compressed; an object may continue in the next container. A background
+ * thread reads and inflates the containers into a small bounded queue while
+ * the calling thread decodes the CAN message objects with the SignalDatabase,
+ * so reading and decoding overlap.
+ *
+ * All numbers in the file are little-endian. Object timestamps are relative to
+ * the start of the measurement and converted to milliseconds like the
+ * timestamps of the ASCII traces. The BLF channel of a message becomes the
+ * channel of its frame.
+ */
+final class BLFReader {
+    // object types
+    static final int CAN_MESSAGE = 1;
+    static final int LOG_CONTAINER = 10;
+    static final int CAN_MESSAGE2 = 86;
+
+    // compression methods of a log container
+    static final int NO_COMPRESSION = 0;
+    static final int ZLIB_DEFLATE = 2;
+
+    // object header flags: timestamp unit
+    static final int TIME_TEN_MICS = 1;
+
+    // flags of a CAN message
+    private static final int REMOTE_FRAME = 0x80;
+    private static final long EXTENDED_ID = 0x80000000L;
+
+    private static final int FILE_SIGNATURE = 0x47474F4C; // "LOGG"
+    private static final int OBJECT_SIGNATURE = 0x4A424F4C; // "LOBJ"
+    private static final int OBJECT_HEADER_BASE_SIZE = 16;
+    private static final int CONTAINER_HEADER_SIZE = 32;
+
+    // inflated containers the reader thread may run ahead
+    private static final int CONTAINER_READ_AHEAD = 8;
+
+    // marks the end of the file in the queue
+    private static final byte[] END_OF_FILE = new byte[0];
+
+    private final SignalDatabase database;
+
+    // reader with the signal definitions from "CAN Frames Info.txt"
+    BLFReader() {
+        this(SignalDatabase.getDefault());
+    }
+
+    BLFReader(SignalDatabase database) {
+        this.database = database;
+    }
+
+    // checks the file signature
+    static boolean isBLFFile(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer signature = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (signature.hasRemaining() && channel.read(signature) > 0) {
+            }
+            return !signature.hasRemaining() && signature.getInt(0) == FILE_SIGNATURE;
+        }
+    }
+
+    // reads all frames of the file in file order
+    void read(String filePath, Consumer<CANFrame> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            read(channel, sink);
+        }
+    }
+
+    /**
+     * Reads the channel until the end and passes every CAN message that has
+     * signal definitions to the sink as a decoded frame.
+     */
+    void read(ReadableByteChannel channel, Consumer<CANFrame> sink) throws IOException {
+        BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(CONTAINER_READ_AHEAD);
+        IOException[] readError = new IOException[1];
+        Thread inflater = new Thread(() -> {
+            try {
+                readObjects(channel, queue);
+            } catch (IOException e) {
+                readError[0] = e;
+            } catch (InterruptedException e) {
+                // stopped by the decoding thread
+                return;
+            }
+            try {
+                queue.put(END_OF_FILE);
+            } catch (InterruptedException e) {
+                // stopped by the decoding thread
+            }
+        }, "blf-inflater");
+        inflater.setDaemon(true);
+        inflater.start();
+
+        try {
+            // object bytes of the last container that continue in the next one
+            byte[] tail = END_OF_FILE;
+            byte[] data;
+            while ((data = queue.take()) != END_OF_FILE) {
+                tail = decodeObjects(tail, data, sink);
+            }
+            inflater.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Reading BLF file was interrupted");
+        } finally {
+            inflater.interrupt();
+        }
+        if (readError[0] != null)
+            throw readError[0];
+    }
+
+    /**
+     * Runs on the reader thread: reads the top level objects and puts the
+     * inflated content of every log container into the queue. Other top level
+     * objects (file statistics, application data) are skipped.
+     */
+    private static void readObjects(ReadableByteChannel channel, BlockingQueue<byte[]> queue)
+            throws IOException, InterruptedException {
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        if (!readFully(channel, header) || header.getInt(0) != FILE_SIGNATURE)
+            throw new IOException("Not a BLF file");
+        skip(channel, header.getInt(4) - header.capacity());
+
+        Inflater inflater = new Inflater();
+        try {
+            ByteBuffer objectHeader = ByteBuffer.allocate(OBJECT_HEADER_BASE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (true) {
+                objectHeader.clear();
+                if (!readFully(channel, objectHeader))
+                    return;
+                if (objectHeader.getInt(0) != OBJECT_SIGNATURE)
+                    throw new IOException("Invalid BLF object signature");
+                int objectSize = objectHeader.getInt(8);
+                int objectType = objectHeader.getInt(12);
+                if (objectSize < OBJECT_HEADER_BASE_SIZE)
+                    throw new IOException("Invalid BLF object size " + objectSize);
+
+                ByteBuffer object = ByteBuffer.allocate(objectSize).order(ByteOrder.LITTLE_ENDIAN);
+                object.put(objectHeader.array());
+                if (!readFully(channel, object))
+                    throw new EOFException("BLF file ends inside an object");
+                // top level objects are padded to 4 bytes
+                skip(channel, objectSize & 3);
+
+                if (objectType == LOG_CONTAINER)
+                    queue.put(inflate(object, inflater));
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // returns the uncompressed content of a log container
+    private static byte[] inflate(ByteBuffer container, Inflater inflater) throws IOException {
+        int method = container.getShort(16) & 0xFFFF;
+        int size = container.getInt(24);
+        int dataLength = container.capacity() - CONTAINER_HEADER_SIZE;
+        if (method == NO_COMPRESSION) {
+            byte[] data = new byte[dataLength];
+            System.arraycopy(container.array(), CONTAINER_HEADER_SIZE, data, 0, dataLength);
+            return data;
+        }
+        if (method != ZLIB_DEFLATE)
+            throw new IOException("Unsupported BLF compression method " + method);
+
+        byte[] data = new byte[size];
+        inflater.reset();
+        inflater.setInput(container.array(), CONTAINER_HEADER_SIZE, dataLength);
+        try {
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                int inflated = inflater.inflate(data, length, size - length);
+                if (inflated == 0 && inflater.needsInput())
+                    break;
+                length += inflated;
+            }
+            if (length != size)
+                throw new IOException("BLF container has " + length + " instead of " + size + " bytes");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BLF container: " + e.getMessage());
+        }
+        return data;
+    }
+
+    /**
+     * Decodes the objects of one inflated container after the tail of the
+     * previous one and returns the bytes of an object that is not complete yet.
+     */
+    private byte[] decodeObjects(byte[] tail, byte[] data, Consumer<CANFrame> sink) throws IOException {
+        if (tail.length > 0) {
+            byte[] joined = new byte[tail.length + data.length];
+            System.arraycopy(tail, 0, joined, 0, tail.length);
+            System.arraycopy(data, 0, joined, tail.length, data.length);
+            data = joined;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+
+        int position = 0;
+        while (true) {
+            // objects are padded depending on their type, find the next signature
+            int start = findObject(buffer, position);
+            if (start < 0) {
+                if (data.length - position >= 8)
+                    throw new IOException("Could not find the next BLF object");
+                break;
+            }
+            if (data.length - start < OBJECT_HEADER_BASE_SIZE) {
+                position = start;
+                break;
+            }
+            int headerSize = buffer.getShort(start + 4) & 0xFFFF;
+            int headerVersion = buffer.getShort(start + 6) & 0xFFFF;
+            int objectSize = buffer.getInt(start + 8);
+            int objectType = buffer.getInt(start + 12);
+            if (objectSize < OBJECT_HEADER_BASE_SIZE)
+                throw new IOException("Invalid BLF object size " + objectSize);
+            if (data.length - start < objectSize) {
+                // continues in the next container
+                position = start;
+                break;
+            }
+            if ((objectType == CAN_MESSAGE || objectType == CAN_MESSAGE2)
+                    && (headerVersion == 1 || headerVersion == 2)) {
+                CANFrame frame = decodeCANMessage(buffer, start, headerSize);
+                if (frame != null)
+                    sink.accept(frame);
+            }
+            position = start + objectSize;
+        }
+
+        byte[] rest = new byte[data.length - position];
+        System.arraycopy(data, position, rest, 0, rest.length);
+        return rest;
+    }
+
+    // offset of the next object signature, it starts at most 7 padding bytes later
+    private static int findObject(ByteBuffer buffer, int position) {
+        int last = Math.min(position + 8, buffer.capacity() - 4);
+        for (int i = position; i <= last; i++) {
+            if (buffer.getInt(i) == OBJECT_SIGNATURE)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * CAN message: object header, then channel (2 bytes), flags, dlc, id
+     * (4 bytes) and 8 data bytes. Remote frames, extended ids and ids without
+     * signal definitions give null.
+     */
+    private CANFrame decodeCANMessage(ByteBuffer buffer, int start, int headerSize) {
+        // both header versions have the flags at 16 and the timestamp at 24
+        int flags = buffer.getInt(start + 16);
+        long time = buffer.getLong(start + 24);
+        double timestampMs = flags == TIME_TEN_MICS ? time / 100.0 : time / 1_000_000.0;
+
+        int payload = start + headerSize;
+        int channel = buffer.getShort(payload) & 0xFFFF;
+        int messageFlags = buffer.get(payload + 2) & 0xFF;
+        int dlc = Math.min(buffer.get(payload + 3) & 0xFF, 8);
+        long id = buffer.getInt(payload + 4) & 0xFFFFFFFFL;
+        if ((messageFlags & REMOTE_FRAME) != 0 || (id & EXTENDED_ID) != 0 || id >= SignalDatabase.ID_COUNT)
+            return null;
+        SignalDatabase.FrameDecoder decoder = database.decoderFor((int) id);
+        if (decoder == null)
+            return null;
+
+        // first data byte on the bus is the top byte, as in the ASCII trace
+        long data = 0;
+        for (int i = 0; i < 8; i++) {
+            data = (data << 8) | (i < dlc ? buffer.get(payload + 8 + i) & 0xFF : 0);
+        }
+        return decoder.decode(timestampMs, data).withChannel(channel);
+    }
+
+    // reads until the buffer is full, false if the channel ended before any byte
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == start)
+                    return false;
+                throw new EOFException("Unexpected end of BLF file");
+            }
+        }
+        return true;
+    }
+
+    private static void skip(ReadableByteChannel channel, int count) throws IOException {
+        if (count <= 0)
+            return;
+        ByteBuffer skipped = ByteBuffer.allocate(count);
+        while (skipped.hasRemaining() && channel.read(skipped) >= 0) {
+        }
+    }
+}
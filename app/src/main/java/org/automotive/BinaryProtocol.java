@@ -0,0 +1,173 @@
+package org.automotive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary alternative to the text protocol, selected by the client
+ * with {@code START proto=binary}. The simulator answers with an 8 byte
+ * header and then sends fixed-size big-endian records:
+ * <pre>
+ * header:  magic "RSBP" (4) | version (2) | record size (2)
+ * record:  type (1) | channel (1) | id (2) | timestamp ms, double (8) | 3 values, float (12)
+ * </pre>
+ * Steering, speed and dynamics records carry their decoded signal values,
+ * dynamics in the order yaw rate, longitudinal and lateral acceleration.
+ * GPS records carry latitude and longitude as integer microdegrees, the
+ * precision of the text protocol. Frames with generic signals are sent as one
+ * SIGNAL record per signal with the value and the index of the signal. An END
+ * record replaces SIMULATION_COMPLETE.
+ *
+ * The signals of the trace format have at most 16 bits, so a float holds
+ * every value without losing a step. A client that does not find the magic
+ * at the start of the stream talks to an older simulator and reads text.
+ */
+final class BinaryProtocol {
+    static final int MAGIC = 0x52534250; // "RSBP"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 24;
+
+    // record types
+    static final byte STEERING = 1;
+    static final byte SPEED = 2;
+    static final byte DYNAMICS = 3;
+    static final byte SIGNAL = 4;
+    static final byte GPS = 5;
+    static final byte END = 0x7F;
+
+    // field offsets inside a record
+    static final int TYPE = 0;
+    static final int CHANNEL = 1;
+    static final int ID = 2;
+    static final int TIMESTAMP = 4;
+    static final int VALUE0 = 12;
+    static final int VALUE1 = 16;
+    static final int VALUE2 = 20;
+
+    private static final double MICRODEGREES = 1_000_000.0;
+
+    private BinaryProtocol() {
+    }
+
+    static void putHeader(ByteBuffer buf) {
+        buf.putInt(MAGIC).putShort((short) VERSION).putShort((short) RECORD_SIZE);
+    }
+
+    // number of records the frame is sent as
+    static int recordCount(CANFrame frame) {
+        return frame instanceof SignalFrame ? ((SignalFrame) frame).getSignalCount() : 1;
+    }
+
+    /**
+     * Appends the records of the frame, the buffer needs
+     * {@code recordCount(frame) * RECORD_SIZE} bytes of room.
+     */
+    static void putCAN(ByteBuffer buf, CANFrame frame) {
+        int id = Integer.parseInt(frame.getId(), 16);
+        if (frame instanceof SteeringWheelAngleFrame) {
+            putRecord(buf, STEERING, frame, id, (float) ((SteeringWheelAngleFrame) frame).getAngle(), 0f, 0f);
+        } else if (frame instanceof VehicleSpeedFrame) {
+            putRecord(buf, SPEED, frame, id, (float) ((VehicleSpeedFrame) frame).getSpeed(), 0f, 0f);
+        } else if (frame instanceof VehicleDynamicsFrame) {
+            VehicleDynamicsFrame dynamics = (VehicleDynamicsFrame) frame;
+            putRecord(buf, DYNAMICS, frame, id, (float) dynamics.getYawRate(),
+                    (float) dynamics.getLongAccel(), (float) dynamics.getLatAccel());
+        } else if (frame instanceof SignalFrame) {
+            SignalFrame signals = (SignalFrame) frame;
+            for (int i = 0; i < signals.getSignalCount(); i++) {
+                putRecord(buf, SIGNAL, frame, id, (float) signals.getValue(i), i, 0f);
+            }
+        }
+    }
+
+    static void putGPS(ByteBuffer buf, GPScoordinates coordinate) {
+        buf.put(GPS).put((byte) 0).putShort((short) 0)
+                .putDouble(coordinate.getTimeOffset())
+                .putInt((int) Math.round(coordinate.getLatitude() * MICRODEGREES))
+                .putInt((int) Math.round(coordinate.getLongitude() * MICRODEGREES))
+                .putInt(0);
+    }
+
+    static void putEnd(ByteBuffer buf) {
+        buf.put(END).put((byte) 0).putShort((short) 0).putDouble(0.0).putInt(0).putInt(0).putInt(0);
+    }
+
+    // the records of the frame as a new array
+    static byte[] encode(CANFrame frame) {
+        ByteBuffer buf = ByteBuffer.allocate(recordCount(frame) * RECORD_SIZE);
+        putCAN(buf, frame);
+        return buf.array();
+    }
+
+    static byte[] encode(GPScoordinates coordinate) {
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        putGPS(buf, coordinate);
+        return buf.array();
+    }
+
+    // readers for the record that starts at the position of the buffer
+
+    static int type(ByteBuffer record) {
+        return record.get(record.position() + TYPE);
+    }
+
+    static int channel(ByteBuffer record) {
+        return record.get(record.position() + CHANNEL) & 0xFF;
+    }
+
+    static int id(ByteBuffer record) {
+        return record.getShort(record.position() + ID) & 0xFFFF;
+    }
+
+    static double timestamp(ByteBuffer record) {
+        return record.getDouble(record.position() + TIMESTAMP);
+    }
+
+    // value 0, 1 or 2 of a CAN record
+    static float value(ByteBuffer record, int index) {
+        return record.getFloat(record.position() + VALUE0 + 4 * index);
+    }
+
+    static double latitude(ByteBuffer record) {
+        return record.getInt(record.position() + VALUE0) / MICRODEGREES;
+    }
+
+    static double longitude(ByteBuffer record) {
+        return record.getInt(record.position() + VALUE1) / MICRODEGREES;
+    }
+
+    /**
+     * Formats the record like the text protocol, e.g.
+     * {@code CAN|0018|4.0|STEERING|2.0} or {@code GPS|0.0|48.123456|11.123456}.
+     */
+    static String describe(ByteBuffer record) {
+        double timestamp = timestamp(record);
+        switch (type(record)) {
+            case GPS:
+                return String.format("GPS|%.1f|%f|%f", timestamp, latitude(record), longitude(record));
+            case END:
+                return "END";
+            default:
+                break;
+        }
+        String prefix = String.format("CAN|%04X|%s|", id(record), timestamp);
+        switch (type(record)) {
+            case STEERING:
+                return prefix + "STEERING|" + value(record, 0);
+            case SPEED:
+                return prefix + "SPEED|" + value(record, 0);
+            case DYNAMICS:
+                return prefix + "DYNAMICS|" + value(record, 0) + "|" + value(record, 1) + "|" + value(record, 2);
+            case SIGNAL:
+                return prefix + "SIGNAL|" + (int) value(record, 1) + "=" + value(record, 0);
+            default:
+                return prefix + "UNKNOWN";
+        }
+    }
+
+    private static void putRecord(ByteBuffer buf, byte type, CANFrame frame, int id, float v0, float v1, float v2) {
+        buf.put(type).put((byte) frame.getChannel()).putShort((short) id)
+                .putDouble(frame.getTimestamp())
+                .putFloat(v0).putFloat(v1).putFloat(v2);
+    }
+}
@@ -0,0 +1,547 @@
+package org.automotive;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Simulator server that replays the drive once for all connected clients.
+ *
+ * A single thread runs a selector loop that accepts clients, reads their START
+ * line and also acts as the replay clock: when the next CAN frame or GPS
+ * coordinate is due it is encoded once per protocol (text lines or the
+ * records of BinaryProtocol) and appended to the outbound buffer of every
+ * subscribed client, which is then written without blocking. The
+ * selector waits until the next event is due and spins for the last
+ * millisecond, so no thread per client is needed. The lateness of the events
+ * is accounted by a ReplayClock, which also applies the catch-up policy.
+ *
+ * Every client has its own bounded outbound buffer, so a client that reads
+ * slower than the replay sends data never slows down the other clients. Once
+ * more than HIGH_WATER_MARK bytes are queued for a client, its messages are
+ * conflated: only the newest message per CAN id (and channel) is kept aside
+ * and older ones are dropped, so the client gets current values instead of a
+ * growing backlog. GPS and vehicle dynamics have priority: they are still
+ * queued in order while the buffer has room, and are sent first when it has
+ * drained below LOW_WATER_MARK. Conflated and dropped messages are counted
+ * per client.
+ *
+ * The first START starts the replay (its {@code from=<ms>} and
+ * {@code speed=<factor>} options are applied to it), clients that send START
+ * later join the running replay. Each client has its own subscription from
+ * its START line, which filters and decimates the messages before they are
+ * encoded for it. A {@code SPEED <factor>}, {@code PAUSE}, {@code RESUME} or
+ * {@code SEEK <ms>} line of any client controls the shared replay. At the end all
+ * clients get SIMULATION_COMPLETE and are disconnected, and the next START
+ * starts a new replay.
+ */
+class BroadcastServer {
+    // bytes that may be queued for one client
+    static final int OUTBOUND_BUFFER_SIZE = 256 * 1024;
+
+    // queued bytes above which a client is slow and its messages are conflated
+    static final int HIGH_WATER_MARK = 64 * 1024;
+
+    // queued bytes below which the conflated messages are queued again
+    static final int LOW_WATER_MARK = 16 * 1024;
+
+    // conflation key of GPS messages, CAN keys are channel << 16 | id
+    private static final int GPS_KEY = -1;
+
+    // longest START or command line a client may send
+    private static final int INBOUND_BUFFER_SIZE = 1024;
+
+    // below this the loop spins instead of waiting in select
+    private static final long SPIN_THRESHOLD_NANOS = 1_000_000;
+
+    // events sent before the loop looks at the sockets again when it is behind
+    private static final int MAX_EVENTS_PER_DISPATCH = 1024;
+
+    private static final byte[] SIMULATION_COMPLETE = "SIMULATION_COMPLETE\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] BINARY_HEADER = new byte[BinaryProtocol.HEADER_SIZE];
+    private static final byte[] BINARY_END = new byte[BinaryProtocol.RECORD_SIZE];
+
+    static {
+        BinaryProtocol.putHeader(ByteBuffer.wrap(BINARY_HEADER));
+        BinaryProtocol.putEnd(ByteBuffer.wrap(BINARY_END));
+    }
+
+    private final CANTrace canTrace;
+    private final GPSTrace gpsTrace;
+    private final SocketAddress address;
+
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private Selector selector;
+    private volatile boolean running = false;
+
+    // replay state, only used by the selector thread
+    private boolean replaying = false;
+    private ReplayClock clock = new ReplayClock();
+    private CANFrame nextFrame;
+    private double lastEventMs;
+    private GPScoordinates nextGPS;
+    private long sentEvents;
+
+    public BroadcastServer(CANTrace canTrace, GPSTrace gpsTrace) {
+        this(canTrace, gpsTrace, CANTraceSimulation.PORT);
+    }
+
+    public BroadcastServer(CANTrace canTrace, GPSTrace gpsTrace, int port) {
+        this(canTrace, gpsTrace, new InetSocketAddress(port));
+    }
+
+    // address is a TCP port or a UnixDomainSocketAddress
+    public BroadcastServer(CANTrace canTrace, GPSTrace gpsTrace, SocketAddress address) {
+        this.canTrace = canTrace;
+        this.gpsTrace = gpsTrace;
+        this.address = address;
+    }
+
+    // sets what the replay clock does with events that are more than maxLagMs late
+    public void setCatchUpPolicy(ReplayClock.CatchUp catchUp, double maxLagMs) {
+        clock = new ReplayClock(catchUp, maxLagMs);
+    }
+
+    /**
+     * Runs the server on the calling thread until stop() is called.
+     */
+    public void start() throws IOException {
+        try (Selector sel = Selector.open();
+                ServerSocketChannel server = CANTraceSimulation.openServerChannel(address)) {
+            selector = sel;
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            running = true;
+            System.out.println("Broadcast server listening on " + CANTraceSimulation.describe(address) + "...");
+
+            while (running) {
+                waitForEvents();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        accept(server);
+                    } else {
+                        Subscriber subscriber = (Subscriber) key.attachment();
+                        if (key.isReadable())
+                            read(subscriber);
+                        if (key.isValid() && key.isWritable())
+                            flush(subscriber);
+                    }
+                }
+                if (replaying)
+                    dispatchDueEvents();
+                subscribers.removeIf(subscriber -> !subscriber.channel.isOpen());
+            }
+        } finally {
+            running = false;
+            for (Subscriber subscriber : subscribers) {
+                close(subscriber);
+            }
+            subscribers.clear();
+            CANTraceSimulation.deleteSocketFile(address);
+        }
+    }
+
+    // stops the server loop, can be called from any thread
+    public void stop() {
+        running = false;
+        Selector sel = selector;
+        if (sel != null)
+            sel.wakeup();
+    }
+
+    // waits for socket events, but not longer than until the next replay event
+    private void waitForEvents() throws IOException {
+        // a paused replay waits for the RESUME of a client
+        if (!replaying || clock.isPaused()) {
+            selector.select();
+            return;
+        }
+        long waitNanos = clock.deadlineNanos(nextEventTimeMs()) - System.nanoTime();
+        if (waitNanos <= SPIN_THRESHOLD_NANOS) {
+            selector.selectNow();
+        } else {
+            selector.select(Math.max(1, (waitNanos - SPIN_THRESHOLD_NANOS) / 1_000_000));
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        // Unix domain sockets have no Nagle delay to turn off
+        if (address instanceof InetSocketAddress)
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Subscriber subscriber = new Subscriber(channel);
+        subscriber.key = channel.register(selector, SelectionKey.OP_READ, subscriber);
+        subscribers.add(subscriber);
+        System.out.println("Client connected: " + channel.getRemoteAddress());
+    }
+
+    // reads the START line and the command lines that follow it
+    private void read(Subscriber subscriber) {
+        int read;
+        try {
+            read = subscriber.channel.read(subscriber.inbound);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if (read < 0) {
+            close(subscriber);
+            return;
+        }
+
+        String line;
+        while ((line = takeLine(subscriber.inbound)) != null) {
+            if (!subscriber.started) {
+                handleStart(subscriber, line);
+            } else {
+                handleCommand(line);
+            }
+            if (!subscriber.channel.isOpen())
+                return;
+        }
+        if (!subscriber.inbound.hasRemaining()) {
+            System.out.println("Client line too long, closing client");
+            close(subscriber);
+        }
+    }
+
+    // removes the first complete line from the buffer, null if there is none
+    private static String takeLine(ByteBuffer inbound) {
+        for (int i = 0; i < inbound.position(); i++) {
+            if (inbound.get(i) == '\n') {
+                String line = new String(inbound.array(), 0, i, StandardCharsets.UTF_8);
+                inbound.flip().position(i + 1);
+                inbound.compact();
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private void handleStart(Subscriber subscriber, String line) {
+        StartRequest request;
+        try {
+            request = StartRequest.parse(line);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid start request: " + e.getMessage());
+            request = null;
+        }
+        if (request == null) {
+            close(subscriber);
+            return;
+        }
+
+        subscriber.started = true;
+        subscriber.binary = request.isBinary();
+        subscriber.subscription = request.getSubscription();
+        if (subscriber.binary)
+            subscriber.outbound.put(BINARY_HEADER);
+        if (!replaying) {
+            clock.setSpeed(request.getSpeed());
+            startReplay(request.getFromMs());
+        } else {
+            System.out.println("Client joined the running replay");
+        }
+    }
+
+    // SPEED <factor>, PAUSE, RESUME and SEEK <ms> control the running replay, other lines are ignored
+    private void handleCommand(String line) {
+        String[] tokens = line.trim().split("\\s+");
+        if (tokens[0].equals("SPEED") && tokens.length > 1) {
+            try {
+                clock.setSpeed(ReplayClock.parseSpeed(tokens[1]));
+                System.out.println("Replay speed set to " + tokens[1]);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        } else if (tokens[0].equals("PAUSE")) {
+            clock.pause();
+            System.out.println("Replay paused");
+        } else if (tokens[0].equals("RESUME")) {
+            clock.resume();
+            System.out.println("Replay resumed");
+        } else if (tokens[0].equals("SEEK") && tokens.length > 1) {
+            try {
+                double ms = Double.parseDouble(tokens[1]);
+                if (ms < 0)
+                    throw new NumberFormatException();
+                // the traces are moved by dispatchDueEvents
+                clock.seek(ms);
+                System.out.println("Replay seek to " + tokens[1] + " ms");
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid simulation time: " + tokens[1]);
+            }
+        }
+    }
+
+    private void startReplay(double fromMs) {
+        moveTraces(fromMs);
+        sentEvents = 0;
+        clock.start(fromMs);
+        replaying = true;
+        System.out.println("Client ready to receive data. Starting broadcast replay...");
+    }
+
+    // moves both traces to the simulation time with their indexed seek, from any position
+    private void moveTraces(double fromMs) {
+        canTrace.seek(fromMs);
+        gpsTrace.seek(fromMs);
+        nextFrame = canTrace.getNextMessage();
+        nextGPS = gpsTrace.getNextCoordinate();
+        lastEventMs = fromMs;
+    }
+
+    // sends every event that is due, GPS first when both have the same time
+    private void dispatchDueEvents() {
+        double seekMs = clock.takeSeek();
+        if (!Double.isNaN(seekMs)) {
+            moveTraces(seekMs);
+            for (Subscriber subscriber : subscribers) {
+                subscriber.subscription.reset();
+            }
+        }
+        long nowNanos = System.nanoTime();
+        for (int sent = 0; sent < MAX_EVENTS_PER_DISPATCH; sent++) {
+            double nextMs = nextEventTimeMs();
+            if (nextMs == Double.MAX_VALUE) {
+                finishReplay();
+                return;
+            }
+            if (clock.deadlineNanos(nextMs) > nowNanos)
+                return;
+
+            // the event is not sent if the catch-up policy skips it
+            boolean send = clock.release(nextMs, System.nanoTime());
+            if (nextGPS != null && nextGPS.getTimeOffset() <= nextMs) {
+                if (send)
+                    broadcast(null, nextGPS);
+                nextGPS = gpsTrace.getNextCoordinate();
+            } else {
+                if (send)
+                    broadcast(nextFrame, null);
+                nextFrame = canTrace.getNextMessage();
+            }
+            if (send)
+                sentEvents++;
+            lastEventMs = nextMs;
+        }
+    }
+
+    private double nextEventTimeMs() {
+        double gpsMs = nextGPS != null ? nextGPS.getTimeOffset() : Double.MAX_VALUE;
+        double canMs = nextFrame != null ? nextFrame.getTimestamp() : Double.MAX_VALUE;
+        return Math.min(gpsMs, canMs);
+    }
+
+    /**
+     * Appends the CAN frame or GPS coordinate to every started client and
+     * writes as much as the socket takes. Each protocol is encoded at most
+     * once, and only if a client that subscribed to the message uses it.
+     */
+    private void broadcast(CANFrame frame, GPScoordinates coordinate) {
+        byte[] text = null;
+        byte[] binary = null;
+        int key = frame != null ? frame.getChannel() << 16 | Integer.parseInt(frame.getId(), 16) : GPS_KEY;
+        boolean priority = frame == null || frame instanceof VehicleDynamicsFrame;
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.started || subscriber.closing || !subscriber.channel.isOpen())
+                continue;
+            if (frame != null ? !subscriber.subscription.accept(frame) : !subscriber.subscription.accept(coordinate))
+                continue;
+            byte[] message;
+            if (subscriber.binary) {
+                if (binary == null)
+                    binary = frame != null ? BinaryProtocol.encode(frame) : BinaryProtocol.encode(coordinate);
+                message = binary;
+            } else {
+                if (text == null) {
+                    String line = frame != null ? CANTraceSimulation.formatCANMessage(frame)
+                            : CANTraceSimulation.formatGPSMessage(coordinate);
+                    text = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                }
+                message = text;
+            }
+            enqueue(subscriber, key, priority, message);
+            // a blocked socket is written by the selector once it has room again
+            if (!subscriber.writeBlocked)
+                flush(subscriber);
+        }
+    }
+
+    /**
+     * Appends the message to the outbound buffer, or keeps it as the newest
+     * message of its key if the client is behind.
+     */
+    private void enqueue(Subscriber subscriber, int key, boolean priority, byte[] message) {
+        ByteBuffer outbound = subscriber.outbound;
+        boolean fits = outbound.remaining() >= message.length;
+        if (priority ? fits && subscriber.pendingPriority.isEmpty()
+                : fits && !subscriber.slow && outbound.position() < HIGH_WATER_MARK) {
+            outbound.put(message);
+            return;
+        }
+
+        if (!subscriber.slow) {
+            subscriber.slow = true;
+            subscriber.slowPeriods++;
+            System.out.println("Client " + subscriber.address + " is falling behind, conflating its messages");
+        }
+        Map<Integer, byte[]> pending = priority ? subscriber.pendingPriority : subscriber.pendingOther;
+        if (pending.put(key, message) != null)
+            subscriber.conflated++;
+    }
+
+    /**
+     * Moves conflated messages into the outbound buffer, priority messages
+     * first, as long as they fit.
+     *
+     * @return true if a message was moved
+     */
+    private static boolean drainPending(Subscriber subscriber) {
+        boolean moved = drain(subscriber.pendingPriority, subscriber.outbound);
+        if (subscriber.pendingPriority.isEmpty())
+            moved |= drain(subscriber.pendingOther, subscriber.outbound);
+        return moved;
+    }
+
+    private static boolean drain(Map<Integer, byte[]> pending, ByteBuffer outbound) {
+        boolean moved = false;
+        Iterator<byte[]> messages = pending.values().iterator();
+        while (messages.hasNext()) {
+            byte[] message = messages.next();
+            if (outbound.remaining() < message.length)
+                break;
+            outbound.put(message);
+            messages.remove();
+            moved = true;
+        }
+        return moved;
+    }
+
+    private void finishReplay() {
+        replaying = false;
+        System.out.println("====>>> Broadcast replay completed: " + sentEvents + " events, "
+                + (long) lastEventMs + " ms simulation time <<<======");
+        System.out.println(clock.report(lastEventMs));
+
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.started || !subscriber.channel.isOpen())
+                continue;
+            // the end message follows the conflated messages, see flush
+            subscriber.closing = true;
+            flush(subscriber);
+        }
+        canTrace.resetNextMessage();
+        gpsTrace.resetNextCoordinate();
+    }
+
+    /**
+     * Writes the outbound buffer without blocking, waits for OP_WRITE if the
+     * socket is full. Conflated messages are queued again once the buffer is
+     * below the low-water mark, and a closing client gets its end message
+     * after all of them.
+     */
+    private void flush(Subscriber subscriber) {
+        ByteBuffer outbound = subscriber.outbound;
+        while (true) {
+            outbound.flip();
+            try {
+                subscriber.channel.write(outbound);
+            } catch (IOException e) {
+                outbound.clear();
+                close(subscriber);
+                return;
+            }
+            outbound.compact();
+            if (outbound.position() >= LOW_WATER_MARK || !drainPending(subscriber))
+                break;
+        }
+        // caught up: messages are queued directly again
+        if (subscriber.slow && !subscriber.hasPending() && outbound.position() < LOW_WATER_MARK)
+            subscriber.slow = false;
+        if (subscriber.closing && !subscriber.completeQueued && !subscriber.hasPending()) {
+            byte[] complete = subscriber.binary ? BINARY_END : SIMULATION_COMPLETE;
+            if (outbound.remaining() >= complete.length) {
+                outbound.put(complete);
+                subscriber.completeQueued = true;
+                flush(subscriber);
+                return;
+            }
+        }
+
+        boolean blocked = outbound.position() > 0 || subscriber.hasPending()
+                || (subscriber.closing && !subscriber.completeQueued);
+        if (blocked != subscriber.writeBlocked) {
+            subscriber.writeBlocked = blocked;
+            subscriber.key.interestOps(blocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+        if (!blocked && subscriber.closing)
+            close(subscriber);
+    }
+
+    // closes the connection, the subscriber is removed from the list by the server loop
+    private void close(Subscriber subscriber) {
+        if (!subscriber.channel.isOpen())
+            return;
+        try {
+            subscriber.channel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing client socket: " + e.getMessage());
+        }
+        // conflated messages that were never sent
+        long dropped = subscriber.pendingPriority.size() + subscriber.pendingOther.size();
+        System.out.println("Client connection closed"
+                + (subscriber.slowPeriods > 0 ? ", slow " + subscriber.slowPeriods + " times, "
+                        + subscriber.conflated + " messages replaced by newer ones, " + dropped + " dropped" : ""));
+    }
+
+    // one connected client
+    private static final class Subscriber {
+        final SocketChannel channel;
+        final String address;
+        final ByteBuffer inbound = ByteBuffer.allocate(INBOUND_BUFFER_SIZE);
+        final ByteBuffer outbound = ByteBuffer.allocateDirect(OUTBOUND_BUFFER_SIZE);
+        SelectionKey key;
+
+        // START received, the client gets the replay
+        boolean started = false;
+        // records of BinaryProtocol instead of text lines
+        boolean binary = false;
+        Subscription subscription = Subscription.everything();
+        // disconnect once the outbound buffer is written
+        boolean closing = false;
+        // SIMULATION_COMPLETE or END is in the outbound buffer
+        boolean completeQueued = false;
+        // socket was full, the selector writes the rest
+        boolean writeBlocked = false;
+
+        // newest message per conflation key while the client is behind, in first-seen order
+        final Map<Integer, byte[]> pendingPriority = new LinkedHashMap<>();
+        final Map<Integer, byte[]> pendingOther = new LinkedHashMap<>();
+        // went above the high-water mark and has not caught up below the low-water mark since
+        boolean slow = false;
+        long slowPeriods = 0;
+        // messages replaced by a newer one of the same key
+        long conflated = 0;
+
+        Subscriber(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.address = String.valueOf(channel.getRemoteAddress());
+        }
+
+        boolean hasPending() {
+            return !pendingPriority.isEmpty() || !pendingOther.isEmpty();
+        }
+    }
+}
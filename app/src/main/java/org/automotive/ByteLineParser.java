@@ -0,0 +1,211 @@
+package org.automotive;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Base class of the line based CAN log parsers. Reads the raw file bytes in
+ * large blocks, splits them into lines and lets the subclass decode each line
+ * straight from the buffer, so no String objects are created per line. The
+ * signals are decoded with the table-driven decoders of a SignalDatabase.
+ * Parser instances keep scratch state between lines and are therefore not
+ * thread-safe; use one instance per thread.
+ */
+abstract class ByteLineParser {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // hex digit value for every byte, -1 if the byte is not a hex digit
+    static final byte[] HEX = new byte[256];
+
+    // same as HEX but only accepts upper case digits, frame ids are matched
+    // case-sensitive ("0F7A" is valid, "0f7a" is not)
+    static final byte[] HEX_UPPER = new byte[256];
+
+    // powers of ten that can be represented exactly as a double
+    private static final double[] POW10 = new double[23];
+
+    static {
+        java.util.Arrays.fill(HEX, (byte) -1);
+        java.util.Arrays.fill(HEX_UPPER, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX['0' + i] = (byte) i;
+            HEX_UPPER['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX['A' + i] = (byte) (10 + i);
+            HEX['a' + i] = (byte) (10 + i);
+            HEX_UPPER['A' + i] = (byte) (10 + i);
+        }
+        double pow = 1.0;
+        for (int i = 0; i < POW10.length; i++) {
+            POW10[i] = pow;
+            pow *= 10.0;
+        }
+    }
+
+    // decodes the data bytes of every id that has signal definitions
+    protected final SignalDatabase database;
+
+    protected ByteLineParser(SignalDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Returns a parser for the log format of the file: candump logs start with
+     * a "(" timestamp, anything else is read as a PCAN trace.
+     *
+     * @throws IOException if the file is a BLF log, which is binary and read
+     *                     with BLFReader
+     */
+    static ByteLineParser forFile(String filePath) throws IOException {
+        if (BLFReader.isBLFFile(filePath))
+            throw new IOException(filePath + " is a BLF log, not a text log");
+        return CandumpParser.isCandumpFile(filePath) ? new CandumpParser() : new CANTraceByteParser();
+    }
+
+    /**
+     * Parses one line in [start, end) of the buffer, without the newline.
+     *
+     * @return the decoded frame, or null for lines that are not a CAN message
+     *         and ids that are not decoded
+     */
+    abstract CANFrame parseLine(ByteBuffer buf, int start, int end);
+
+    /**
+     * Reads the channel until the end and passes every decoded frame to the sink.
+     * Only complete lines are parsed, a partial line at the end of the read
+     * buffer is kept and completed with the next read.
+     *
+     * @param channel channel to read the log text from
+     * @param sink    receives the decoded frames in file order
+     */
+    void parse(ReadableByteChannel channel, Consumer<CANFrame> sink) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        while (channel.read(buffer) != -1) {
+            int limit = buffer.position();
+            int lastNewline = lastIndexOf(buffer, (byte) '\n', limit);
+
+            if (lastNewline < 0) {
+                // a single line is longer than the buffer, grow it
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    bigger.put(buffer);
+                    buffer = bigger;
+                }
+                continue;
+            }
+
+            parseLines(buffer, 0, lastNewline + 1, sink);
+
+            // move the unfinished line to the start of the buffer
+            buffer.limit(limit).position(lastNewline + 1);
+            buffer.compact();
+        }
+
+        // the last line of the file may not end with a newline
+        if (buffer.position() > 0) {
+            parseLines(buffer, 0, buffer.position(), sink);
+        }
+    }
+
+    /**
+     * Parses all lines in the byte range [from, to) of the buffer. The buffer
+     * position and limit are not used or changed.
+     *
+     * @return number of frames passed to the sink
+     */
+    int parseLines(ByteBuffer buf, int from, int to, Consumer<CANFrame> sink) {
+        int count = 0;
+        int lineStart = from;
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == '\n') {
+                CANFrame frame = parseLine(buf, lineStart, i);
+                if (frame != null) {
+                    sink.accept(frame);
+                    count++;
+                }
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < to) {
+            CANFrame frame = parseLine(buf, lineStart, to);
+            if (frame != null) {
+                sink.accept(frame);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Parses the hex number in [start, end) with the given digit table.
+     *
+     * @return the value, or -1 if a byte is not a valid digit
+     */
+    static int parseHex(ByteBuffer buf, int start, int end, byte[] digits) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = digits[buf.get(i) & 0xFF];
+            if (digit < 0)
+                return -1;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses a plain decimal number like "1234.5" in [start, end).
+     * Numbers with up to 15 significant digits are computed as mantissa / 10^k,
+     * which is a single correctly rounded division and gives exactly the same
+     * double as Double.parseDouble. Anything else falls back to
+     * Double.parseDouble.
+     */
+    static double parseDecimal(ByteBuffer buf, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0)
+                    fractionDigits++;
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+
+        if (i == end && digits > 0 && digits <= 15 && fractionDigits < POW10.length) {
+            double value = fractionDigits > 0 ? mantissa / POW10[fractionDigits] : (double) mantissa;
+            return negative ? -value : value;
+        }
+
+        byte[] text = new byte[end - start];
+        buf.get(start, text);
+        return Double.parseDouble(new String(text, StandardCharsets.ISO_8859_1));
+    }
+
+    // index of the last occurrence of b before limit, or -1
+    private static int lastIndexOf(ByteBuffer buf, byte b, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (buf.get(i) == b)
+                return i;
+        }
+        return -1;
+    }
+}
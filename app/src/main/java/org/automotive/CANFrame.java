@@ -1,13 +1,16 @@
 package org.automotive;
 
 // this is the base class for all types of can frames
-abstract class CANFrame {
+abstract class CANFrame implements Cloneable {
     // id of the can frame
     protected String id;
 
     // time when the frame was captured
     protected double timestamp;
 
+    // bus the frame was logged on, 0 if the trace has only one
+    protected int channel;
+
     // constructor to set id and timestamp
     public CANFrame(String id, double timestamp) {
         this.id = id;
@@ -24,6 +27,28 @@ abstract class CANFrame {
         return timestamp;
     }
 
+    // method to get the channel
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns a copy of the frame on the channel, the frame itself if it is
+     * on that channel already. Frames are shared by all views of a trace and
+     * all sessions replaying it, so they are never changed.
+     */
+    public CANFrame withChannel(int channel) {
+        if (channel == this.channel)
+            return this;
+        try {
+            CANFrame copy = (CANFrame) clone();
+            copy.channel = channel;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     // every child class must define how to print itself
     public abstract String toString();
 }
@@ -10,9 +10,30 @@ class CANTrace {
     // index to keep track of the next message
     private int currentIndex = 0;
 
-    // method to add a new frame to the list
+    // sparse time index for seek and range, built on first use
+    private TimeIndex timeIndex;
+
+    // method to add a new frame to the list, views, streamed and merged traces
+    // are read-only and throw UnsupportedOperationException
     public void addFrame(CANFrame frame) {
         frames.add(frame);
+        timeIndex = null;
+    }
+
+    // method to add many frames at once, keeps their order
+    public void addFrames(List<CANFrame> newFrames) {
+        frames.addAll(newFrames);
+        timeIndex = null;
+    }
+
+    // method to get the number of frames in the list
+    public int size() {
+        return frames.size();
+    }
+
+    // method to tell whether size() is known without reading the whole trace
+    public boolean isSized() {
+        return true;
     }
 
     // method to print all frames in the list
@@ -34,4 +55,47 @@ class CANTrace {
         currentIndex = 0;
         System.out.println("Reset next message index.");
     }
+
+    // method to stop reading the trace when a replay ends, e.g. the reader thread
+    // of a streamed trace; the trace can be read again from the beginning
+    public void close() {
+    }
+
+    // method to move the next message to the first frame at or after the time
+    public void seek(double timestampMs) {
+        currentIndex = indexOf(timestampMs);
+    }
+
+    // method to find the index of the first frame at or after the time, O(log n)
+    public int indexOf(double timestampMs) {
+        return getTimeIndex().lowerBound(timestampMs);
+    }
+
+    // method to get the frames in [startMs, endMs) as a read-only view
+    public List<CANFrame> range(double startMs, double endMs) {
+        int from = indexOf(startMs);
+        int to = Math.max(from, indexOf(endMs));
+        return Collections.unmodifiableList(frames.subList(from, to));
+    }
+
+    /**
+     * Returns a read-only view of the frames with its own next message index,
+     * so several replays can walk the same trace at the same time. The frames
+     * and the time index are shared, the trace must not change while views
+     * are in use.
+     */
+    public CANTrace view() {
+        CANTrace view = new CANTrace();
+        view.frames = Collections.unmodifiableList(frames);
+        view.timeIndex = timeIndex;
+        return view;
+    }
+
+    // the index needs frames in time order, see TimeIndex.build
+    private TimeIndex getTimeIndex() {
+        if (timeIndex == null) {
+            timeIndex = TimeIndex.build(frames.size(), i -> frames.get(i).getTimestamp());
+        }
+        return timeIndex;
+    }
 }
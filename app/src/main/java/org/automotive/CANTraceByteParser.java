@@ -0,0 +1,120 @@
+package org.automotive;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Byte-level parser for PCAN CAN trace files.
+ * Scans the raw file bytes once and decodes the frame id, the timestamp and the
+ * 8 data bytes with lookup tables, so no String objects are created per line.
+ * The signals are decoded with the table-driven decoders of a SignalDatabase.
+ * A parser instance keeps its token scratch arrays between lines and is
+ * therefore not thread-safe; use one instance per thread.
+ */
+final class CANTraceByteParser extends ByteLineParser {
+    // start and end offsets of the whitespace separated tokens of the current line
+    private int[] tokenStart = new int[16];
+    private int[] tokenEnd = new int[16];
+
+    // parser with the signal definitions from "CAN Frames Info.txt"
+    CANTraceByteParser() {
+        this(SignalDatabase.getDefault());
+    }
+
+    CANTraceByteParser(SignalDatabase database) {
+        super(database);
+    }
+
+    // method to read the can trace file and create a trace object
+    static CANTrace parseFile(String filePath) throws IOException {
+        CANTrace trace = new CANTrace();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            new CANTraceByteParser().parse(channel, trace::addFrame);
+        }
+        return trace;
+    }
+
+    /**
+     * Parses one trace line, e.g.
+     * {@code "     1)         4.0  Rx         0018  8  00 00 00 00 00 00 00 00"}.
+     *
+     * @return the decoded frame, or null for comments, empty lines, lines that
+     *         are not a CAN message and ids that are not decoded
+     */
+    @Override
+    CANFrame parseLine(ByteBuffer buf, int start, int end) {
+        int tokens = tokenize(buf, start, end);
+
+        // skip empty lines and comments
+        if (tokens == 0 || buf.get(tokenStart[0]) == ';')
+            return null;
+
+        // find the last "<id> 8 <b0> ... <b7>" sequence, the id is never the first token
+        int idToken = -1;
+        for (int t = tokens - 10; t >= 1; t--) {
+            if (isMessageAt(buf, t)) {
+                idToken = t;
+                break;
+            }
+        }
+        if (idToken < 0)
+            return null;
+
+        // one array access finds the decoder, ids without signals are skipped
+        int id = parseHex(buf, tokenStart[idToken], tokenEnd[idToken], HEX_UPPER);
+        SignalDatabase.FrameDecoder decoder = id < 0 ? null : database.decoderFor(id);
+        if (decoder == null)
+            return null;
+
+        // data bytes as big-endian long, first byte of the line in the top 8 bits
+        long data = 0;
+        for (int t = idToken + 2; t < idToken + 10; t++) {
+            int value = parseHex(buf, tokenStart[t], tokenEnd[t], HEX);
+            if (value < 0)
+                return null;
+            data = (data << 8) | value;
+        }
+
+        double timestamp = parseDecimal(buf, tokenStart[1], tokenEnd[1]);
+        return decoder.decode(timestamp, data);
+    }
+
+    // checks for "<4 char id> 8 <8 two char data bytes>" starting at token t
+    private boolean isMessageAt(ByteBuffer buf, int t) {
+        if (tokenEnd[t] - tokenStart[t] != 4)
+            return false;
+        if (tokenEnd[t + 1] - tokenStart[t + 1] != 1 || buf.get(tokenStart[t + 1]) != '8')
+            return false;
+        for (int i = t + 2; i < t + 10; i++) {
+            if (tokenEnd[i] - tokenStart[i] != 2)
+                return false;
+        }
+        return true;
+    }
+
+    // splits the line at whitespace and stores the token offsets, returns the token count
+    private int tokenize(ByteBuffer buf, int start, int end) {
+        int count = 0;
+        int i = start;
+        while (i < end) {
+            while (i < end && buf.get(i) <= ' ' && buf.get(i) >= 0)
+                i++;
+            if (i >= end)
+                break;
+            int tokenBegin = i;
+            while (i < end && (buf.get(i) > ' ' || buf.get(i) < 0))
+                i++;
+            if (count == tokenStart.length) {
+                tokenStart = java.util.Arrays.copyOf(tokenStart, count * 2);
+                tokenEnd = java.util.Arrays.copyOf(tokenEnd, count * 2);
+            }
+            tokenStart[count] = tokenBegin;
+            tokenEnd[count] = i;
+            count++;
+        }
+        return count;
+    }
+}
@@ -1,91 +1,250 @@
 package org.automotive;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 // this class reads and parses the can trace file
 class CANTraceParser {
-    // set of valid can ids to filter messages
-    private static final Set<String> VALID_IDS = new HashSet<>(Arrays.asList("0018", "0F7A", "0B41"));
+    // chunks are never smaller than this, small files are parsed as one chunk
+    private static final long MIN_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    // upper bound for a chunk so a single mapping stays well below 2 GB
+    private static final long MAX_CHUNK_SIZE = 256L * 1024 * 1024;
 
     // method to read the can trace file and create a trace object
+    // a binary snapshot next to the file is used when it is up to date, otherwise
+    // the text is parsed and the snapshot is written for the next time
     public static CANTrace parseCANTraceFile(String filePath) throws IOException {
-        CANTrace trace = new CANTrace();
-        BufferedReader reader = new BufferedReader(new FileReader(filePath));
-
-        String line;
-        // read each line of the file
-        while ((line = reader.readLine()) != null) {
-            line = line.trim();
-            // skip empty lines and comments
-            if (line.isEmpty() || line.startsWith(";"))
-                continue;
-
-            // pattern to extract id and data from the line
-            Pattern pattern = Pattern.compile(".*\\s+(\\w{4})\\s+8\\s+((?:\\w{2}\\s*){8})");
-            Matcher matcher = pattern.matcher(line);
-
-            if (matcher.find()) {
-                String id = matcher.group(1);
-                String data = matcher.group(2).replaceAll(" ", "");
-                double timestamp = (double) (Double.parseDouble(line.split("\\s+")[1]));
-
-                // skip if the id is not in valid ids
-                if (!VALID_IDS.contains(id)) {
-                    continue;
-                }
-
-                // create frames based on id
-                switch (id) {
-                    case "0018":
-                        trace.addFrame(new SteeringWheelAngleFrame(
-                                id,
-                                timestamp,
-                                extractSteeringAngle(data)));
-                        break;
-                    case "0F7A":
-                        trace.addFrame(new VehicleSpeedFrame(
-                                id,
-                                timestamp,
-                                extractVehicleSpeed(data)));
-                        break;
-                    case "0B41":
-                        extractYawAndAcceleration(trace, id, timestamp, data);
-                        break;
-                }
-            }
+        try {
+            ColumnarCANTrace snapshot = TraceSnapshot.loadCAN(filePath);
+            if (snapshot != null)
+                return snapshot;
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable trace snapshot: " + e.getMessage());
         }
 
-        reader.close();
+        ColumnarCANTrace trace = parseCANTraceFileColumnar(filePath);
+        try {
+            TraceSnapshot.saveCAN(filePath, trace);
+        } catch (IOException e) {
+            System.out.println("Could not write trace snapshot: " + e.getMessage());
+        }
         return trace;
     }
 
-    // method to extract steering angle from data
-    private static double extractSteeringAngle(String data) {
-        int rawValue = ((Integer.parseInt(data.substring(0, 2), 16) << 8) |
-                Integer.parseInt(data.substring(2, 4), 16)) & 0x3FFF;
-        return rawValue * 0.5 - 2048;
+    /**
+     * Reads the can trace file with all cores. The file is memory-mapped in
+     * chunks that end on line boundaries, the chunks are parsed on the fork-join
+     * pool and the results are merged into one time-ordered trace.
+     *
+     * @param filePath path of the can trace file
+     * @return the parsed trace, frames ordered by timestamp
+     */
+    public static CANTrace parseCANTraceFileParallel(String filePath) throws IOException {
+        return parseCANTraceFileParallel(filePath, new CANTrace());
+    }
+
+    /**
+     * Reads the can trace file in parallel into a columnar trace and trims the
+     * columns, for traces that stay in memory for a long time.
+     */
+    public static ColumnarCANTrace parseCANTraceFileColumnar(String filePath) throws IOException {
+        if (BLFReader.isBLFFile(filePath))
+            return parseBLFFile(filePath);
+        if (CandumpParser.isCandumpFile(filePath))
+            return parseCandumpFile(filePath);
+        ColumnarCANTrace trace = parseCANTraceFileParallel(filePath, new ColumnarCANTrace());
+        trace.trimToSize();
+        return trace;
     }
 
-    // method to extract vehicle speed from data
-    private static double extractVehicleSpeed(String data) {
-        int rawValue = ((Integer.parseInt(data.substring(0, 2), 16) << 8) |
-                Integer.parseInt(data.substring(2, 4), 16)) & 0x0FFF;
-        return rawValue * 0.1;
+    /**
+     * Reads a Vector BLF binary log into a columnar trace. The containers are
+     * inflated on a background thread while the messages are decoded.
+     */
+    public static ColumnarCANTrace parseBLFFile(String filePath) throws IOException {
+        List<CANFrame> frames = new ArrayList<>();
+        new BLFReader().read(filePath, frames::add);
+        return toColumnar(frames);
     }
 
-    // method to extract yaw rate and acceleration data
-    private static void extractYawAndAcceleration(CANTrace trace, String id, double timestamp, String data) {
-        int yawRateRaw = Integer.parseInt(data.substring(0, 4), 16) & 0xFFFF;
-        double yawRate = yawRateRaw * 0.01 - 327.68;
+    /**
+     * Reads a SocketCAN candump log into a columnar trace. The timestamps are
+     * relative to the first frame, so the file is parsed in one pass.
+     */
+    public static ColumnarCANTrace parseCandumpFile(String filePath) throws IOException {
+        List<CANFrame> frames = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            new CandumpParser().parse(channel, frames::add);
+        }
+        return toColumnar(frames);
+    }
 
-        int longAccRaw = Integer.parseInt(data.substring(8, 10), 16) & 0xFF;
-        double longAcc = longAccRaw * 0.08 - 10.24;
+    // messages of different channels may be logged slightly out of order
+    private static ColumnarCANTrace toColumnar(List<CANFrame> frames) {
+        if (!isTimeOrdered(frames)) {
+            frames.sort(Comparator.comparingDouble(CANFrame::getTimestamp));
+        }
 
-        int latAccRaw = Integer.parseInt(data.substring(10, 12), 16) & 0xFF;
-        double latAcc = latAccRaw * 0.08 - 10.24;
+        ColumnarCANTrace trace = new ColumnarCANTrace();
+        trace.addFrames(frames);
+        trace.trimToSize();
+        return trace;
+    }
 
-        trace.addFrame(new VehicleDynamicsFrame(id, timestamp, latAcc, longAcc, yawRate));
+    /**
+     * Same as {@link #parseCANTraceFileParallel(String)} but adds the frames to
+     * the given trace.
+     */
+    static <T extends CANTrace> T parseCANTraceFileParallel(String filePath, T trace) throws IOException {
+        return parseCANTraceFileParallel(filePath, trace, 0);
+    }
+
+    /**
+     * Same as {@link #parseCANTraceFileParallel(String, CANTrace)} with chunks
+     * of the given size, or of a size that fits the file and the number of
+     * cores if it is 0. Tests use tiny chunks so lines cross the boundaries.
+     */
+    static <T extends CANTrace> T parseCANTraceFileParallel(String filePath, T trace, long chunkSize)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            if (chunkSize <= 0)
+                chunkSize = defaultChunkSize(channel.size(), ForkJoinPool.commonPool().getParallelism());
+            long[] bounds = chunkBoundaries(channel, chunkSize);
+
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            List<CANFrame>[] chunks = new List[bounds.length - 1];
+            try {
+                ForkJoinPool.commonPool().invoke(new ChunkParseTask(channel, bounds, chunks, 0, chunks.length));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            // concatenate the chunks in file order
+            int total = 0;
+            for (List<CANFrame> chunk : chunks) {
+                total += chunk.size();
+            }
+            List<CANFrame> frames = new ArrayList<>(total);
+            for (List<CANFrame> chunk : chunks) {
+                frames.addAll(chunk);
+            }
+
+            // logs are normally written in time order, only sort when they are not;
+            // the sort is stable so frames with equal timestamps keep their file order
+            if (!isTimeOrdered(frames)) {
+                frames.sort(Comparator.comparingDouble(CANFrame::getTimestamp));
+            }
+
+            trace.addFrames(frames);
+            return trace;
+        }
+    }
+
+    // a few chunks per core, within the chunk size limits
+    private static long defaultChunkSize(long size, int parallelism) {
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, size / Math.max(1, parallelism * 4L));
+        return Math.min(chunkSize, MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Splits the file into chunks of roughly equal size. Every boundary except
+     * the first and last is placed directly after a newline so no line is
+     * split between two chunks.
+     */
+    private static long[] chunkBoundaries(FileChannel channel, long chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long position = chunkSize;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        while (position < size) {
+            long lineEnd = findNextLineStart(channel, position, probe);
+            if (lineEnd >= size)
+                break;
+            bounds.add(lineEnd);
+            position = lineEnd + chunkSize;
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // returns the position after the first newline at or after position, or the file size
+    private static long findNextLineStart(FileChannel channel, long position, ByteBuffer probe) throws IOException {
+        long size = channel.size();
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0)
+                break;
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    // checks if the timestamps never decrease
+    private static boolean isTimeOrdered(List<CANFrame> frames) {
+        for (int i = 1; i < frames.size(); i++) {
+            if (frames.get(i).getTimestamp() < frames.get(i - 1).getTimestamp())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fork-join task that maps and parses the chunks [from, to), splitting the
+     * range in half until a single chunk is left.
+     */
+    private static class ChunkParseTask extends RecursiveAction {
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final List<CANFrame>[] results;
+        private final int from;
+        private final int to;
+
+        ChunkParseTask(FileChannel channel, long[] bounds, List<CANFrame>[] results, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkParseTask(channel, bounds, results, from, middle),
+                        new ChunkParseTask(channel, bounds, results, middle, to));
+                return;
+            }
+
+            long start = bounds[from];
+            int length = (int) (bounds[from + 1] - start);
+            List<CANFrame> frames = new ArrayList<>();
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                new CANTraceByteParser().parseLines(buffer, 0, length, frames::add);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            results[from] = frames;
+        }
     }
 }
@@ -349,14 +349,28 @@ package org.automotive;
 
 import java.io.*;
 import java.net.*;
-import java.util.concurrent.TimeUnit;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.util.*;
 
 public class CANTraceSimulation {
     private CANTrace canTrace;
     private GPSTrace gpsTrace;
-    private ServerSocket serverSocket;
-    private boolean running = false;
-    private static final int PORT = 54000;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+    private int sessionCount = 0;
+    private ReplayClock.CatchUp catchUp = ReplayClock.DEFAULT_CATCH_UP;
+    private double maxLagMs = ReplayClock.DEFAULT_MAX_LAG_MS;
+    private Timeline timeline;
+    private DriveCatalog catalog;
+    private FleetReplay fleet;
+    private SocketAddress listenAddress = new InetSocketAddress(PORT);
+    static final int PORT = 54000;
+
+    // Unix domain socket used by --unix without a path
+    static final String DEFAULT_UNIX_SOCKET = Paths.get(System.getProperty("java.io.tmpdir"), "roadsense.sock")
+            .toString();
 
     // Constructor to initialize with both traces
     public CANTraceSimulation(CANTrace canTrace, GPSTrace gpsTrace) {
@@ -364,6 +378,76 @@ public class CANTraceSimulation {
         this.gpsTrace = gpsTrace;
     }
 
+    /**
+     * Sets what the replay clocks of the sessions do with events that are more
+     * than maxLagMs late
+     */
+    public void setCatchUpPolicy(ReplayClock.CatchUp catchUp, double maxLagMs) {
+        this.catchUp = catchUp;
+        this.maxLagMs = maxLagMs;
+    }
+
+    /**
+     * Sets the pre-encoded events the sessions send, null to encode every
+     * message while replaying
+     */
+    public void setTimeline(Timeline timeline) {
+        this.timeline = timeline;
+    }
+
+    /**
+     * Sets the catalog of drives clients can ask for with START <driveId>,
+     * null to serve only the traces of the constructor
+     */
+    public void setCatalog(DriveCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Sets the fleet clients can attach to with FLEET, null if the simulator
+     * replays no fleet
+     */
+    public void setFleet(FleetReplay fleet) {
+        this.fleet = fleet;
+    }
+
+    /**
+     * Sets where the server listens: a TCP port (the default is PORT) or a
+     * UnixDomainSocketAddress for receivers on the same machine
+     */
+    public void setListenAddress(SocketAddress listenAddress) {
+        this.listenAddress = listenAddress;
+    }
+
+    /**
+     * Opens a server channel bound to a TCP or Unix domain socket address. A
+     * socket file left behind by a simulator that was killed is replaced.
+     */
+    static ServerSocketChannel openServerChannel(SocketAddress address) throws IOException {
+        if (address instanceof UnixDomainSocketAddress) {
+            Path path = ((UnixDomainSocketAddress) address).getPath();
+            Files.deleteIfExists(path);
+            ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.bind(address);
+            path.toFile().deleteOnExit();
+            return channel;
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(address);
+        return channel;
+    }
+
+    // removes the socket file of a Unix domain socket server, nothing for TCP
+    static void deleteSocketFile(SocketAddress address) {
+        if (!(address instanceof UnixDomainSocketAddress))
+            return;
+        try {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        } catch (IOException e) {
+            System.out.println("Error deleting socket file: " + e.getMessage());
+        }
+    }
+
     /**
      * Starts the simulation as a socket server that sends sensor values to clients
      * with the correct timing.
@@ -371,37 +455,40 @@ public class CANTraceSimulation {
      * data.
      */
     public void startSimulation() {
-        // Check if both CANTrace and GPSTrace objects exist and have data
+        // Check if both CANTrace and GPSTrace objects exist and have data,
+        // a simulator with a catalog may serve only the drives of the catalog
         if (canTrace == null || gpsTrace == null) {
-            System.out.println("Error: CANTrace or GPSTrace object is missing. Cannot start simulation.");
-            return;
-        }
-
-        // Check if objects contain data
-        CANFrame firstFrame = canTrace.getNextMessage();
-        canTrace.resetNextMessage(); // Reset so we don't lose the first message
-
-        if (firstFrame == null || gpsTrace.size() == 0) {
-            System.out.println("Error: CANTrace or GPSTrace contains no data. Cannot start simulation.");
-            return;
+            if (catalog == null) {
+                System.out.println("Error: CANTrace or GPSTrace object is missing. Cannot start simulation.");
+                return;
+            }
+        } else {
+            // Check if objects contain data
+            CANFrame firstFrame = canTrace.getNextMessage();
+            canTrace.resetNextMessage(); // Reset so we don't lose the first message
+
+            if (firstFrame == null || gpsTrace.size() == 0) {
+                System.out.println("Error: CANTrace or GPSTrace contains no data. Cannot start simulation.");
+                return;
+            }
         }
 
-        System.out.println("Starting socket server on port " + PORT + "...");
+        System.out.println("Starting socket server on " + describe(listenAddress) + "...");
         running = true;
 
         try {
             // Create server socket and listen for connections
-            serverSocket = new ServerSocket(PORT);
+            serverChannel = openServerChannel(listenAddress);
 
             // Keep server running to accept multiple clients
             while (running) {
                 try {
                     System.out.println("Waiting for client connection...");
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("Client connected: " + clientSocket.getInetAddress());
+                    SocketChannel clientChannel = serverChannel.accept();
+                    System.out.println("Client connected: " + clientChannel.getRemoteAddress());
 
-                    // Handle client connection in a separate thread
-                    handleClientConnection(clientSocket);
+                    // Every client gets its own session with its own trace position
+                    handleClientConnection(clientChannel);
                 } catch (IOException e) {
                     if (running) {
                         System.out.println("Error accepting client connection: " + e.getMessage());
@@ -417,183 +504,30 @@ public class CANTraceSimulation {
     }
 
     /**
-     * Handles client connection and simulation data streaming
+     * Starts a replay session for the client on its own virtual thread
      * 
-     * @param clientSocket The connected client socket
+     * @param clientChannel The connected client
      */
-    private void handleClientConnection(Socket clientSocket) {
-        Thread clientThread = new Thread(() -> {
-            Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-            try (
-                    BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                    PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-
-                // Wait for client to signal ready to receive data
-                String inputLine = in.readLine();
-                if (inputLine != null && inputLine.equals("START")) {
-                    System.out.println("Client ready to receive data. Starting simulation...");
-
-                    // Run the simulation and send data in real-time
-                    runSimulation(out);
-
-                    // Send simulation complete message
-                    out.println("SIMULATION_COMPLETE");
-                    System.out.println("====>>> Simulation completed successfully  <<<======");
-                }
-            } catch (IOException e) {
-                System.out.println("Client disconnected: " + e.getMessage());
-            } finally {
-                try {
-                    // Close the client socket when done
-                    clientSocket.close();
-                    System.out.println("Client connection closed");
-
-                    // Reset the traces for next client
-                    canTrace.resetNextMessage();
-                    gpsTrace.resetNextCoordinate();
-                } catch (IOException e) {
-                    System.out.println("Error closing client socket: " + e.getMessage());
-                }
-            }
-        });
-
-        // Start the client handling thread
-        clientThread.start();
+    private void handleClientConnection(SocketChannel clientChannel) {
+        int sessionId = ++sessionCount;
+        ReplaySession session = new ReplaySession(sessionId, clientChannel,
+                canTrace != null ? canTrace.view() : null, gpsTrace != null ? gpsTrace.view() : null,
+                new ReplayClock(catchUp, maxLagMs), timeline);
+        session.setCatalog(catalog);
+        session.setFleet(fleet);
+
+        // Sessions wait most of the time, a virtual thread per client is cheap
+        Thread.ofVirtual().name("replay-session-" + sessionId).start(session);
     }
 
     /**
-     * Runs the simulation, sending sensor data with correct timing
+     * Formats a CAN frame as one line of the text protocol, without the line
+     * separator.
      * 
-     * @param out PrintWriter to send data to client
+     * @param frame The CAN frame to format
+     * @return the message, e.g. CAN|0018|4.0|STEERING|...
      */
-    private void runSimulation(PrintWriter out) {
-        // Reset traces to start from beginning
-        canTrace.resetNextMessage();
-        gpsTrace.resetNextCoordinate();
-
-        // Store the simulation start time in nanoseconds for high precision
-        long simStartTimeNanos = System.nanoTime();
-        System.out.println("Simulation started at: " + simStartTimeNanos + " ns");
-
-        // Send the first GPS coordinate (offset 0)
-        GPScoordinates currentGPS = gpsTrace.getNextCoordinate();
-        if (currentGPS != null) {
-            sendGPSData(out, currentGPS);
-        }
-
-        // Get the next GPS coordinate
-        GPScoordinates nextGPS = gpsTrace.getNextCoordinate();
-        double nextGPSTimeMs = (nextGPS != null) ? nextGPS.getTimeOffset() : Double.MAX_VALUE;
-
-        // Variable to track simulation time in milliseconds
-        double simTimeMs = 0;
-
-        // Process all CAN frames in time order
-        CANFrame currentFrame;
-        while ((currentFrame = canTrace.getNextMessage()) != null) {
-            double frameOffsetMs = currentFrame.getTimestamp();
-
-            // Check if we need to send a GPS coordinate before this CAN frame
-            while (nextGPS != null && nextGPSTimeMs <= frameOffsetMs) {
-                // Calculate and wait for the correct time to send GPS data
-                waitUntilSimulationTime(simStartTimeNanos, nextGPSTimeMs);
-
-                // Send GPS data
-                sendGPSData(out, nextGPS);
-
-                // Update simulation time to match the sent GPS time
-                simTimeMs = nextGPSTimeMs;
-
-                // Get next GPS coordinate
-                currentGPS = nextGPS;
-                nextGPS = gpsTrace.getNextCoordinate();
-                nextGPSTimeMs = (nextGPS != null) ? nextGPS.getTimeOffset() : Double.MAX_VALUE;
-            }
-
-            // Calculate and wait for the correct time to send CAN frame
-            waitUntilSimulationTime(simStartTimeNanos, frameOffsetMs);
-
-            // Send CAN frame data
-            sendCANData(out, currentFrame);
-            // System.out.println("Sent CAN frame at offset: " + frameOffsetMs + " ms");
-
-            // Update simulation time to match the sent frame time
-            simTimeMs = frameOffsetMs;
-        }
-
-        // Send any remaining GPS coordinates
-        while (nextGPS != null) {
-            // Calculate and wait for the correct time to send GPS data
-            waitUntilSimulationTime(simStartTimeNanos, nextGPSTimeMs);
-
-            // Send GPS data
-            sendGPSData(out, nextGPS);
-
-            // Update simulation time
-            simTimeMs = nextGPSTimeMs;
-
-            // Get next GPS coordinate
-            nextGPS = gpsTrace.getNextCoordinate();
-            nextGPSTimeMs = (nextGPS != null) ? nextGPS.getTimeOffset() : Double.MAX_VALUE;
-        }
-
-        // Calculate and print total simulation time
-        long simEndTimeNanos = System.nanoTime();
-        double actualDurationMs = (simEndTimeNanos - simStartTimeNanos) / 1_000_000.0;
-
-        System.out.println("Simulation ended at: " + simEndTimeNanos + " ns");
-        System.out.println("Total simulation duration: " + actualDurationMs + " ms");
-        System.out.println("Final simulation time: " + simTimeMs + " ms");
-    }
-
-    /**
-     * Waits until the specified simulation time has been reached
-     * 
-     * @param startTimeNanos The simulation start time in nanoseconds
-     * @param targetTimeMs   The target simulation time in milliseconds
-     */
-    private void waitUntilSimulationTime(long startTimeNanos, double targetTimeMs) {
-        // Convert target time to nanoseconds
-        long targetTimeNanos = startTimeNanos + (long) (targetTimeMs * 1_000_000);
-
-        // Get current time
-        long currentTimeNanos = System.nanoTime();
-
-        // Calculate wait time in nanoseconds
-        long waitTimeNanos = targetTimeNanos - currentTimeNanos;
-
-        // Only wait if the target time is in the future
-        if (waitTimeNanos > 0) {
-            try {
-                // Split into milliseconds and nanoseconds for more precise sleeping
-                long waitTimeMs = waitTimeNanos / 1_000_000;
-                int remainingNanos = (int) (waitTimeNanos % 1_000_000);
-
-                // Sleep for the calculated time
-                if (waitTimeMs > 0) {
-                    TimeUnit.MILLISECONDS.sleep(waitTimeMs);
-                }
-                if (remainingNanos > 0) {
-                    TimeUnit.NANOSECONDS.sleep(remainingNanos);
-                }
-            } catch (InterruptedException e) {
-                System.out.println("Sleep interrupted: " + e.getMessage());
-                Thread.currentThread().interrupt();
-            }
-        } else if (waitTimeNanos < -10_000_000) { // More than 10ms behind
-            // Log warning if we're significantly behind schedule
-            // System.out.println("Warning: Simulation lagging behind by " +
-            // (-waitTimeNanos / 1_000_000.0) + " ms");
-        }
-    }
-
-    /**
-     * Sends CAN frame data to the client
-     * 
-     * @param out   PrintWriter to send data
-     * @param frame The CAN frame to send
-     */
-    private void sendCANData(PrintWriter out, CANFrame frame) {
+    static String formatCANMessage(CANFrame frame) {
         StringBuilder message = new StringBuilder();
 
         // Format: CAN|ID|TIMESTAMP|VALUES
@@ -614,27 +548,32 @@ public class CANTraceSimulation {
                     .append(dynamicsFrame.getYawRate()).append("|")
                     .append(dynamicsFrame.getLongAccel()).append("|")
                     .append(dynamicsFrame.getLatAccel());
+        } else if (frame instanceof SignalFrame) {
+            // Frames of other ids from the signal database: SIGNALS|name=value|...
+            SignalFrame signalFrame = (SignalFrame) frame;
+            message.append("SIGNALS");
+            for (int i = 0; i < signalFrame.getSignalCount(); i++) {
+                message.append("|").append(signalFrame.getSignalName(i))
+                        .append("=").append(signalFrame.getValue(i));
+            }
         }
 
-        // Send message to client
-        out.println(message.toString());
+        return message.toString();
     }
 
     /**
-     * Sends GPS coordinate data to the client
+     * Formats a GPS coordinate as one line of the text protocol, without the
+     * line separator.
      * 
-     * @param out        PrintWriter to send data
-     * @param coordinate The GPS coordinate to send
+     * @param coordinate The GPS coordinate to format
+     * @return the message, e.g. GPS|1000.0|48.123456|11.123456
      */
-    private void sendGPSData(PrintWriter out, GPScoordinates coordinate) {
+    static String formatGPSMessage(GPScoordinates coordinate) {
         // Format: GPS|TIMESTAMP|LATITUDE|LONGITUDE
-        String message = String.format("GPS|%.1f|%f|%f",
+        return String.format("GPS|%.1f|%f|%f",
                 coordinate.getTimeOffset(),
                 coordinate.getLatitude(),
                 coordinate.getLongitude());
-
-        // Send message to client
-        out.println(message);
     }
 
     /**
@@ -643,36 +582,197 @@ public class CANTraceSimulation {
     public void stopSimulation() {
         running = false;
 
-        if (serverSocket != null && !serverSocket.isClosed()) {
+        if (serverChannel != null && serverChannel.isOpen()) {
             try {
-                serverSocket.close();
+                serverChannel.close();
                 System.out.println("Server socket closed");
             } catch (IOException e) {
                 System.out.println("Error closing server socket: " + e.getMessage());
             }
+            deleteSocketFile(listenAddress);
         }
     }
 
+    // "port 54000" or "Unix domain socket /tmp/roadsense.sock" for log messages
+    static String describe(SocketAddress address) {
+        if (address instanceof UnixDomainSocketAddress)
+            return "Unix domain socket " + ((UnixDomainSocketAddress) address).getPath();
+        return "port " + ((InetSocketAddress) address).getPort();
+    }
+
+    /**
+     * The address the --unix option selects: the Unix domain socket at the
+     * given path or DEFAULT_UNIX_SOCKET, TCP on PORT without the option
+     */
+    private static SocketAddress listenAddress(Map<String, String> options) {
+        if (!options.containsKey("unix"))
+            return new InetSocketAddress(PORT);
+        String path = options.get("unix");
+        return UnixDomainSocketAddress.of(path.isEmpty() ? DEFAULT_UNIX_SOCKET : path);
+    }
+
     public static void main(String[] args) {
+        // Split the arguments into file paths and --name[=value] options
+        List<String> files = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "" : arg.substring(eq + 1));
+            } else {
+                files.add(arg);
+            }
+        }
+
         // Ensure the user provides file paths as arguments
-        if (args.length < 2) {
-            System.out.println("Usage: java CANSimulation <can_file_path> <gps_file_path>");
+        if (files.size() < 2 && !options.containsKey("catalog")) {
+            System.out.println("Usage: java CANSimulation [<can_file_path>[,<can_file_path>...] <gps_file_path>] [--catalog=<dir>] [--cache-mb=<n>] [--stream | --no-snapshot] [--reorder-window=<ms>] [--broadcast] [--catch-up=burst|skip|rebase] [--max-lag=<ms>] [--multicast[=<group>:<port>]] [--multicast-if=<name>] [--unix[=<path>]] [--shm[=<path>]] [--shm-capacity=<records>] [--fleet=<vehicles>] [--fleet-drives=<driveId>,...] [--fleet-shift=<ms>]");
+            System.out.println("  --catalog=<dir> also serve the drives in the subdirectories of dir, START <driveId>"
+                    + " picks one; the trace files can be left out");
+            System.out.println("  --cache-mb=<n> memory the loaded drives of the catalog may take (default "
+                    + DriveCatalog.DEFAULT_CACHE_BYTES / (1024 * 1024) + ")");
+            System.out.println("  --stream      parse the CAN trace lazily while replaying instead of loading it first");
+            System.out.println("  --no-snapshot always parse the CAN text, don't read or write the .rsnap snapshot");
+            System.out.println("  --reorder-window=<ms> how late a frame may be in a merged CAN trace (default "
+                    + MergedCANTrace.DEFAULT_REORDER_WINDOW_MS + ")");
+            System.out.println("  --broadcast   replay the drive once for all clients on a non-blocking server");
+            System.out.println("  --catch-up=burst|skip|rebase what to do with events that are late (default burst)");
+            System.out.println("  --max-lag=<ms> how late an event may be before the catch-up policy applies (default "
+                    + ReplayClock.DEFAULT_MAX_LAG_MS + ")");
+            System.out.println("  --multicast[=<group>:<port>] also publish the replay to a multicast group (default "
+                    + MulticastFeed.DEFAULT_GROUP + ":" + MulticastFeed.DEFAULT_PORT + ")");
+            System.out.println("  --multicast-if=<name> network interface of the multicast group");
+            System.out.println("  --unix[=<path>] listen on a Unix domain socket instead of TCP port " + PORT
+                    + " (default " + DEFAULT_UNIX_SOCKET + ")");
+            System.out.println("  --shm[=<path>] also publish the replay to a shared memory ring (default "
+                    + SharedMemoryFeed.DEFAULT_PATH + ")");
+            System.out.println("  --shm-capacity=<records> size of the shared memory ring, a power of two (default "
+                    + SharedMemoryRing.DEFAULT_CAPACITY + ")");
+            System.out.println("  --fleet=<vehicles> also replay a fleet of vehicles to the connections that send FLEET");
+            System.out.println("  --fleet-drives=<driveId>,... drives of the catalog the fleet replays (default the trace files)");
+            System.out.println("  --fleet-shift=<ms> time between the starts of two copies of a drive (default spread"
+                    + " evenly over the drive)");
             return;
         }
 
-        String canFilePath = args[0];
-        String gpsFilePath = args[1];
+        if (options.containsKey("catalog") && (options.containsKey("stream") || options.containsKey("broadcast"))) {
+            // Drives of the catalog are loaded up front and replayed per session
+            System.out.println("Error: --catalog can't be used with --stream or --broadcast");
+            return;
+        }
+        if (options.containsKey("fleet") && options.containsKey("broadcast")) {
+            // Fleet connections are attached by the sessions of the default server
+            System.out.println("Error: --fleet can't be used with --broadcast");
+            return;
+        }
 
         try {
-            // Parse CAN and GPS trace files
-            System.out.println("Parsing CAN trace file: " + canFilePath);
-            CANTrace canTrace = CANTraceParser.parseCANTraceFile(canFilePath);
+            // Parse CAN and GPS trace files, a simulator with a catalog may have none of its own
+            CANTrace canTrace = null;
+            GPSTrace gpsTrace = null;
+            if (files.size() >= 2) {
+                // Several CAN buses can be given as comma separated paths
+                canTrace = loadCANTraces(files.get(0).split(","), options);
+                System.out.println("Parsing GPS trace file: " + files.get(1));
+                gpsTrace = GPSParser.parseGPSTraceFile(files.get(1));
+            }
 
-            System.out.println("Parsing GPS trace file: " + gpsFilePath);
-            GPSTrace gpsTrace = GPSParser.parseGPSTraceFile(gpsFilePath);
+            ReplayClock.CatchUp catchUp = options.containsKey("catch-up")
+                    ? ReplayClock.CatchUp.parse(options.get("catch-up"))
+                    : ReplayClock.DEFAULT_CATCH_UP;
+            double maxLagMs = options.containsKey("max-lag")
+                    ? Double.parseDouble(options.get("max-lag"))
+                    : ReplayClock.DEFAULT_MAX_LAG_MS;
+
+            if (options.containsKey("broadcast")) {
+                // One replay clock for all clients on a single selector thread
+                BroadcastServer server = new BroadcastServer(canTrace, gpsTrace, listenAddress(options));
+                server.setCatchUpPolicy(catchUp, maxLagMs);
+                server.start();
+                return;
+            }
 
             // Create simulation object with both traces
             CANTraceSimulation simulation = new CANTraceSimulation(canTrace, gpsTrace);
+            simulation.setCatchUpPolicy(catchUp, maxLagMs);
+            simulation.setListenAddress(listenAddress(options));
+
+            // A streamed trace is read while replaying, it can't be encoded up front
+            Timeline timeline = canTrace == null || options.containsKey("stream")
+                    ? null : buildTimeline(canTrace, gpsTrace);
+            simulation.setTimeline(timeline);
+
+            DriveCatalog catalog = null;
+            if (options.containsKey("catalog")) {
+                // Drives are loaded when a session asks for them and shared by all sessions
+                long cacheBytes = options.containsKey("cache-mb")
+                        ? Long.parseLong(options.get("cache-mb")) * 1024 * 1024
+                        : DriveCatalog.DEFAULT_CACHE_BYTES;
+                catalog = new DriveCatalog(Path.of(options.get("catalog")), cacheBytes,
+                        (driveId, directory) -> loadDrive(driveId, directory, options));
+                System.out.println("Serving " + catalog.driveIds().size() + " drives of the catalog "
+                        + catalog.getDirectory());
+                Thread.ofPlatform().name("catalog-watcher").daemon().start(catalog);
+                simulation.setCatalog(catalog);
+            }
+
+            if (options.containsKey("multicast")) {
+                // The feed sends the events of the timeline, lost ones are resent by the sessions
+                if (timeline == null) {
+                    System.out.println("Error: --multicast needs the pre-encoded timeline of trace files, it can't be used with --stream");
+                    return;
+                }
+                MulticastFeed feed = new MulticastFeed(timeline, MulticastFeed.parseGroup(options.get("multicast")),
+                        new ReplayClock(catchUp, maxLagMs));
+                feed.open(options.get("multicast-if"));
+                Thread.ofPlatform().name("multicast-feed").daemon().start(feed);
+            }
+
+            if (options.containsKey("shm")) {
+                // Receivers on this machine read the records straight from the mapped file
+                if (timeline == null) {
+                    System.out.println("Error: --shm needs the pre-encoded timeline of trace files, it can't be used with --stream");
+                    return;
+                }
+                String path = options.get("shm");
+                SharedMemoryFeed feed = new SharedMemoryFeed(timeline,
+                        path.isEmpty() ? SharedMemoryFeed.DEFAULT_PATH : Path.of(path),
+                        new ReplayClock(catchUp, maxLagMs));
+                feed.open(options.containsKey("shm-capacity")
+                        ? Integer.parseInt(options.get("shm-capacity"))
+                        : SharedMemoryRing.DEFAULT_CAPACITY);
+                Thread.ofPlatform().name("shm-feed").daemon().start(feed);
+            }
+
+            if (options.containsKey("fleet")) {
+                // One thread and one timing wheel replay all vehicles
+                List<Timeline> drives = new ArrayList<>();
+                if (options.containsKey("fleet-drives")) {
+                    if (catalog == null) {
+                        System.out.println("Error: --fleet-drives names drives of the catalog, it needs --catalog");
+                        return;
+                    }
+                    for (String driveId : options.get("fleet-drives").split(",")) {
+                        Timeline driveTimeline = catalog.get(driveId).getTimeline();
+                        if (driveTimeline == null) {
+                            System.out.println("Error: drive " + driveId + " has no pre-encoded timeline for the fleet");
+                            return;
+                        }
+                        drives.add(driveTimeline);
+                    }
+                } else if (timeline != null) {
+                    drives.add(timeline);
+                } else {
+                    System.out.println("Error: --fleet needs the pre-encoded timeline of trace files or --fleet-drives,"
+                            + " it can't be used with --stream");
+                    return;
+                }
+                FleetReplay fleet = new FleetReplay(Integer.parseInt(options.get("fleet")), drives,
+                        options.containsKey("fleet-shift") ? Double.parseDouble(options.get("fleet-shift")) : -1,
+                        new ReplayClock(catchUp, maxLagMs));
+                Thread.ofPlatform().name("fleet").daemon().start(fleet);
+                simulation.setFleet(fleet);
+            }
 
             // Start the simulation server
             simulation.startSimulation();
@@ -681,4 +781,98 @@ public class CANTraceSimulation {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Merges and encodes the traces once for all sessions, null if that is
+     * not possible and the sessions encode every message themselves.
+     */
+    private static Timeline buildTimeline(CANTrace canTrace, GPSTrace gpsTrace) throws IOException {
+        long encodeStartNanos = System.nanoTime();
+        try {
+            Timeline timeline = Timeline.build(canTrace, gpsTrace);
+            System.out.println("Encoded " + timeline.size() + " events in "
+                    + (System.nanoTime() - encodeStartNanos) / 1_000_000 + " ms");
+            return timeline;
+        } catch (IllegalStateException e) {
+            System.out.println("Replaying without a pre-encoded timeline: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Loads the CAN trace files of a drive, several files become the channels
+     * of one merged trace.
+     */
+    private static CANTrace loadCANTraces(String[] canFilePaths, Map<String, String> options) throws IOException {
+        if (canFilePaths.length == 1)
+            return loadCANTrace(canFilePaths[0], options);
+
+        // Each bus becomes a channel of one time-ordered stream
+        List<CANTrace> channels = new ArrayList<>();
+        for (String canFilePath : canFilePaths) {
+            channels.add(loadCANTrace(canFilePath, options));
+        }
+        double reorderWindowMs = options.containsKey("reorder-window")
+                ? Double.parseDouble(options.get("reorder-window"))
+                : MergedCANTrace.DEFAULT_REORDER_WINDOW_MS;
+        System.out.println("Merging " + channels.size() + " CAN channels");
+        return new MergedCANTrace(channels, reorderWindowMs, MergedCANTrace.DEFAULT_REORDER_CAPACITY);
+    }
+
+    /**
+     * Loads a drive of the catalog from its directory: the file whose name
+     * starts with "gps" is the GPS trace, all other files except snapshots
+     * are CAN traces.
+     */
+    private static Drive loadDrive(String driveId, Path directory, Map<String, String> options) throws IOException {
+        String gpsFilePath = null;
+        List<String> canFilePaths = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.startsWith(".") || name.contains(TraceSnapshot.SUFFIX))
+                    continue;
+                if (name.toLowerCase().startsWith("gps")) {
+                    gpsFilePath = entry.toString();
+                } else {
+                    canFilePaths.add(entry.toString());
+                }
+            }
+        }
+        if (gpsFilePath == null || canFilePaths.isEmpty())
+            throw new IOException("Drive " + driveId + " needs a gps file and at least one CAN trace");
+        // The channels of a merged trace are numbered in file name order
+        Collections.sort(canFilePaths);
+
+        CANTrace canTrace = loadCANTraces(canFilePaths.toArray(new String[0]), options);
+        System.out.println("Parsing GPS trace file: " + gpsFilePath);
+        GPSTrace gpsTrace = GPSParser.parseGPSTraceFile(gpsFilePath);
+        return new Drive(driveId, canTrace, gpsTrace, buildTimeline(canTrace, gpsTrace));
+    }
+
+    /**
+     * Loads one CAN trace file as selected by the --stream and --no-snapshot
+     * options. BLF binary logs are always loaded up front.
+     */
+    private static CANTrace loadCANTrace(String canFilePath, Map<String, String> options) throws IOException {
+        if (options.containsKey("stream") && !BLFReader.isBLFFile(canFilePath)) {
+            // Frames are decoded on demand with a bounded read-ahead buffer
+            System.out.println("Streaming CAN trace file: " + canFilePath);
+            return new StreamingCANTrace(canFilePath);
+        }
+
+        // Large fleet logs are memory-mapped and parsed on all cores
+        System.out.println("Parsing CAN trace file: " + canFilePath);
+        long parseStartNanos = System.nanoTime();
+        CANTrace canTrace;
+        // A binary snapshot next to the trace makes restarts near-instant
+        if (options.containsKey("no-snapshot")) {
+            canTrace = CANTraceParser.parseCANTraceFileColumnar(canFilePath);
+        } else {
+            canTrace = CANTraceParser.parseCANTraceFile(canFilePath);
+        }
+        System.out.println("Parsed " + canTrace.size() + " CAN frames in "
+                + (System.nanoTime() - parseStartNanos) / 1_000_000 + " ms");
+        return canTrace;
+    }
+}
@@ -0,0 +1,218 @@
+package org.automotive;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Byte-level parser for SocketCAN logs written by {@code candump -l}, e.g.
+ * <pre>
+ * (1700000000.123456) can0 B41#0102030405060708
+ * </pre>
+ * The absolute epoch timestamps are turned into milliseconds since the first
+ * frame of the log, like the timestamps of the PCAN traces. They are parsed as
+ * integer nanoseconds so the difference stays exact. Every interface name
+ * (can0, can1, vcan0, ...) becomes a channel number in the order of first
+ * appearance, starting at 1.
+ *
+ * Remote frames ({@code 123#R}), extended ids ({@code 00000B41#...}, 8 hex
+ * digits) and ids without signal definitions are skipped, as in BLFReader:
+ * the signal definitions are for standard ids only. Data shorter than 8 bytes is padded with zeros, CAN FD frames
+ * ({@code 123##<flags><data>}) are decoded from their first 8 bytes. A parser
+ * instance remembers the first timestamp and the interfaces, so use a new
+ * instance for every file.
+ */
+final class CandumpParser extends ByteLineParser {
+    private static final int MAX_FRACTION_DIGITS = 9;
+
+    // bytes looked at to detect the log format of a file
+    private static final int FORMAT_PROBE_SIZE = 4096;
+
+    // epoch time of the first frame in nanoseconds, set by the first frame
+    private long firstTimeNanos = Long.MIN_VALUE;
+
+    // interface names, the channel number is the position + 1
+    private final List<String> interfaces = new ArrayList<>();
+
+    // parser with the signal definitions from "CAN Frames Info.txt"
+    CandumpParser() {
+        this(SignalDatabase.getDefault());
+    }
+
+    CandumpParser(SignalDatabase database) {
+        super(database);
+    }
+
+    // checks if the first non-blank byte of the file is the "(" of a candump timestamp
+    static boolean isCandumpFile(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer probe = ByteBuffer.allocate(FORMAT_PROBE_SIZE);
+            channel.read(probe, 0);
+            int first = skipBlanks(probe, 0, probe.position());
+            return first < probe.position() && probe.get(first) == '(';
+        }
+    }
+
+    /**
+     * Parses one log line, e.g. {@code "(1700000000.123456) can0 B41#0102030405060708"}.
+     *
+     * @return the decoded frame, or null for empty lines, lines that are not a
+     *         CAN message, remote frames and ids that are not decoded
+     */
+    @Override
+    CANFrame parseLine(ByteBuffer buf, int start, int end) {
+        int i = skipBlanks(buf, start, end);
+        if (i >= end || buf.get(i) != '(')
+            return null;
+
+        // "(<seconds>.<fraction>)"
+        int timeEnd = indexOf(buf, (byte) ')', i + 1, end);
+        if (timeEnd < 0)
+            return null;
+        long timeNanos = parseTimeNanos(buf, i + 1, timeEnd);
+        if (timeNanos < 0)
+            return null;
+
+        // interface name
+        int nameStart = skipBlanks(buf, timeEnd + 1, end);
+        int nameEnd = skipToken(buf, nameStart, end);
+        if (nameStart == nameEnd)
+            return null;
+
+        // "<id>#<data>", the id has 3 (standard) or 8 (extended) hex digits
+        int frameStart = skipBlanks(buf, nameEnd, end);
+        int frameEnd = skipToken(buf, frameStart, end);
+        int hash = indexOf(buf, (byte) '#', frameStart, frameEnd);
+        if (hash <= frameStart || hash - frameStart > 8)
+            return null;
+        int id = parseHex(buf, frameStart, hash, HEX);
+        if (id < 0)
+            return null;
+        boolean extended = hash - frameStart > 3;
+
+        int dataStart = hash + 1;
+        if (dataStart < frameEnd && buf.get(dataStart) == 'R')
+            return null;
+        if (dataStart < frameEnd && buf.get(dataStart) == '#') {
+            // CAN FD: one flags digit before the data
+            dataStart += 2;
+        }
+
+        // the first timestamp and interface of the log count, also for ids that are skipped
+        if (firstTimeNanos == Long.MIN_VALUE)
+            firstTimeNanos = timeNanos;
+        int channel = channelOf(buf, nameStart, nameEnd);
+
+        // an extended id is not the standard id with the same digits
+        if (extended)
+            return null;
+        SignalDatabase.FrameDecoder decoder = database.decoderFor(id);
+        if (decoder == null)
+            return null;
+
+        // data bytes as big-endian long, first byte in the top 8 bits; '.' separators are allowed
+        long data = 0;
+        int bytes = 0;
+        int p = dataStart;
+        while (bytes < 8 && p < frameEnd) {
+            if (buf.get(p) == '.') {
+                p++;
+                continue;
+            }
+            if (p + 2 > frameEnd)
+                return null;
+            int value = parseHex(buf, p, p + 2, HEX);
+            if (value < 0)
+                return null;
+            data = (data << 8) | value;
+            bytes++;
+            p += 2;
+        }
+        data <<= 8 * (8 - bytes);
+
+        return decoder.decode((timeNanos - firstTimeNanos) / 1_000_000.0, data).withChannel(channel);
+    }
+
+    // interface names in the order of their channel numbers
+    List<String> getInterfaces() {
+        return Collections.unmodifiableList(interfaces);
+    }
+
+    // channel number of the interface name, new names get the next number
+    private int channelOf(ByteBuffer buf, int start, int end) {
+        for (int c = 0; c < interfaces.size(); c++) {
+            String name = interfaces.get(c);
+            if (name.length() == end - start && matches(buf, start, name))
+                return c + 1;
+        }
+        byte[] name = new byte[end - start];
+        buf.get(start, name);
+        interfaces.add(new String(name, StandardCharsets.ISO_8859_1));
+        return interfaces.size();
+    }
+
+    private static boolean matches(ByteBuffer buf, int start, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (buf.get(start + i) != name.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses "seconds.fraction" into nanoseconds, -1 if it is not a valid
+     * time. Fraction digits beyond nanoseconds are ignored.
+     */
+    private static long parseTimeNanos(ByteBuffer buf, int start, int end) {
+        long seconds = 0;
+        int i = start;
+        for (; i < end && buf.get(i) != '.'; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            seconds = seconds * 10 + digit;
+        }
+        if (i == start)
+            return -1;
+
+        long nanos = 0;
+        int fractionDigits = 0;
+        for (i++; i < end; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            if (fractionDigits < MAX_FRACTION_DIGITS) {
+                nanos = nanos * 10 + digit;
+                fractionDigits++;
+            }
+        }
+        for (; fractionDigits < MAX_FRACTION_DIGITS; fractionDigits++) {
+            nanos *= 10;
+        }
+        return seconds * 1_000_000_000L + nanos;
+    }
+
+    private static int skipBlanks(ByteBuffer buf, int i, int end) {
+        while (i < end && buf.get(i) <= ' ' && buf.get(i) >= 0)
+            i++;
+        return i;
+    }
+
+    private static int skipToken(ByteBuffer buf, int i, int end) {
+        while (i < end && (buf.get(i) > ' ' || buf.get(i) < 0))
+            i++;
+        return i;
+    }
+
+    private static int indexOf(ByteBuffer buf, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == b)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,469 @@
+package org.automotive;
+
+import java.util.*;
+
+/**
+ * CAN trace stored as primitive columns instead of one object per frame.
+ * Every row keeps its timestamp, frame kind and id index; the decoded signal
+ * values live in one column per signal, and only rows of the matching kind
+ * have an entry there. A row therefore costs 11 bytes plus 8 bytes per signal,
+ * compared to a frame object with its header, fields and list reference.
+ *
+ * Use {@link #cursor()} to iterate without allocating frames. The inherited
+ * getNextMessage() still works and creates a frame for each row.
+ */
+class ColumnarCANTrace extends CANTrace {
+    // frame kinds stored in the kind column
+    static final byte STEERING = 0;
+    static final byte SPEED = 1;
+    static final byte DYNAMICS = 2;
+
+    // any other frame type, e.g. SignalFrame, kept as an object
+    static final byte OTHER = 3;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // row columns
+    private double[] timestamps = new double[INITIAL_CAPACITY];
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    private char[] idIndexes = new char[INITIAL_CAPACITY];
+    private int rowCount = 0;
+
+    // distinct frame ids, a row stores the index into this list
+    private final List<String> idNames = new ArrayList<>();
+
+    // signal columns
+    private double[] steeringAngles = new double[INITIAL_CAPACITY];
+    private int steeringCount = 0;
+    private double[] speeds = new double[INITIAL_CAPACITY];
+    private int speedCount = 0;
+    private double[] yawRates = new double[INITIAL_CAPACITY];
+    private double[] latAccels = new double[INITIAL_CAPACITY];
+    private double[] longAccels = new double[INITIAL_CAPACITY];
+    private int dynamicsCount = 0;
+
+    // frames without dedicated columns, only ids outside the built-in three
+    private final List<CANFrame> otherFrames = new ArrayList<>();
+
+    // cursor behind getNextMessage and resetNextMessage
+    private final Cursor messageCursor = new Cursor();
+
+    // sparse index: time index plus the number of rows of each kind before
+    // every stride-th row, so a cursor can be placed anywhere without a scan
+    // from the start. Built on first use and dropped when rows are added.
+    private TimeIndex timeIndex;
+    private int[][] kindCountsBefore;
+
+    // views share the columns of their trace and can't add rows
+    private boolean readOnly = false;
+
+    public ColumnarCANTrace() {
+    }
+
+    // creates a view that shares the columns and the index of the source
+    private ColumnarCANTrace(ColumnarCANTrace source) {
+        this.timestamps = source.timestamps;
+        this.kinds = source.kinds;
+        this.idIndexes = source.idIndexes;
+        this.rowCount = source.rowCount;
+        this.idNames.addAll(source.idNames);
+        this.steeringAngles = source.steeringAngles;
+        this.steeringCount = source.steeringCount;
+        this.speeds = source.speeds;
+        this.speedCount = source.speedCount;
+        this.yawRates = source.yawRates;
+        this.latAccels = source.latAccels;
+        this.longAccels = source.longAccels;
+        this.dynamicsCount = source.dynamicsCount;
+        this.otherFrames.addAll(source.otherFrames);
+        this.timeIndex = source.timeIndex;
+        this.kindCountsBefore = source.kindCountsBefore;
+        this.readOnly = true;
+    }
+
+    // creates a trace from complete columns, used when loading a snapshot
+    ColumnarCANTrace(double[] timestamps, byte[] kinds, char[] idIndexes, List<String> idNames,
+            double[] steeringAngles, double[] speeds, double[] yawRates, double[] latAccels, double[] longAccels) {
+        this.timestamps = timestamps;
+        this.kinds = kinds;
+        this.idIndexes = idIndexes;
+        this.rowCount = timestamps.length;
+        this.idNames.addAll(idNames);
+        this.steeringAngles = steeringAngles;
+        this.steeringCount = steeringAngles.length;
+        this.speeds = speeds;
+        this.speedCount = speeds.length;
+        this.yawRates = yawRates;
+        this.latAccels = latAccels;
+        this.longAccels = longAccels;
+        this.dynamicsCount = yawRates.length;
+    }
+
+    // same as above with the sparse index stored in the snapshot
+    ColumnarCANTrace(double[] timestamps, byte[] kinds, char[] idIndexes, List<String> idNames,
+            double[] steeringAngles, double[] speeds, double[] yawRates, double[] latAccels, double[] longAccels,
+            double[] indexTimes, int[] indexSteering, int[] indexSpeed, int[] indexDynamics) {
+        this(timestamps, kinds, idIndexes, idNames, steeringAngles, speeds, yawRates, latAccels, longAccels);
+        this.timeIndex = TimeIndex.fromKeys(rowCount, indexTimes, row -> this.timestamps[row]);
+        if (timeIndex != null) {
+            kindCountsBefore = new int[][] { indexSteering, indexSpeed, indexDynamics, new int[indexTimes.length] };
+        }
+    }
+
+    // method to add a new frame, its values are copied into the columns
+    @Override
+    public void addFrame(CANFrame frame) {
+        if (frame instanceof SteeringWheelAngleFrame) {
+            addRow(STEERING, frame);
+            steeringAngles = ensureCapacity(steeringAngles, steeringCount);
+            steeringAngles[steeringCount++] = ((SteeringWheelAngleFrame) frame).getAngle();
+        } else if (frame instanceof VehicleSpeedFrame) {
+            addRow(SPEED, frame);
+            speeds = ensureCapacity(speeds, speedCount);
+            speeds[speedCount++] = ((VehicleSpeedFrame) frame).getSpeed();
+        } else if (frame instanceof VehicleDynamicsFrame) {
+            VehicleDynamicsFrame dynamics = (VehicleDynamicsFrame) frame;
+            addRow(DYNAMICS, frame);
+            yawRates = ensureCapacity(yawRates, dynamicsCount);
+            latAccels = ensureCapacity(latAccels, dynamicsCount);
+            longAccels = ensureCapacity(longAccels, dynamicsCount);
+            yawRates[dynamicsCount] = dynamics.getYawRate();
+            latAccels[dynamicsCount] = dynamics.getLatAccel();
+            longAccels[dynamicsCount] = dynamics.getLongAccel();
+            dynamicsCount++;
+        } else {
+            addRow(OTHER, frame);
+            otherFrames.add(frame);
+        }
+    }
+
+    @Override
+    public void addFrames(List<CANFrame> newFrames) {
+        for (CANFrame frame : newFrames) {
+            addFrame(frame);
+        }
+    }
+
+    @Override
+    public int size() {
+        return rowCount;
+    }
+
+    // method to print all frames
+    @Override
+    public void printTrace() {
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            System.out.println(cursor.toFrame());
+        }
+    }
+
+    // method to get the next frame, creates a frame object for the row
+    @Override
+    public CANFrame getNextMessage() {
+        return messageCursor.next() ? messageCursor.toFrame() : null;
+    }
+
+    // method to reset the index to start from the beginning
+    @Override
+    public void resetNextMessage() {
+        messageCursor.reset();
+        System.out.println("Reset next message index.");
+    }
+
+    // method to move the next message to the first frame at or after the time
+    @Override
+    public void seek(double timestampMs) {
+        messageCursor.moveBefore(indexOf(timestampMs));
+    }
+
+    @Override
+    public int indexOf(double timestampMs) {
+        buildIndex();
+        return timeIndex.lowerBound(timestampMs);
+    }
+
+    // method to get the frames in [startMs, endMs), creates a frame per row
+    @Override
+    public List<CANFrame> range(double startMs, double endMs) {
+        List<CANFrame> result = new ArrayList<>();
+        Cursor cursor = cursor(startMs, endMs);
+        while (cursor.next()) {
+            result.add(cursor.toFrame());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns a read-only view with its own getNextMessage position. The
+     * columns are shared, not copied, so a view costs a few objects.
+     */
+    @Override
+    public ColumnarCANTrace view() {
+        return new ColumnarCANTrace(this);
+    }
+
+    /**
+     * Returns a new cursor positioned before the first row. Cursors are
+     * independent of each other and of getNextMessage().
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Returns a new cursor over the rows in [startMs, endMs), positioned
+     * before the first of them. Finding both ends is O(log n).
+     */
+    public Cursor cursor(double startMs, double endMs) {
+        int from = indexOf(startMs);
+        Cursor cursor = new Cursor();
+        cursor.endRow = Math.max(from, indexOf(endMs));
+        cursor.moveBefore(from);
+        return cursor;
+    }
+
+    // the index needs rows in time order, see TimeIndex.build
+    private void buildIndex() {
+        if (timeIndex != null)
+            return;
+        TimeIndex index = TimeIndex.build(rowCount, row -> timestamps[row]);
+        int stride = index.stride();
+        int entries = (rowCount + stride - 1) / stride;
+        int[][] counts = new int[4][entries];
+        int[] running = new int[4];
+        for (int row = 0; row < rowCount; row++) {
+            if (row % stride == 0) {
+                for (int kind = 0; kind < 4; kind++) {
+                    counts[kind][row / stride] = running[kind];
+                }
+            }
+            running[kinds[row]]++;
+        }
+        kindCountsBefore = counts;
+        timeIndex = index;
+    }
+
+    /**
+     * Shrinks all columns to their used length, call once loading is done.
+     */
+    public void trimToSize() {
+        if (timestamps.length == rowCount && steeringAngles.length == steeringCount
+                && speeds.length == speedCount && yawRates.length == dynamicsCount)
+            return;
+        timestamps = Arrays.copyOf(timestamps, rowCount);
+        kinds = Arrays.copyOf(kinds, rowCount);
+        idIndexes = Arrays.copyOf(idIndexes, rowCount);
+        steeringAngles = Arrays.copyOf(steeringAngles, steeringCount);
+        speeds = Arrays.copyOf(speeds, speedCount);
+        yawRates = Arrays.copyOf(yawRates, dynamicsCount);
+        latAccels = Arrays.copyOf(latAccels, dynamicsCount);
+        longAccels = Arrays.copyOf(longAccels, dynamicsCount);
+    }
+
+    /**
+     * Approximate heap size of the column arrays in bytes.
+     */
+    public long memoryFootprint() {
+        return timestamps.length * 8L + kinds.length + idIndexes.length * 2L
+                + (steeringAngles.length + speeds.length) * 8L
+                + (yawRates.length + latAccels.length + longAccels.length) * 8L;
+    }
+
+    // number of rows of kind OTHER, these have no columns
+    int otherFrameCount() {
+        return otherFrames.size();
+    }
+
+    // column getters for the snapshot writer, only complete after trimToSize()
+    double[] timestampColumn() {
+        return timestamps;
+    }
+
+    byte[] kindColumn() {
+        return kinds;
+    }
+
+    char[] idIndexColumn() {
+        return idIndexes;
+    }
+
+    List<String> idNames() {
+        return Collections.unmodifiableList(idNames);
+    }
+
+    double[] steeringAngleColumn() {
+        return steeringAngles;
+    }
+
+    double[] speedColumn() {
+        return speeds;
+    }
+
+    double[] yawRateColumn() {
+        return yawRates;
+    }
+
+    double[] latAccelColumn() {
+        return latAccels;
+    }
+
+    double[] longAccelColumn() {
+        return longAccels;
+    }
+
+    private void addRow(byte kind, CANFrame frame) {
+        if (readOnly)
+            throw new UnsupportedOperationException("A view of a columnar trace is read-only");
+        timeIndex = null;
+        kindCountsBefore = null;
+        if (rowCount == timestamps.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, rowCount * 2);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            idIndexes = Arrays.copyOf(idIndexes, capacity);
+        }
+        timestamps[rowCount] = frame.getTimestamp();
+        kinds[rowCount] = kind;
+        idIndexes[rowCount] = idIndex(frame.getId());
+        rowCount++;
+    }
+
+    // index of the id in idNames, the list only ever holds a handful of ids
+    private char idIndex(String id) {
+        int index = idNames.indexOf(id);
+        if (index < 0) {
+            if (idNames.size() > Character.MAX_VALUE)
+                throw new IllegalStateException("Too many distinct frame ids");
+            idNames.add(id);
+            index = idNames.size() - 1;
+        }
+        return (char) index;
+    }
+
+    private static double[] ensureCapacity(double[] column, int count) {
+        return count < column.length ? column : Arrays.copyOf(column, Math.max(INITIAL_CAPACITY, count * 2));
+    }
+
+    /**
+     * Flyweight view on one row of the trace. next() moves to the following row
+     * and the getters read straight from the columns, nothing is allocated
+     * while iterating. Signal getters are only valid for rows of the matching
+     * kind.
+     */
+    final class Cursor {
+        // first row the cursor doesn't reach, -1 for the end of the trace
+        private int endRow = -1;
+        private int row = -1;
+        private int steeringIndex = -1;
+        private int speedIndex = -1;
+        private int dynamicsIndex = -1;
+        private int otherIndex = -1;
+
+        // moves to the next row, returns false at the end of the trace
+        public boolean next() {
+            if (row + 1 >= (endRow < 0 ? rowCount : endRow))
+                return false;
+            advance();
+            return true;
+        }
+
+        // moves back before the first row
+        public void reset() {
+            row = -1;
+            steeringIndex = -1;
+            speedIndex = -1;
+            dynamicsIndex = -1;
+            otherIndex = -1;
+        }
+
+        /**
+         * Places the cursor so that next() moves to targetRow. Starts at the
+         * closest index entry and steps over at most one stride of rows.
+         */
+        void moveBefore(int targetRow) {
+            reset();
+            if (targetRow <= 0)
+                return;
+            buildIndex();
+            int entry = Math.min(targetRow / timeIndex.stride(), kindCountsBefore[0].length - 1);
+            row = entry * timeIndex.stride() - 1;
+            steeringIndex = kindCountsBefore[STEERING][entry] - 1;
+            speedIndex = kindCountsBefore[SPEED][entry] - 1;
+            dynamicsIndex = kindCountsBefore[DYNAMICS][entry] - 1;
+            otherIndex = kindCountsBefore[OTHER][entry] - 1;
+            while (row + 1 < targetRow && row + 1 < rowCount) {
+                advance();
+            }
+        }
+
+        private void advance() {
+            row++;
+            switch (kinds[row]) {
+                case STEERING:
+                    steeringIndex++;
+                    break;
+                case SPEED:
+                    speedIndex++;
+                    break;
+                case DYNAMICS:
+                    dynamicsIndex++;
+                    break;
+                default:
+                    otherIndex++;
+                    break;
+            }
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public byte getKind() {
+            return kinds[row];
+        }
+
+        public String getId() {
+            return idNames.get(idIndexes[row]);
+        }
+
+        public double getTimestamp() {
+            return timestamps[row];
+        }
+
+        public double getSteeringAngle() {
+            return steeringAngles[steeringIndex];
+        }
+
+        public double getSpeed() {
+            return speeds[speedIndex];
+        }
+
+        public double getYawRate() {
+            return yawRates[dynamicsIndex];
+        }
+
+        public double getLatAccel() {
+            return latAccels[dynamicsIndex];
+        }
+
+        public double getLongAccel() {
+            return longAccels[dynamicsIndex];
+        }
+
+        // creates a frame object with the values of the current row
+        public CANFrame toFrame() {
+            switch (getKind()) {
+                case STEERING:
+                    return new SteeringWheelAngleFrame(getId(), getTimestamp(), getSteeringAngle());
+                case SPEED:
+                    return new VehicleSpeedFrame(getId(), getTimestamp(), getSpeed());
+                case DYNAMICS:
+                    return new VehicleDynamicsFrame(getId(), getTimestamp(), getLatAccel(), getLongAccel(),
+                            getYawRate());
+                default:
+                    return otherFrames.get(otherIndex);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.automotive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates what a session writes to a client that asked for it with
+ * {@code START compress=deflate}. The simulator first sends the magic "RSDF"
+ * uncompressed, then one zlib stream that ends after the last message. A
+ * client that does not find the magic talks to an older simulator and reads
+ * the messages as they are.
+ *
+ * Writes only feed the Deflater, which keeps the bytes until a block is
+ * full. flushEvery() ends a block with a sync flush at a fixed interval, so
+ * the client can inflate everything written before it: a longer interval
+ * compresses better, a shorter one keeps the messages closer to their time.
+ */
+final class DeflatingChannel implements GatheringByteChannel {
+    static final int MAGIC = 0x52534446; // "RSDF"
+    static final long DEFAULT_FLUSH_MS = 50;
+
+    private final WritableByteChannel channel;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final ByteBuffer compressed = ByteBuffer.allocate(16 * 1024);
+    // the session and the flush thread write, virtual threads must not pin on synchronized
+    private final ReentrantLock lock = new ReentrantLock();
+    // bytes written since the last flush
+    private boolean pending = false;
+    private boolean finished = false;
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+
+    private DeflatingChannel(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Sends the magic and returns the channel that deflates everything
+     * written to it before sending it on the channel.
+     */
+    static DeflatingChannel open(WritableByteChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4).putInt(MAGIC).flip();
+        while (magic.hasRemaining()) {
+            channel.write(magic);
+        }
+        return new DeflatingChannel(channel);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        lock.lock();
+        try {
+            if (finished)
+                throw new ClosedChannelException();
+            int length = src.remaining();
+            deflater.setInput(src);
+            deflate(Deflater.NO_FLUSH);
+            bytesIn += length;
+            pending = true;
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            written += write(srcs[i]);
+        }
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * Sends everything written so far so the client can inflate it.
+     */
+    void flush() throws IOException {
+        lock.lock();
+        try {
+            if (pending && !finished) {
+                deflate(Deflater.SYNC_FLUSH);
+                pending = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes at the interval until finish() is called or the client is gone,
+     * runs on a thread of its own.
+     */
+    void flushEvery(long intervalMs) {
+        try {
+            while (isOpen()) {
+                Thread.sleep(intervalMs);
+                flush();
+            }
+        } catch (IOException e) {
+            // the session notices it with its next write
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ends the zlib stream after the last message, the client reads its end.
+     */
+    void finish() throws IOException {
+        lock.lock();
+        try {
+            if (finished)
+                return;
+            finished = true;
+            deflater.finish();
+            deflate(Deflater.NO_FLUSH);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // compresses the input of the deflater and sends what it produces
+    private void deflate(int flush) throws IOException {
+        int length;
+        do {
+            compressed.clear();
+            length = deflater.deflate(compressed, flush);
+            compressed.flip();
+            while (compressed.hasRemaining()) {
+                channel.write(compressed);
+            }
+            bytesOut += length;
+            // a full buffer means there is more output, of a flush too
+        } while (length == compressed.capacity() || !(finished ? deflater.finished() : deflater.needsInput()));
+    }
+
+    long getBytesIn() {
+        return bytesIn;
+    }
+
+    long getBytesOut() {
+        return bytesOut;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !finished && channel.isOpen();
+    }
+
+    /**
+     * Releases the deflater, the channel is closed by its owner.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            finished = true;
+            deflater.end();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.automotive;
+
+/**
+ * One drive of the DriveCatalog: its CAN and GPS trace and their Timeline.
+ * Sessions replay views of the traces, so any number of them can share a
+ * drive, and a drive stays usable for its sessions after it was evicted from
+ * the cache.
+ */
+final class Drive {
+    // rough heap size of a frame or coordinate of traces that can't tell their own
+    private static final long FRAME_BYTES = 64;
+    private static final long COORDINATE_BYTES = 48;
+
+    private final String id;
+    private final CANTrace canTrace;
+    private final GPSTrace gpsTrace;
+    // pre-encoded events, null if the traces could not be encoded
+    private final Timeline timeline;
+    private final long memoryFootprint;
+
+    Drive(String id, CANTrace canTrace, GPSTrace gpsTrace, Timeline timeline) {
+        this.id = id;
+        this.canTrace = canTrace;
+        this.gpsTrace = gpsTrace;
+        this.timeline = timeline;
+        long canBytes;
+        if (canTrace instanceof ColumnarCANTrace) {
+            canBytes = ((ColumnarCANTrace) canTrace).memoryFootprint();
+        } else if (canTrace.isSized()) {
+            canBytes = canTrace.size() * FRAME_BYTES;
+        } else {
+            // a streamed trace holds no more than its read-ahead queue
+            canBytes = StreamingCANTrace.DEFAULT_READ_AHEAD * FRAME_BYTES;
+        }
+        this.memoryFootprint = canBytes + gpsTrace.size() * COORDINATE_BYTES
+                + (timeline != null ? timeline.memoryFootprint() : 0);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    CANTrace getCANTrace() {
+        return canTrace;
+    }
+
+    GPSTrace getGPSTrace() {
+        return gpsTrace;
+    }
+
+    Timeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Approximate memory the drive takes in bytes, what the cache is bounded by.
+     */
+    long memoryFootprint() {
+        return memoryFootprint;
+    }
+}
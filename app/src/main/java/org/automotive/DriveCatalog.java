@@ -0,0 +1,297 @@
+package org.automotive;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Archive of drives a simulator started with {@code --catalog=<dir>} serves.
+ * Every subdirectory of the catalog is a drive named like the directory; it
+ * holds the GPS trace, a file whose name starts with "gps", and one or more
+ * CAN trace files, which are merged as channels of one trace. A client names
+ * the drive with {@code START <driveId>}.
+ *
+ * A drive is loaded when a session first asks for it, sessions that ask for
+ * it meanwhile wait for the same load. Loaded drives stay in a cache shared
+ * by all sessions until their memory footprints add up to more than the
+ * limit; then the least recently used ones are evicted, except the one just
+ * asked for. run() watches the directory: new drives are listed as soon as
+ * their directory appears, and a drive whose files change or that is removed
+ * is evicted, so it is loaded again the next time; a load that is running
+ * then is not cached.
+ */
+final class DriveCatalog implements Runnable {
+    static final long DEFAULT_CACHE_BYTES = 1024L * 1024 * 1024;
+
+    // drive ids are plain directory names, they can't leave the catalog
+    private static final Pattern DRIVE_ID = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+
+    /**
+     * Loads the traces of a drive from its directory.
+     */
+    interface Loader {
+        Drive load(String id, Path directory) throws IOException;
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Loader loader;
+    private final WatchService watchService;
+
+    // sessions on virtual threads must not pin their carrier on synchronized
+    private final ReentrantLock lock = new ReentrantLock();
+    // loaded drives, least recently used first
+    private final LinkedHashMap<String, Drive> cache = new LinkedHashMap<>(16, 0.75f, true);
+    // drives that are being loaded
+    private final Map<String, CompletableFuture<Drive>> loading = new HashMap<>();
+    private long cachedBytes = 0;
+
+    // ids of the drive directories, kept up to date by run()
+    private final Set<String> driveIds = new ConcurrentSkipListSet<>();
+
+    /**
+     * @param directory catalog directory with a subdirectory per drive
+     * @param maxBytes  memory the cached drives may take
+     * @param loader    loads a drive that is not cached
+     */
+    DriveCatalog(Path directory, long maxBytes, Loader loader) throws IOException {
+        if (!Files.isDirectory(directory))
+            throw new NoSuchFileException(directory.toString(), null, "not a catalog directory");
+        this.directory = directory.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.loader = loader;
+        this.watchService = this.directory.getFileSystem().newWatchService();
+        this.directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+        scan();
+    }
+
+    static boolean isDriveId(String text) {
+        return DRIVE_ID.matcher(text).matches();
+    }
+
+    // adds the drive directories that exist now, and watches them
+    private void scan() throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path entry : entries) {
+                addDrive(entry.getFileName().toString());
+            }
+        }
+    }
+
+    // reads the directory again after events were lost, every drive is loaded again
+    private void rescan() throws IOException {
+        lock.lock();
+        try {
+            cache.clear();
+            cachedBytes = 0;
+            loading.clear();
+        } finally {
+            lock.unlock();
+        }
+        driveIds.removeIf(id -> !Files.isDirectory(directory.resolve(id)));
+        scan();
+    }
+
+    private boolean addDrive(String id) throws IOException {
+        Path driveDirectory = directory.resolve(id);
+        if (!isDriveId(id) || !Files.isDirectory(driveDirectory) || !driveIds.add(id))
+            return false;
+        driveDirectory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        return true;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    // ids of the drives in the catalog, sorted
+    List<String> driveIds() {
+        return new ArrayList<>(driveIds);
+    }
+
+    /**
+     * Returns the drive from the cache, or loads it.
+     *
+     * @throws IllegalArgumentException if the id is not a valid drive id
+     * @throws NoSuchFileException      if there is no such drive
+     * @throws IOException              if the drive can't be loaded
+     */
+    Drive get(String id) throws IOException {
+        if (!isDriveId(id))
+            throw new IllegalArgumentException("Invalid drive id: " + id);
+        CompletableFuture<Drive> load;
+        boolean loadHere = false;
+        lock.lock();
+        try {
+            Drive drive = cache.get(id);
+            if (drive != null)
+                return drive;
+            load = loading.get(id);
+            if (load == null) {
+                load = new CompletableFuture<>();
+                loading.put(id, load);
+                loadHere = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return loadHere ? load(id, load) : await(load);
+    }
+
+    private Drive load(String id, CompletableFuture<Drive> load) throws IOException {
+        try {
+            Path driveDirectory = directory.resolve(id);
+            if (!Files.isDirectory(driveDirectory))
+                throw new NoSuchFileException(id, null, "no such drive");
+            long loadStartNanos = System.nanoTime();
+            Drive drive = loader.load(id, driveDirectory);
+            System.out.println("Loaded drive " + id + " in " + (System.nanoTime() - loadStartNanos) / 1_000_000
+                    + " ms, " + drive.memoryFootprint() / 1024 + " KB");
+            lock.lock();
+            try {
+                // a drive that changed or was removed while it was loaded is not cached,
+                // the sessions waiting for this load still get it
+                if (loading.get(id) == load) {
+                    loading.remove(id);
+                    cache.put(id, drive);
+                    cachedBytes += drive.memoryFootprint();
+                    evict();
+                }
+            } finally {
+                lock.unlock();
+            }
+            load.complete(drive);
+            return drive;
+        } catch (IOException | RuntimeException e) {
+            lock.lock();
+            try {
+                loading.remove(id, load);
+            } finally {
+                lock.unlock();
+            }
+            load.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static Drive await(CompletableFuture<Drive> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while the drive was loaded");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // evicts the least recently used drives while the cache is too large, lock held
+    private void evict() {
+        Iterator<Drive> drives = cache.values().iterator();
+        // the last drive is the one just asked for
+        while (cachedBytes > maxBytes && cache.size() > 1) {
+            Drive drive = drives.next();
+            drives.remove();
+            cachedBytes -= drive.memoryFootprint();
+            System.out.println("Evicted drive " + drive.getId() + " from the cache");
+        }
+    }
+
+    // removes a drive from the cache and cancels its load, it is loaded again when it is asked for
+    void invalidate(String id) {
+        lock.lock();
+        try {
+            loading.remove(id);
+            Drive drive = cache.remove(id);
+            if (drive != null) {
+                cachedBytes -= drive.memoryFootprint();
+                System.out.println("Drive " + id + " changed, it is loaded again when it is asked for");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // number of cached drives and their memory footprint, for tests and logs
+    int cachedDriveCount() {
+        lock.lock();
+        try {
+            return cache.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long cachedBytes() {
+        lock.lock();
+        try {
+            return cachedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Watches the catalog directory and the drive directories until the
+     * catalog directory is removed or the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path watched = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        rescan();
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    if (watched.equals(directory)) {
+                        onCatalogEvent(event.kind(), name);
+                    } else if (!name.contains(TraceSnapshot.SUFFIX)) {
+                        // the snapshots the loader writes next to the traces are not changes
+                        invalidate(watched.getFileName().toString());
+                    }
+                }
+                if (!key.reset() && watched.equals(directory)) {
+                    System.out.println("Catalog directory " + directory + " is gone, no longer watching it");
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Stopped watching the catalog: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // the catalog was closed
+        }
+    }
+
+    private void onCatalogEvent(WatchEvent.Kind<?> kind, String id) throws IOException {
+        if (kind == ENTRY_DELETE) {
+            if (driveIds.remove(id)) {
+                invalidate(id);
+                System.out.println("Drive " + id + " removed from the catalog");
+            }
+        } else if (addDrive(id)) {
+            System.out.println("New drive in the catalog: " + id);
+        }
+    }
+
+    void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,313 @@
+package org.automotive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Replays a fleet of vehicles on one thread, for load tests of backends that
+ * receive the data of thousands of cars. Every vehicle replays the Timeline
+ * of a drive, the vehicles take the drives in turn, and the copies of a drive
+ * start at different points of it, by default spread evenly over the drive,
+ * so the fleet sends a steady load instead of the same message from every car
+ * at once. A vehicle starts its drive again right after the end, with the
+ * timestamps of the drive. One TimingWheel holds every vehicle until its next
+ * event is due and one ReplayClock paces the wheel in ticks of 1 ms, so the
+ * cost of a tick depends on the events that are due, not on the size of the
+ * fleet.
+ *
+ * Connections that start with {@code FLEET [proto=binary]} are attached to
+ * the fleet, and vehicle n is sent to connection n modulo the number of
+ * connections. Every message is tagged with its vehicle:
+ * <pre>
+ * text:    V&lt;vehicle&gt;|&lt;line of the text protocol&gt;
+ * binary:  header: magic "RSFL" (4) | version (2) | record size (2)
+ *          frame:  vehicle (4) | record count (4) | records of BinaryProtocol
+ * </pre>
+ * The connections are non-blocking: the messages of a tick are collected in
+ * a buffer per connection and written at the end of the tick, and a message
+ * that doesn't fit because the connection is that far behind is dropped, so a
+ * slow backend doesn't hold up the fleet. A connection is detached when it
+ * is closed.
+ */
+final class FleetReplay implements Runnable {
+    static final int MAGIC = 0x5253464C; // "RSFL"
+    static final int VERSION = 1;
+    static final int FRAME_HEADER_SIZE = 8;
+
+    // pause between the end of a drive and its next start
+    static final double LAP_PAUSE_MS = 1000;
+    // bytes a connection may be behind before messages are dropped
+    private static final int CONNECTION_BUFFER_SIZE = 1024 * 1024;
+    // ticks between two statistics lines
+    private static final long REPORT_TICKS = 60_000;
+    private static final Connection[] NO_CONNECTIONS = new Connection[0];
+
+    // one connection attached with FLEET
+    private static final class Connection {
+        final int number;
+        final SocketChannel channel;
+        final boolean binary;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(CONNECTION_BUFFER_SIZE);
+        long events;
+        long dropped;
+
+        Connection(int number, SocketChannel channel, boolean binary) {
+            this.number = number;
+            this.channel = channel;
+            this.binary = binary;
+        }
+    }
+
+    // a drive the vehicles replay
+    private static final class DriveTimeline {
+        final Timeline timeline;
+        final Timeline.Encoding text;
+        final Timeline.Encoding binary;
+        final ByteBuffer textBytes;
+        final ByteBuffer binaryBytes;
+        // simulation time from one start of the drive to the next
+        final double lapMs;
+
+        DriveTimeline(Timeline timeline) {
+            this.timeline = timeline;
+            this.text = timeline.text();
+            this.binary = timeline.binary();
+            this.textBytes = text.view();
+            this.binaryBytes = binary.view();
+            this.lapMs = Math.max(0, timeline.time(timeline.size() - 1)) + LAP_PAUSE_MS;
+        }
+    }
+
+    private final DriveTimeline[] drives;
+    private final ReplayClock clock;
+    private final TimingWheel wheel;
+
+    // state of vehicle n at index n
+    private final DriveTimeline[] vehicleDrives;
+    private final int[] positions;
+    // simulation time at which the current lap of the vehicle's drive started
+    private final double[] lapStarts;
+    private final byte[][] textTags;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Connection[] connections = NO_CONNECTIONS;
+    private int connectionCount = 0;
+    private volatile boolean running = true;
+
+    // state of the tick being expired
+    private long tick;
+    private boolean sending;
+    private Connection[] targets = NO_CONNECTIONS;
+    private long events;
+    private long dropped;
+
+    /**
+     * @param vehicles number of vehicles
+     * @param drives   timelines the vehicles replay in turn
+     * @param shiftMs  simulation time between the starts of two copies of a
+     *                 drive, negative to spread the copies evenly over it
+     * @param clock    clock that paces the fleet
+     */
+    FleetReplay(int vehicles, List<Timeline> drives, double shiftMs, ReplayClock clock) {
+        if (vehicles <= 0)
+            throw new IllegalArgumentException("A fleet needs at least one vehicle: " + vehicles);
+        if (drives.isEmpty())
+            throw new IllegalArgumentException("A fleet needs at least one drive");
+        this.drives = new DriveTimeline[drives.size()];
+        for (int i = 0; i < this.drives.length; i++) {
+            if (drives.get(i).size() == 0)
+                throw new IllegalArgumentException("Drive " + i + " of the fleet has no events");
+            this.drives[i] = new DriveTimeline(drives.get(i));
+        }
+        this.clock = clock;
+        this.wheel = new TimingWheel(vehicles);
+        this.vehicleDrives = new DriveTimeline[vehicles];
+        this.positions = new int[vehicles];
+        this.lapStarts = new double[vehicles];
+        this.textTags = new byte[vehicles][];
+
+        for (int vehicle = 0; vehicle < vehicles; vehicle++) {
+            int drive = vehicle % this.drives.length;
+            int copy = vehicle / this.drives.length;
+            int copies = (vehicles - drive + this.drives.length - 1) / this.drives.length;
+            DriveTimeline driveTimeline = this.drives[drive];
+            double shift = shiftMs < 0 ? driveTimeline.lapMs / copies : shiftMs;
+            double startMs = copy * shift % driveTimeline.lapMs;
+            vehicleDrives[vehicle] = driveTimeline;
+            positions[vehicle] = driveTimeline.timeline.indexOf(startMs);
+            lapStarts[vehicle] = -startMs;
+            textTags[vehicle] = ("V" + vehicle + "|").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    int getVehicleCount() {
+        return vehicleDrives.length;
+    }
+
+    /**
+     * Parses the FLEET line of a connection.
+     *
+     * @return true if the connection asks for the binary protocol
+     * @throws IllegalArgumentException if the line is not a valid FLEET request
+     */
+    static boolean parseRequest(String line) {
+        String[] tokens = line.trim().split("\\s+");
+        if (!tokens[0].equals("FLEET"))
+            throw new IllegalArgumentException("Not a FLEET request: " + line);
+        boolean binary = false;
+        for (int i = 1; i < tokens.length; i++) {
+            if (tokens[i].equals("proto=binary")) {
+                binary = true;
+            } else if (!tokens[i].equals("proto=text")) {
+                throw new IllegalArgumentException("Unknown FLEET option: " + tokens[i]);
+            }
+        }
+        return binary;
+    }
+
+    /**
+     * Attaches a connection, from now on the fleet owns and closes it.
+     *
+     * @return the number of the connection, for log messages
+     */
+    int attach(SocketChannel channel, boolean binary) throws IOException {
+        channel.configureBlocking(false);
+        lock.lock();
+        try {
+            Connection connection = new Connection(++connectionCount, channel, binary);
+            if (binary) {
+                connection.buffer.putInt(MAGIC).putShort((short) VERSION).putShort((short) BinaryProtocol.RECORD_SIZE);
+            }
+            Connection[] attached = Arrays.copyOf(connections, connections.length + 1);
+            attached[attached.length - 1] = connection;
+            connections = attached;
+            return connection.number;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void detach(Connection connection, String reason) {
+        lock.lock();
+        try {
+            connections = Arrays.stream(connections).filter(c -> c != connection).toArray(Connection[]::new);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // closed anyway
+        }
+        System.out.println("Fleet connection " + connection.number + " closed (" + reason + "): "
+                + connection.events + " events sent, " + connection.dropped + " dropped");
+    }
+
+    // stops the fleet after the current tick, can be called from any thread
+    void stop() {
+        running = false;
+    }
+
+    /**
+     * Replays the fleet until stop() is called. Ticks the catch-up policy
+     * skips advance the vehicles without sending their events.
+     */
+    @Override
+    public void run() {
+        System.out.println("Fleet of " + vehicleDrives.length + " vehicles on " + drives.length + " drives started");
+        clock.start(0);
+        for (int vehicle = 0; vehicle < vehicleDrives.length; vehicle++) {
+            wheel.schedule(vehicle, dueTick(vehicle));
+        }
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                tick = wheel.currentTick() + 1;
+                sending = clock.await(tick);
+                targets = connections;
+                wheel.advance(tick, this::expire);
+                for (Connection connection : targets) {
+                    flush(connection);
+                }
+                if (tick % REPORT_TICKS == 0) {
+                    System.out.println("Fleet: " + events + " events to " + connections.length + " connections, "
+                            + dropped + " dropped, tick lateness p99 <" + clock.percentileMicros(0.99) + " µs, max "
+                            + clock.getMaxLatenessNanos() / 1_000 + " µs");
+                }
+            }
+        } finally {
+            running = false;
+            for (Connection connection : connections) {
+                detach(connection, "fleet stopped");
+            }
+        }
+    }
+
+    // tick at which the next event of the vehicle is due, starting the drive again after its end
+    private long dueTick(int vehicle) {
+        DriveTimeline drive = vehicleDrives[vehicle];
+        if (positions[vehicle] == drive.timeline.size()) {
+            positions[vehicle] = 0;
+            lapStarts[vehicle] += drive.lapMs;
+        }
+        return (long) Math.ceil(lapStarts[vehicle] + drive.timeline.time(positions[vehicle]));
+    }
+
+    // sends the events of the vehicle that are due and schedules its next one
+    private void expire(int vehicle) {
+        long due;
+        while ((due = dueTick(vehicle)) <= tick) {
+            if (sending && targets.length > 0)
+                send(vehicle, targets[vehicle % targets.length]);
+            positions[vehicle]++;
+        }
+        wheel.schedule(vehicle, due);
+    }
+
+    private void send(int vehicle, Connection connection) {
+        DriveTimeline drive = vehicleDrives[vehicle];
+        int position = positions[vehicle];
+        ByteBuffer buffer = connection.buffer;
+        if (connection.binary) {
+            int start = drive.binary.start(position);
+            int end = drive.binary.end(position);
+            if (buffer.remaining() < FRAME_HEADER_SIZE + end - start) {
+                connection.dropped++;
+                dropped++;
+                return;
+            }
+            buffer.putInt(vehicle).putInt((end - start) / BinaryProtocol.RECORD_SIZE);
+            buffer.put(drive.binaryBytes.limit(end).position(start));
+        } else {
+            int start = drive.text.start(position);
+            int end = drive.text.end(position);
+            byte[] tag = textTags[vehicle];
+            if (buffer.remaining() < tag.length + end - start) {
+                connection.dropped++;
+                dropped++;
+                return;
+            }
+            buffer.put(tag).put(drive.textBytes.limit(end).position(start));
+        }
+        connection.events++;
+        events++;
+    }
+
+    // writes as much of the connection's buffer as the socket takes now
+    private void flush(Connection connection) {
+        ByteBuffer buffer = connection.buffer;
+        if (buffer.position() == 0)
+            return;
+        try {
+            buffer.flip();
+            connection.channel.write(buffer);
+            buffer.compact();
+        } catch (IOException e) {
+            detach(connection, e.getMessage());
+        }
+    }
+}
@@ -5,7 +5,27 @@ import java.io.*;
 public class GPSParser {
 
     // Parse the GPS trace file and return a GPSTrace object
+    // An up to date binary snapshot next to the file is loaded instead of the text
     public static GPSTrace parseGPSTraceFile(String filePath) throws IOException {
+        try {
+            GPSTrace snapshot = TraceSnapshot.loadGPS(filePath);
+            if (snapshot != null)
+                return snapshot;
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable trace snapshot: " + e.getMessage());
+        }
+
+        GPSTrace trace = parseGPSTextFile(filePath);
+        try {
+            TraceSnapshot.saveGPS(filePath, trace);
+        } catch (IOException e) {
+            System.out.println("Could not write trace snapshot: " + e.getMessage());
+        }
+        return trace;
+    }
+
+    // Parse the text of the GPS trace file
+    static GPSTrace parseGPSTextFile(String filePath) throws IOException {
         GPSTrace trace = new GPSTrace();
         BufferedReader reader = new BufferedReader(new FileReader(filePath));
 
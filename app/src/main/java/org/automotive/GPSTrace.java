@@ -7,6 +7,8 @@ public class GPSTrace {
     private List<GPScoordinates> coordinates;
     // index to keep track of the next message
     private int currentIndex = 0;
+    // sparse time index for seek and range, built on first use
+    private TimeIndex timeIndex;
 
     public GPSTrace() {
         this.coordinates = new ArrayList<>();
@@ -15,6 +17,7 @@ public class GPSTrace {
     // Add a GPS coordinate to the trace
     public void addCoordinate(GPScoordinates coordinate) {
         coordinates.add(coordinate);
+        timeIndex = null;
     }
 
     // Get all coordinates
@@ -35,6 +38,35 @@ public class GPSTrace {
         System.out.println("Reset next coordinate index.");
     }
 
+    // Move the next coordinate to the first one at or after the time
+    public void seek(double timestampMs) {
+        currentIndex = indexOf(timestampMs);
+    }
+
+    // Find the index of the first coordinate at or after the time, O(log n)
+    public int indexOf(double timestampMs) {
+        if (timeIndex == null) {
+            timeIndex = TimeIndex.build(coordinates.size(), i -> coordinates.get(i).getTimeOffset());
+        }
+        return timeIndex.lowerBound(timestampMs);
+    }
+
+    // Get the coordinates in [startMs, endMs) as a read-only view
+    public List<GPScoordinates> range(double startMs, double endMs) {
+        int from = indexOf(startMs);
+        int to = Math.max(from, indexOf(endMs));
+        return Collections.unmodifiableList(coordinates.subList(from, to));
+    }
+
+    // Get a read-only view with its own next coordinate index, the coordinates
+    // and the time index are shared, so the trace must not change while it is used
+    public GPSTrace view() {
+        GPSTrace view = new GPSTrace();
+        view.coordinates = Collections.unmodifiableList(coordinates);
+        view.timeIndex = timeIndex;
+        return view;
+    }
+
     // Get the number of coordinates in the trace
     public int size() {
         return coordinates.size();
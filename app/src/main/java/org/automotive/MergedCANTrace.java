@@ -0,0 +1,279 @@
+package org.automotive;
+
+import java.util.*;
+
+/**
+ * CAN trace that merges the traces of several buses into one time-ordered
+ * stream without copying them. Each source becomes a channel (1 for the first
+ * source, 2 for the second, ...) and every frame is replayed as a copy tagged
+ * with it, the frames of the sources stay as they are.
+ *
+ * The channel whose next frame is the earliest is kept at the top of a
+ * min-heap, so taking a frame costs O(log n) for n sources. Logs that are
+ * slightly out of order are fixed by a bounded reorder window per channel: a
+ * frame is only released once the channel has read a frame that is at least
+ * the window later, or the buffer is full. Frames that arrive later than the
+ * window are still replayed and counted by {@link #getLateFrameCount()}.
+ */
+class MergedCANTrace extends CANTrace {
+    // default time a frame may arrive after a later one and still be sorted
+    static final double DEFAULT_REORDER_WINDOW_MS = 10.0;
+
+    // default number of frames a channel may buffer for reordering
+    static final int DEFAULT_REORDER_CAPACITY = 4096;
+
+    private final List<Channel> channels = new ArrayList<>();
+    private final double reorderWindowMs;
+    private final int reorderCapacity;
+
+    // channels with buffered frames, ordered by their earliest frame
+    private final PriorityQueue<Channel> heap = new PriorityQueue<>(MergedCANTrace::compareHeads);
+
+    private boolean started = false;
+    private double lastTimestamp = Double.NEGATIVE_INFINITY;
+    private long lateFrames = 0;
+
+    public MergedCANTrace(List<? extends CANTrace> sources) {
+        this(sources, DEFAULT_REORDER_WINDOW_MS, DEFAULT_REORDER_CAPACITY);
+    }
+
+    public MergedCANTrace(List<? extends CANTrace> sources, double reorderWindowMs, int reorderCapacity) {
+        if (sources.isEmpty())
+            throw new IllegalArgumentException("At least one CAN trace is needed");
+        if (reorderWindowMs < 0 || reorderCapacity < 1)
+            throw new IllegalArgumentException("Invalid reorder window " + reorderWindowMs + " ms / " + reorderCapacity);
+        for (int i = 0; i < sources.size(); i++) {
+            channels.add(new Channel(i + 1, sources.get(i)));
+        }
+        this.reorderWindowMs = reorderWindowMs;
+        this.reorderCapacity = reorderCapacity;
+    }
+
+    // merged traces are read from their sources only
+    @Override
+    public void addFrame(CANFrame frame) {
+        throw new UnsupportedOperationException("Frames of a merged trace come from its sources");
+    }
+
+    @Override
+    public void addFrames(List<CANFrame> newFrames) {
+        throw new UnsupportedOperationException("Frames of a merged trace come from its sources");
+    }
+
+    // the sum of the sources
+    @Override
+    public int size() {
+        int total = 0;
+        for (Channel channel : channels) {
+            total += channel.source.size();
+        }
+        return total;
+    }
+
+    // sized if all sources are
+    @Override
+    public boolean isSized() {
+        for (Channel channel : channels) {
+            if (!channel.source.isSized())
+                return false;
+        }
+        return true;
+    }
+
+    // method to print all frames in time order, starts from the beginning
+    @Override
+    public void printTrace() {
+        resetNextMessage();
+        CANFrame frame;
+        while ((frame = getNextMessage()) != null) {
+            System.out.println(frame);
+        }
+        resetNextMessage();
+    }
+
+    // method to get the next frame of all channels in time order
+    @Override
+    public synchronized CANFrame getNextMessage() {
+        if (!started) {
+            for (Channel channel : channels) {
+                offer(channel);
+            }
+            started = true;
+        }
+
+        Channel channel = heap.poll();
+        if (channel == null)
+            return null;
+        CANFrame frame = channel.buffer.poll().frame;
+        offer(channel);
+
+        if (frame.getTimestamp() < lastTimestamp) {
+            lateFrames++;
+        } else {
+            lastTimestamp = frame.getTimestamp();
+        }
+        return frame;
+    }
+
+    // method to restart all channels from the beginning
+    @Override
+    public synchronized void resetNextMessage() {
+        for (Channel channel : channels) {
+            channel.source.resetNextMessage();
+        }
+        clear();
+    }
+
+    // method to stop reading all channels
+    @Override
+    public synchronized void close() {
+        for (Channel channel : channels) {
+            channel.source.close();
+        }
+        clear();
+    }
+
+    // method to move all channels to the first frame at or after the time
+    @Override
+    public synchronized void seek(double timestampMs) {
+        for (Channel channel : channels) {
+            channel.source.seek(timestampMs);
+        }
+        clear();
+    }
+
+    // method to find the position of the time in the merged stream: the frames
+    // of all channels before it, i.e. the sum of the channels' indexes
+    @Override
+    public int indexOf(double timestampMs) {
+        int index = 0;
+        for (Channel channel : channels) {
+            index += channel.source.indexOf(timestampMs);
+        }
+        return index;
+    }
+
+    // method to get the frames of all channels in [startMs, endMs), merged by time
+    @Override
+    public List<CANFrame> range(double startMs, double endMs) {
+        List<List<CANFrame>> ranges = new ArrayList<>();
+        int total = 0;
+        for (Channel channel : channels) {
+            List<CANFrame> frames = channel.source.range(startMs, endMs);
+            ranges.add(frames);
+            total += frames.size();
+        }
+
+        // same k-way merge as getNextMessage on the already sorted ranges
+        int[] positions = new int[ranges.size()];
+        PriorityQueue<Integer> order = new PriorityQueue<>((a, b) -> {
+            int byTime = Double.compare(ranges.get(a).get(positions[a]).getTimestamp(),
+                    ranges.get(b).get(positions[b]).getTimestamp());
+            return byTime != 0 ? byTime : Integer.compare(a, b);
+        });
+        for (int i = 0; i < ranges.size(); i++) {
+            if (!ranges.get(i).isEmpty())
+                order.add(i);
+        }
+        List<CANFrame> merged = new ArrayList<>(total);
+        while (!order.isEmpty()) {
+            int i = order.poll();
+            // the sources' frames are shared, the merge returns copies on their channel
+            merged.add(ranges.get(i).get(positions[i]++).withChannel(channels.get(i).number));
+            if (positions[i] < ranges.get(i).size())
+                order.add(i);
+        }
+        return Collections.unmodifiableList(merged);
+    }
+
+    // merges views of the sources, so the view has its own position in every channel
+    @Override
+    public CANTrace view() {
+        List<CANTrace> sourceViews = new ArrayList<>();
+        for (Channel channel : channels) {
+            sourceViews.add(channel.source.view());
+        }
+        return new MergedCANTrace(sourceViews, reorderWindowMs, reorderCapacity);
+    }
+
+    // number of frames that arrived later than the reorder window allows
+    public synchronized long getLateFrameCount() {
+        return lateFrames;
+    }
+
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    private void clear() {
+        heap.clear();
+        for (Channel channel : channels) {
+            channel.buffer.clear();
+            channel.exhausted = false;
+            channel.newest = Double.NEGATIVE_INFINITY;
+        }
+        started = false;
+        lastTimestamp = Double.NEGATIVE_INFINITY;
+        lateFrames = 0;
+    }
+
+    /**
+     * Reads frames of the channel until its earliest buffered frame can no
+     * longer be overtaken, then puts the channel back into the heap.
+     */
+    private void offer(Channel channel) {
+        while (!channel.exhausted && channel.buffer.size() < reorderCapacity
+                && (channel.buffer.isEmpty() || channel.newest - reorderWindowMs < channel.buffer.peek().timestamp)) {
+            CANFrame frame = channel.source.getNextMessage();
+            if (frame == null) {
+                channel.exhausted = true;
+                break;
+            }
+            channel.buffer.add(new Entry(frame.withChannel(channel.number), channel.sequence++));
+            channel.newest = Math.max(channel.newest, frame.getTimestamp());
+        }
+        if (!channel.buffer.isEmpty())
+            heap.add(channel);
+    }
+
+    // earliest frame first, the lower channel first on equal timestamps
+    private static int compareHeads(Channel a, Channel b) {
+        int byTime = Double.compare(a.buffer.peek().timestamp, b.buffer.peek().timestamp);
+        return byTime != 0 ? byTime : Integer.compare(a.number, b.number);
+    }
+
+    // one source with its reorder buffer
+    private static final class Channel {
+        final int number;
+        final CANTrace source;
+        final PriorityQueue<Entry> buffer = new PriorityQueue<>();
+        boolean exhausted = false;
+        // latest timestamp read from the source so far
+        double newest = Double.NEGATIVE_INFINITY;
+        // read order, keeps frames with equal timestamps in file order
+        long sequence = 0;
+
+        Channel(int number, CANTrace source) {
+            this.number = number;
+            this.source = source;
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final CANFrame frame;
+        final double timestamp;
+        final long sequence;
+
+        Entry(CANFrame frame, long sequence) {
+            this.frame = frame;
+            this.timestamp = frame.getTimestamp();
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byTime = Double.compare(timestamp, other.timestamp);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
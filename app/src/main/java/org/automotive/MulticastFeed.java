@@ -0,0 +1,177 @@
+package org.automotive;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Enumeration;
+
+/**
+ * Publishes the replay once to a UDP multicast group instead of once per
+ * client, so any number of receivers on the lab network cost the simulator
+ * the same bandwidth and CPU as one. Every event of the Timeline is sent as
+ * one datagram:
+ * <pre>
+ * datagram: magic "RSMC" (4) | replay (4) | sequence (4) | records of BinaryProtocol
+ * </pre>
+ * The sequence number is the index of the event in the timeline, the replay
+ * number is incremented every time the feed starts the drive again. A
+ * datagram with an END record and the sequence number after the last event
+ * ends a replay; after a short pause the feed starts the next one, so
+ * receivers can join at any time.
+ *
+ * A receiver that sees a sequence number higher than the one it expects has
+ * lost datagrams. It asks the simulator for them on the TCP port with a
+ * {@code RESEND <from> <to>} line and gets the header and records of the
+ * binary protocol for the events from..to-1, followed by END.
+ */
+final class MulticastFeed extends TimelineFeed {
+    static final int MAGIC = 0x52534D43; // "RSMC"
+    static final int HEADER_SIZE = 12;
+
+    static final String DEFAULT_GROUP = "239.255.54.0";
+    static final int DEFAULT_PORT = 54001;
+
+    // largest payload of a UDP datagram, an event has at most a few dozen records
+    static final int MAX_DATAGRAM_SIZE = 65507;
+
+    // field offsets inside a datagram
+    private static final int REPLAY = 4;
+    private static final int SEQUENCE = 8;
+
+    private static final byte[] END = new byte[BinaryProtocol.RECORD_SIZE];
+
+    static {
+        BinaryProtocol.putEnd(ByteBuffer.wrap(END));
+    }
+
+    private final InetSocketAddress group;
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private DatagramChannel channel;
+
+    /**
+     * @param timeline events to publish, their indexes are the sequence numbers
+     * @param group    multicast group and port the datagrams are sent to
+     * @param clock    clock that paces the replays
+     */
+    MulticastFeed(Timeline timeline, InetSocketAddress group, ReplayClock clock) {
+        super(timeline, clock);
+        this.group = group;
+    }
+
+    /**
+     * Parses a group like "239.255.54.0:54001" or "239.255.54.0", an empty
+     * text selects the default group.
+     *
+     * @throws IllegalArgumentException if it is not a multicast address
+     */
+    static InetSocketAddress parseGroup(String text) {
+        String host = text.isEmpty() ? DEFAULT_GROUP : text;
+        int port = DEFAULT_PORT;
+        int colon = host.lastIndexOf(':');
+        if (colon >= 0) {
+            try {
+                port = Integer.parseInt(host.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid multicast port: " + text);
+            }
+            host = host.substring(0, colon);
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved() || !address.getAddress().isMulticastAddress())
+            throw new IllegalArgumentException("Not a multicast group: " + text);
+        return address;
+    }
+
+    /**
+     * Finds the network interface the group is used on: the named one, or
+     * else the first interface that is up and supports multicast.
+     *
+     * @throws IOException if there is no such interface
+     */
+    static NetworkInterface findInterface(String name) throws IOException {
+        if (name != null) {
+            NetworkInterface networkInterface = NetworkInterface.getByName(name);
+            if (networkInterface == null)
+                throw new IOException("Unknown network interface: " + name);
+            return networkInterface;
+        }
+        NetworkInterface loopback = null;
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces.hasMoreElements()) {
+            NetworkInterface networkInterface = interfaces.nextElement();
+            if (!networkInterface.isUp() || !networkInterface.supportsMulticast())
+                continue;
+            if (!networkInterface.isLoopback())
+                return networkInterface;
+            loopback = networkInterface;
+        }
+        // a single machine without a network still gets the feed
+        if (loopback != null)
+            return loopback;
+        throw new IOException("No network interface supports multicast");
+    }
+
+    static void putHeader(ByteBuffer buf, int replay, int sequence) {
+        buf.putInt(MAGIC).putInt(replay).putInt(sequence);
+    }
+
+    // readers for the datagram that starts at the position of the buffer
+
+    static boolean isFeedDatagram(ByteBuffer datagram) {
+        return datagram.remaining() >= HEADER_SIZE && datagram.getInt(datagram.position()) == MAGIC;
+    }
+
+    static int replay(ByteBuffer datagram) {
+        return datagram.getInt(datagram.position() + REPLAY);
+    }
+
+    static int sequence(ByteBuffer datagram) {
+        return datagram.getInt(datagram.position() + SEQUENCE);
+    }
+
+    /**
+     * Opens the channel the datagrams are sent from.
+     *
+     * @param interfaceName network interface of the group, null to pick one
+     */
+    void open(String interfaceName) throws IOException {
+        NetworkInterface networkInterface = findInterface(interfaceName);
+        channel = DatagramChannel.open(group.getAddress() instanceof Inet6Address
+                ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        // receivers on the same machine get the feed too
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        System.out.println("Publishing the replay to multicast group " + group + " on "
+                + networkInterface.getName());
+    }
+
+    @Override
+    String name() {
+        return "Multicast feed";
+    }
+
+    @Override
+    void publish(int sequence, ByteBuffer records) throws IOException {
+        datagram.clear();
+        putHeader(datagram, replay, sequence);
+        datagram.put(records);
+        datagram.flip();
+        channel.send(datagram, group);
+    }
+
+    // the END sequence tells receivers that lost the last events
+    @Override
+    void publishEnd(int sequence) throws IOException {
+        publish(sequence, ByteBuffer.wrap(END));
+    }
+
+    @Override
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing multicast channel: " + e.getMessage());
+        }
+    }
+}
@@ -2,20 +2,89 @@ package org.automotive;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.InflaterInputStream;
 import java.text.DecimalFormat;
 
 /**
  * Abstract base class for all Receiver implementations.
  * Handles socket communication, message processing, and common display logic.
+ *
+ * The receiver reads the text protocol. Start with
+ * {@code -Droadsense.protocol=binary} to ask for the records of BinaryProtocol
+ * instead; it reads text if the simulator answers without the binary header.
+ * A simulator older than the START options doesn't answer a START line with
+ * options at all, which is why binary is not the default. Start with
+ * {@code -Droadsense.speed=10} to replay ten times faster. A simulator with a
+ * catalog replays the drive named with {@code -Droadsense.drive=<driveId>}. A dashboard that
+ * needs less data can subscribe with e.g.
+ * {@code -Droadsense.subscribe=SPEED,GPS,STEERING@20}. Both protocols update
+ * the sensor values through the same on... hooks. Over a slow link,
+ * {@code -Droadsense.compress=deflate} asks the simulator to deflate the
+ * stream.
+ *
+ * With {@code -Droadsense.multicast=<group>:<port>} (empty for the default
+ * group) the receiver joins the MulticastFeed of the simulator instead of
+ * starting its own replay. Lost datagrams are detected from the sequence
+ * numbers and asked for again over the simulator connection.
+ *
+ * A receiver on the same machine as the simulator can connect over a Unix
+ * domain socket instead of loopback TCP with {@code -Droadsense.unix=<path>}
+ * (empty for the simulator's default path), when the simulator runs with
+ * {@code --unix}.
+ *
+ * With {@code -Droadsense.shm=<path>} (empty for the simulator's default
+ * path) the receiver reads the replay of a simulator started with
+ * {@code --shm} from its SharedMemoryRing, without a system call per record.
+ * One thread polls the ring and processes each record right away, there is no
+ * queue and no allocation per record on that path.
  */
 public abstract class ReceiverBase {
     protected static final String SERVER_ADDRESS = "localhost";
     protected static final int SERVER_PORT = 54000;
 
-    protected Socket socket;
+    // "text" (default) or "binary"
+    protected static final String PROTOCOL = System.getProperty("roadsense.protocol", "text");
+    // drive of the simulator's catalog asked for in the START line, null for its own drive
+    protected static final String DRIVE = System.getProperty("roadsense.drive");
+    // replay speed factor asked for in the START line, e.g. "10" or "max"
+    protected static final String SPEED = System.getProperty("roadsense.speed");
+    // messages asked for in the START line, e.g. "SPEED,GPS,STEERING@20"
+    protected static final String SUBSCRIBE = System.getProperty("roadsense.subscribe");
+    // compression asked for in the START line, "deflate" or null for none
+    protected static final String COMPRESS = System.getProperty("roadsense.compress");
+    // multicast group of the simulator's feed, e.g. "239.255.54.0:54001"; null to connect over TCP
+    protected static final String MULTICAST = System.getProperty("roadsense.multicast");
+    // network interface the multicast group is joined on, null to pick one
+    protected static final String MULTICAST_INTERFACE = System.getProperty("roadsense.multicast.if");
+    // Unix domain socket of the simulator, e.g. "/tmp/roadsense.sock"; null to use TCP
+    protected static final String UNIX_SOCKET = System.getProperty("roadsense.unix");
+    // ring file of the simulator's shared memory feed, e.g. "/dev/shm/roadsense.ring"; null to connect
+    protected static final String SHARED_MEMORY = System.getProperty("roadsense.shm");
+
+    // gaps of more events than this are not asked for again
+    private static final int MAX_RESEND_EVENTS = 10_000;
+    // busy polls of an empty ring before the receive thread parks for a moment
+    private static final int RING_SPINS = 10_000;
+    private static final long RING_PARK_NANOS = 50_000;
+
+    // connection to the simulator over TCP or a Unix domain socket
+    protected SocketChannel channel;
     protected PrintWriter out;
     protected BufferedReader in;
+    // binary records from the simulator, null when the text protocol is used
+    protected DataInputStream recordIn;
+    // feed of the simulator, null when the replay comes over TCP
+    protected DatagramChannel multicastChannel;
+    // shared memory feed of the simulator, null when the replay comes over a socket
+    protected SharedMemoryRing ring;
     protected boolean running = false;
     protected double simulationStartTime;
 
@@ -41,6 +110,7 @@ public abstract class ReceiverBase {
 
     // Create a thread-safe queue for message processing
     protected BlockingQueue<String> messageQueue = new LinkedBlockingQueue<>(1000);
+    protected BlockingQueue<ByteBuffer> recordQueue = new LinkedBlockingQueue<>(1000);
 
     /**
      * Runs multiple simulations without restarting the application
@@ -115,20 +185,28 @@ public abstract class ReceiverBase {
                 running = true;
                 simulationStartTime = (double) System.nanoTime();
 
-                // Start threads for receiving and processing messages
-                Thread receiveThread = new Thread(this::socketReceive);
-                Thread processThread = new Thread(this::messageProcessing);
-
-                // Set thread priorities for better timing
-                receiveThread.setPriority(Thread.MAX_PRIORITY);
-                processThread.setPriority(Thread.NORM_PRIORITY);
-
-                receiveThread.start();
-                processThread.start();
-
-                // Wait for threads to finish
-                receiveThread.join();
-                processThread.join();
+                if (ring != null) {
+                    // the records are processed on the thread that polls the ring
+                    Thread ringThread = new Thread(this::ringProcessing);
+                    ringThread.setPriority(Thread.MAX_PRIORITY);
+                    ringThread.start();
+                    ringThread.join();
+                } else {
+                    // Start threads for receiving and processing messages
+                    Thread receiveThread = new Thread(this::socketReceive);
+                    Thread processThread = new Thread(this::messageProcessing);
+
+                    // Set thread priorities for better timing
+                    receiveThread.setPriority(Thread.MAX_PRIORITY);
+                    processThread.setPriority(Thread.NORM_PRIORITY);
+
+                    receiveThread.start();
+                    processThread.start();
+
+                    // Wait for threads to finish
+                    receiveThread.join();
+                    processThread.join();
+                }
 
                 System.out.println("\n<========== Simulation completed ========>");
             }
@@ -149,20 +227,30 @@ public abstract class ReceiverBase {
      * Connects to the simulator server
      */
     protected boolean connectToSimulator() {
+        if (MULTICAST != null)
+            return joinMulticastFeed();
+        if (SHARED_MEMORY != null)
+            return openSharedMemoryRing();
         try {
-            System.out.println("Connecting to simulator at " + SERVER_ADDRESS + ":" + SERVER_PORT + "...");
-            socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
+            channel = openSimulatorChannel();
+            if (UNIX_SOCKET == null)
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, 8192);
 
-            socket.setTcpNoDelay(true);
-            socket.setReceiveBufferSize(8192);
-
-            out = new PrintWriter(new BufferedOutputStream(socket.getOutputStream()), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out = new PrintWriter(new BufferedOutputStream(Channels.newOutputStream(channel)), true);
+            BufferedInputStream input = new BufferedInputStream(Channels.newInputStream(channel));
 
             printConsoleHeader();
-            out.println("START");
+            boolean binary = PROTOCOL.equals("binary");
+            out.println("START" + (DRIVE != null ? " " + DRIVE : "") + (binary ? " proto=binary" : "") + (SPEED != null ? " speed=" + SPEED : "")
+                    + (SUBSCRIBE != null ? " subscribe=" + SUBSCRIBE : "")
+                    + (COMPRESS != null ? " compress=" + COMPRESS : ""));
             out.flush();
 
+            if (COMPRESS != null)
+                input = readCompressionHeader(input);
+            recordIn = binary ? readBinaryHeader(input) : null;
+            in = new BufferedReader(new InputStreamReader(input));
+
             return true;
         } catch (IOException e) {
             System.out.println("Failed to connect to simulator: " + e.getMessage());
@@ -170,21 +258,122 @@ public abstract class ReceiverBase {
         }
     }
 
+    /**
+     * Connects to the simulator over the Unix domain socket if one is set,
+     * else over TCP.
+     */
+    private SocketChannel openSimulatorChannel() throws IOException {
+        if (UNIX_SOCKET != null) {
+            String path = UNIX_SOCKET.isEmpty() ? CANTraceSimulation.DEFAULT_UNIX_SOCKET : UNIX_SOCKET;
+            System.out.println("Connecting to simulator at " + path + "...");
+            return SocketChannel.open(UnixDomainSocketAddress.of(path));
+        }
+        System.out.println("Connecting to simulator at " + SERVER_ADDRESS + ":" + SERVER_PORT + "...");
+        SocketChannel tcpChannel = SocketChannel.open(new InetSocketAddress(SERVER_ADDRESS, SERVER_PORT));
+        tcpChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return tcpChannel;
+    }
+
+    /**
+     * Joins the multicast group of the simulator's feed, the records arrive
+     * from the next datagram on.
+     */
+    private boolean joinMulticastFeed() {
+        try {
+            InetSocketAddress group = MulticastFeed.parseGroup(MULTICAST);
+            NetworkInterface networkInterface = MulticastFeed.findInterface(MULTICAST_INTERFACE);
+            System.out.println("Joining multicast group " + group + " on " + networkInterface.getName() + "...");
+            multicastChannel = DatagramChannel.open(group.getAddress() instanceof Inet6Address
+                    ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+            // several receivers on one machine listen on the same port
+            multicastChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            multicastChannel.bind(new InetSocketAddress(group.getPort()));
+            multicastChannel.join(group.getAddress(), networkInterface);
+
+            printConsoleHeader();
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Failed to join the multicast feed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Maps the ring of the simulator's shared memory feed, the records are
+     * read from the next one the simulator writes on.
+     */
+    private boolean openSharedMemoryRing() {
+        Path file = SHARED_MEMORY.isEmpty() ? SharedMemoryFeed.DEFAULT_PATH : Path.of(SHARED_MEMORY);
+        try {
+            System.out.println("Reading the shared memory ring " + file + "...");
+            ring = SharedMemoryRing.open(file);
+
+            printConsoleHeader();
+            return true;
+        } catch (IOException e) {
+            System.out.println("Failed to open the shared memory ring: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads the magic of a DeflatingChannel.
+     *
+     * @return stream of the inflated bytes, or the input itself if the
+     *         simulator does not compress
+     */
+    private BufferedInputStream readCompressionHeader(BufferedInputStream input) throws IOException {
+        input.mark(4);
+        byte[] magic = input.readNBytes(4);
+        if (magic.length < 4 || ByteBuffer.wrap(magic).getInt() != DeflatingChannel.MAGIC) {
+            input.reset();
+            System.out.println("Simulator does not compress the stream");
+            return input;
+        }
+        return new BufferedInputStream(new InflaterInputStream(input));
+    }
+
+    /**
+     * Reads the header of the binary protocol.
+     *
+     * @return stream of the records, or null if the simulator sends text
+     * @throws IOException if the simulator uses a binary version that is not supported
+     */
+    private DataInputStream readBinaryHeader(BufferedInputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        input.mark(BinaryProtocol.HEADER_SIZE);
+        int magic = data.readInt();
+        if (magic != BinaryProtocol.MAGIC) {
+            // an older simulator, the bytes are the first text line
+            input.reset();
+            System.out.println("Simulator does not support the binary protocol, using text");
+            return null;
+        }
+        int version = data.readUnsignedShort();
+        int recordSize = data.readUnsignedShort();
+        if (version != BinaryProtocol.VERSION || recordSize != BinaryProtocol.RECORD_SIZE)
+            throw new IOException("Unsupported binary protocol version " + version);
+        return data;
+    }
+
     /**
      * Continuously receives messages from the socket and adds them to the queue -->
      * runs in a separate thread.
      */
     protected void socketReceive() {
         try {
+            if (multicastChannel != null) {
+                receiveDatagrams();
+                return;
+            }
+            if (recordIn != null) {
+                receiveRecords();
+                return;
+            }
             String message;
             while (running && (message = in.readLine()) != null) {
                 if (message.equals("SIMULATION_COMPLETE")) {
-                    System.out.println("\nReceived simulation complete signal from simulator.");
-
-                    // Perform any cleanup operations before ending
-                    beforeSimulationComplete();
-
-                    running = false;
+                    simulationComplete();
                     break;
                 }
 
@@ -206,30 +395,208 @@ public abstract class ReceiverBase {
         }
     }
 
+    // same as socketReceive for the records of the binary protocol
+    private void receiveRecords() throws IOException, InterruptedException {
+        while (running) {
+            byte[] record = new byte[BinaryProtocol.RECORD_SIZE];
+            try {
+                recordIn.readFully(record);
+            } catch (EOFException e) {
+                break;
+            }
+            if (!queueRecord(ByteBuffer.wrap(record)))
+                break;
+        }
+    }
+
+    /**
+     * Same as receiveRecords for the datagrams of the multicast feed. The
+     * replay starts with the first datagram received; when a datagram skips
+     * sequence numbers the missing events are fetched over TCP before its
+     * own records are queued, so the records stay in order.
+     */
+    private void receiveDatagrams() throws IOException, InterruptedException {
+        ByteBuffer datagram = ByteBuffer.allocate(MulticastFeed.MAX_DATAGRAM_SIZE);
+        int replay = 0;
+        int expected = -1;
+        long gaps = 0;
+        long lost = 0;
+        long duplicates = 0;
+        while (running) {
+            datagram.clear();
+            multicastChannel.receive(datagram);
+            datagram.flip();
+            if (!MulticastFeed.isFeedDatagram(datagram))
+                continue;
+
+            int sequence = MulticastFeed.sequence(datagram);
+            if (expected < 0 || MulticastFeed.replay(datagram) != replay) {
+                // joined the feed, or the simulator started the drive again
+                replay = MulticastFeed.replay(datagram);
+                expected = sequence;
+            }
+            if (sequence < expected) {
+                duplicates++;
+                continue;
+            }
+            if (sequence > expected) {
+                gaps++;
+                if (!requestResend(expected, sequence))
+                    lost += sequence - expected;
+            }
+            expected = sequence + 1;
+
+            for (int i = MulticastFeed.HEADER_SIZE; i + BinaryProtocol.RECORD_SIZE <= datagram.limit();
+                    i += BinaryProtocol.RECORD_SIZE) {
+                byte[] record = new byte[BinaryProtocol.RECORD_SIZE];
+                datagram.get(i, record);
+                if (!queueRecord(ByteBuffer.wrap(record))) {
+                    System.out.println("\nMulticast feed: " + gaps + " gaps, " + lost + " events lost, "
+                            + duplicates + " duplicates");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives and processes the records of the shared memory ring, replaces
+     * socketReceive and messageProcessing. The thread polls the ring and only
+     * parks when it has been empty for a while, so a record is picked up within
+     * microseconds while the simulator is replaying. Each record is copied into
+     * the same buffer and processed before the next poll.
+     */
+    private void ringProcessing() {
+        try (BufferedWriter logFile = openLogFile()) {
+            SharedMemoryRing.Reader reader = ring.reader();
+            ByteBuffer record = ByteBuffer.allocate(BinaryProtocol.RECORD_SIZE);
+            int idle = 0;
+            while (running) {
+                record.clear();
+                if (!reader.poll(record)) {
+                    if (++idle < RING_SPINS) {
+                        Thread.onSpinWait();
+                    } else {
+                        LockSupport.parkNanos(RING_PARK_NANOS);
+                    }
+                    continue;
+                }
+                idle = 0;
+                record.flip();
+                if (BinaryProtocol.type(record) == BinaryProtocol.END) {
+                    simulationComplete();
+                    break;
+                }
+                processRecord(record, timeDeltaMillis(), logFile);
+                processAdditionalData();
+                updateConsoleDisplay();
+            }
+            if (reader.lost() > 0)
+                System.out.println("\nWarning: fell behind the shared memory ring, " + reader.lost() + " records lost");
+        } catch (IOException e) {
+            System.out.println("\nIssue encountered to Write in log file: " + e.getMessage());
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * Asks the simulator over its connection for the events from..to-1 the feed
+     * lost and queues their records.
+     *
+     * @return false if they could not be fetched
+     */
+    private boolean requestResend(int from, int to) throws InterruptedException {
+        if (to - from > MAX_RESEND_EVENTS) {
+            System.out.println("\nWarning: lost " + (to - from) + " multicast events, too many to fetch again");
+            return false;
+        }
+        try (SocketChannel resendChannel = openSimulatorChannel()) {
+            OutputStream output = Channels.newOutputStream(resendChannel);
+            output.write(("RESEND " + from + " " + to + "\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            DataInputStream data = readBinaryHeader(new BufferedInputStream(Channels.newInputStream(resendChannel)));
+            if (data == null)
+                return false;
+            while (true) {
+                byte[] record = new byte[BinaryProtocol.RECORD_SIZE];
+                data.readFully(record);
+                ByteBuffer buf = ByteBuffer.wrap(record);
+                if (BinaryProtocol.type(buf) == BinaryProtocol.END)
+                    return true;
+                queueRecord(buf);
+            }
+        } catch (IOException e) {
+            System.out.println("\nWarning: could not fetch lost multicast events: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Queues a received record for processing.
+     *
+     * @return false if it is the END record
+     */
+    private boolean queueRecord(ByteBuffer record) throws InterruptedException {
+        if (BinaryProtocol.type(record) == BinaryProtocol.END) {
+            simulationComplete();
+            return false;
+        }
+        boolean added = recordQueue.offer(record, 50, TimeUnit.MILLISECONDS);
+        if (!added) {
+            System.out.println("\nWarning: Message queue full, dropped message: " + BinaryProtocol.describe(record));
+        }
+        return true;
+    }
+
+    private void simulationComplete() {
+        System.out.println("\nReceived simulation complete signal from simulator.");
+
+        // Perform any cleanup operations before ending
+        beforeSimulationComplete();
+
+        running = false;
+    }
+
     protected void beforeSimulationComplete() {
         // Default implementation does nothing
     }
 
-    protected void messageProcessing() {
-        // Create log file with buffered writer for better performance
-        try (BufferedWriter logFile = new BufferedWriter(new FileWriter("simulation_log.txt"))) {
-            // Write the header
-            logFile.write("Message ID | Time Offset | Values | System Time Delta\n");
-            logFile.write("---------------------------------------------------\n");
+    // creates the log file with buffered writer for better performance, and writes the header
+    private static BufferedWriter openLogFile() throws IOException {
+        BufferedWriter logFile = new BufferedWriter(new FileWriter("simulation_log.txt"));
+        logFile.write("Message ID | Time Offset | Values | System Time Delta\n");
+        logFile.write("---------------------------------------------------\n");
+        return logFile;
+    }
+
+    // time since the simulation started in ms, with nanosecond precision
+    private double timeDeltaMillis() {
+        return ((double) System.nanoTime() - simulationStartTime) / 1_000_000.0;
+    }
 
+    protected void messageProcessing() {
+        try (BufferedWriter logFile = openLogFile()) {
             // Process messages from the queue
-            while (running || !messageQueue.isEmpty()) {
+            while (running || !messageQueue.isEmpty() || !recordQueue.isEmpty()) {
                 try {
                     // Try to get a message from the queue with timeout
-                    String message = messageQueue.poll(10, TimeUnit.MILLISECONDS);
+                    String message = null;
+                    ByteBuffer record = null;
+                    if (recordIn != null || multicastChannel != null) {
+                        record = recordQueue.poll(10, TimeUnit.MILLISECONDS);
+                    } else {
+                        message = messageQueue.poll(10, TimeUnit.MILLISECONDS);
+                    }
 
-                    if (message != null) {
-                        // Calculate time delta with nanosecond precision
-                        double currentTimeNanos = (double) System.nanoTime();
-                        double timeDeltaNanos = currentTimeNanos - simulationStartTime;
-                        double timeDeltaMillis = timeDeltaNanos / 1_000_000.0;
+                    if (message != null || record != null) {
+                        double timeDeltaMillis = timeDeltaMillis();
 
-                        processMessage(message, timeDeltaMillis, logFile);
+                        if (record != null) {
+                            processRecord(record, timeDeltaMillis, logFile);
+                        } else {
+                            processMessage(message, timeDeltaMillis, logFile);
+                        }
 
                         processAdditionalData();
 
@@ -281,34 +648,31 @@ public abstract class ReceiverBase {
         switch (type) {
             case "STEERING":
                 if (parts.length > 4) {
-                    steeringAngleStr = extractValue(parts[4], "Angle=", "°");
+                    String value = extractValue(parts[4], "Angle=", "°");
                     try {
-                        steeringAngle = Double.parseDouble(steeringAngleStr);
+                        onSteering(timeOffset, Double.parseDouble(value));
                     } catch (NumberFormatException e) {
                         // Keep previous value if parsing fails
+                        steeringAngleStr = value;
                     }
                 }
                 break;
             case "SPEED":
                 if (parts.length > 4) {
-                    vehicleSpeedStr = extractValue(parts[4], "Speed=", " km/h");
+                    String value = extractValue(parts[4], "Speed=", " km/h");
                     try {
-                        vehicleSpeed = Double.parseDouble(vehicleSpeedStr);
+                        onSpeed(timeOffset, Double.parseDouble(value));
                     } catch (NumberFormatException e) {
                         // Keep previous value if parsing fails
+                        vehicleSpeedStr = value;
                     }
                 }
                 break;
             case "DYNAMICS":
                 if (parts.length > 6) {
-                    yawRateStr = parts[4];
-                    longAccelStr = parts[5];
-                    latAccelStr = parts[6];
-
                     try {
-                        yawRate = Double.parseDouble(yawRateStr);
-                        longAccel = Double.parseDouble(longAccelStr);
-                        latAccel = Double.parseDouble(latAccelStr);
+                        onDynamics(timeOffset, Double.parseDouble(parts[4]), Double.parseDouble(parts[5]),
+                                Double.parseDouble(parts[6]));
                     } catch (NumberFormatException e) {
                         // Keep previous values if parsing fails
                     }
@@ -328,20 +692,78 @@ public abstract class ReceiverBase {
 
         double timeOffset = Double.parseDouble(parts[1]);
         currentSimTime = timeOffset;
-        gpsLatitudeStr = parts[2];
-        gpsLongitudeStr = parts[3];
 
         try {
-            double latitude = Double.parseDouble(gpsLatitudeStr);
-            double longitude = Double.parseDouble(gpsLongitudeStr);
+            double latitude = Double.parseDouble(parts[2]);
+            double longitude = Double.parseDouble(parts[3]);
 
             // Create new GPS coordinate
-            currentGPS = new GPScoordinates(latitude, longitude, timeOffset);
+            onGPS(new GPScoordinates(latitude, longitude, timeOffset));
         } catch (NumberFormatException e) {
             // Keep previous values if parsing fails
         }
     }
 
+    /**
+     * Processes a record of the binary protocol, the values are used as they
+     * are without any text parsing
+     */
+    protected void processRecord(ByteBuffer record, double timeDelta, Writer logFile) throws IOException {
+        double timeOffset = BinaryProtocol.timestamp(record);
+        switch (BinaryProtocol.type(record)) {
+            case BinaryProtocol.STEERING:
+                onSteering(timeOffset, BinaryProtocol.value(record, 0));
+                break;
+            case BinaryProtocol.SPEED:
+                onSpeed(timeOffset, BinaryProtocol.value(record, 0));
+                break;
+            case BinaryProtocol.DYNAMICS:
+                onDynamics(timeOffset, BinaryProtocol.value(record, 0), BinaryProtocol.value(record, 1),
+                        BinaryProtocol.value(record, 2));
+                break;
+            case BinaryProtocol.GPS:
+                onGPS(new GPScoordinates(BinaryProtocol.latitude(record), BinaryProtocol.longitude(record),
+                        timeOffset));
+                break;
+            default:
+                currentSimTime = timeOffset;
+                break;
+        }
+        logFile.write(BinaryProtocol.describe(record) + " | " + String.format("%.6f", timeDelta) + "ms\n");
+        logFile.flush();
+    }
+
+    // Sensor value hooks, called for the messages of both protocols
+
+    protected void onSteering(double timeOffset, double angle) {
+        currentSimTime = timeOffset;
+        steeringAngle = angle;
+        steeringAngleStr = df.format(angle);
+    }
+
+    protected void onSpeed(double timeOffset, double speed) {
+        currentSimTime = timeOffset;
+        vehicleSpeed = speed;
+        vehicleSpeedStr = df.format(speed);
+    }
+
+    protected void onDynamics(double timeOffset, double yawRate, double longAccel, double latAccel) {
+        currentSimTime = timeOffset;
+        this.yawRate = yawRate;
+        this.longAccel = longAccel;
+        this.latAccel = latAccel;
+        yawRateStr = String.valueOf(yawRate);
+        longAccelStr = String.valueOf(longAccel);
+        latAccelStr = String.valueOf(latAccel);
+    }
+
+    protected void onGPS(GPScoordinates coordinate) {
+        currentSimTime = coordinate.getTimeOffset();
+        gpsLatitudeStr = gpsFormat.format(coordinate.getLatitude());
+        gpsLongitudeStr = gpsFormat.format(coordinate.getLongitude());
+        currentGPS = coordinate;
+    }
+
     /**
      * Extracts a value from a string containing key-value pairs
      */
@@ -429,8 +851,12 @@ public abstract class ReceiverBase {
                 out.close();
             if (in != null)
                 in.close();
-            if (socket != null && !socket.isClosed())
-                socket.close();
+            if (channel != null && channel.isOpen())
+                channel.close();
+            if (multicastChannel != null)
+                multicastChannel.close();
+            // the mapping is released once the ring is garbage collected
+            ring = null;
 
             System.out.println("Connection closed");
         } catch (IOException e) {
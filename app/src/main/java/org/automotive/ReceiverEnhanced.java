@@ -60,8 +60,8 @@ public class ReceiverEnhanced extends ReceiverBase {
     }
 
     @Override
-    protected void processGPSMessage(String[] parts) {
-        super.processGPSMessage(parts);
+    protected void onGPS(GPScoordinates coordinate) {
+        super.onGPS(coordinate);
 
         if (currentGPS != null) {
 
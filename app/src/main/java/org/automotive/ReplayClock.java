@@ -0,0 +1,389 @@
+package org.automotive;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wall clock of one replay. Maps simulation time to System.nanoTime and waits
+ * for the deadline of each event: the thread is parked until shortly before
+ * the deadline and spins for the rest, because a sleep alone overshoots by
+ * 50-100 µs or more on Linux.
+ *
+ * The lateness of every event (time between its deadline and when it was
+ * released) is counted in a histogram with power-of-two microsecond buckets.
+ * An event that is more than the maximum lag behind is handled by the
+ * catch-up policy:
+ * <ul>
+ * <li>BURST sends it right away, the replay catches up with a burst of events</li>
+ * <li>SKIP drops it, so only events that are still on time are sent</li>
+ * <li>REBASE sends it and moves the clock by the lag, so all later events
+ *     keep their spacing but are sent that much later</li>
+ * </ul>
+ * The clock runs at a speed factor: 10 replays ten times faster than the
+ * drive was recorded, 0.5 at half the speed. An unpaced clock
+ * ({@link #UNPACED}) never waits and sends every event as soon as possible.
+ * The speed can be changed from another thread while the replay runs; the
+ * new speed applies from the current simulation time on. In the same way
+ * another thread can pause and resume the clock, which stops the simulation
+ * time without counting the pause as lateness, and seek it to another
+ * simulation time; the replay takes the new time with takeSeek and moves to
+ * it. Apart from that a clock is used by one thread only.
+ */
+class ReplayClock {
+    enum CatchUp {
+        BURST, SKIP, REBASE;
+
+        static CatchUp parse(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown catch-up policy: " + name);
+            }
+        }
+    }
+
+    // speed factor of a replay that does not wait at all
+    static final double UNPACED = Double.POSITIVE_INFINITY;
+
+    static final CatchUp DEFAULT_CATCH_UP = CatchUp.BURST;
+    static final double DEFAULT_MAX_LAG_MS = 10.0;
+
+    // the last part of a wait is spun, parking is not precise enough for it
+    static final long SPIN_NANOS = 200_000;
+
+    // bucket i counts lateness below 2^i µs, the last bucket everything above
+    private static final int BUCKETS = 24;
+
+    private final CatchUp catchUp;
+    private final long maxLagNanos;
+
+    // wall clock time that corresponds to the simulation time anchorMs
+    private long anchorNanos;
+    private double anchorMs;
+    private double speed = 1.0;
+    // simulation time of the last event released, where an unpaced clock goes on from
+    private double lastSimMs;
+    // speed set by another thread, applied by the replay thread; NaN if none
+    private volatile double requestedSpeed = Double.NaN;
+    // thread that is waiting in await, woken up when the speed changes
+    private volatile Thread waiter;
+
+    // pause set by another thread, applied by the replay thread
+    private volatile boolean pauseRequested = false;
+    private boolean paused = false;
+    private long pausedAtNanos;
+    // simulation time a seek was requested to, null if none
+    private final AtomicReference<Double> requestedSeekMs = new AtomicReference<>();
+    // simulation time the clock was moved to and the replay has not taken yet, NaN if none
+    private double seekMs = Double.NaN;
+
+    private long startedNanos;
+    private double fromMs;
+
+    private final long[] histogram = new long[BUCKETS];
+    private long events;
+    private long totalLatenessNanos;
+    private long maxLatenessNanos;
+    private long lagging;
+    private long skipped;
+    private long rebases;
+    private long rebasedNanos;
+
+    ReplayClock() {
+        this(DEFAULT_CATCH_UP, DEFAULT_MAX_LAG_MS);
+    }
+
+    ReplayClock(CatchUp catchUp, double maxLagMs) {
+        if (maxLagMs < 0)
+            throw new IllegalArgumentException("Maximum lag must not be negative: " + maxLagMs);
+        this.catchUp = catchUp;
+        this.maxLagNanos = (long) (maxLagMs * 1_000_000);
+    }
+
+    /**
+     * Parses a speed factor like "10", "0.5x" or "max"/"unpaced".
+     *
+     * @throws IllegalArgumentException if it is not a positive factor
+     */
+    static double parseSpeed(String text) {
+        if (text.equals("max") || text.equals("unpaced"))
+            return UNPACED;
+        try {
+            double factor = Double.parseDouble(text.endsWith("x") ? text.substring(0, text.length() - 1) : text);
+            if (factor > 0)
+                return factor;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid speed: " + text);
+    }
+
+    /**
+     * Changes the speed factor, can be called from any thread. The replay
+     * continues from the current simulation time at the new speed.
+     */
+    void setSpeed(double factor) {
+        if (!(factor > 0))
+            throw new IllegalArgumentException("Invalid speed: " + factor);
+        requestedSpeed = factor;
+        wakeUpWaiter();
+    }
+
+    double getSpeed() {
+        applyRequests();
+        return speed;
+    }
+
+    /**
+     * Stops the simulation time until resume() is called, can be called from
+     * any thread. An await that is waiting keeps waiting.
+     */
+    void pause() {
+        pauseRequested = true;
+        wakeUpWaiter();
+    }
+
+    // continues the simulation time where pause() stopped it, can be called from any thread
+    void resume() {
+        pauseRequested = false;
+        wakeUpWaiter();
+    }
+
+    /**
+     * Moves the clock to the simulation time, can be called from any thread.
+     * An await that is waiting returns false, and the replay continues at
+     * the time that takeSeek returns.
+     */
+    void seek(double simTimeMs) {
+        requestedSeekMs.set(simTimeMs);
+        wakeUpWaiter();
+    }
+
+    /**
+     * Simulation time the clock was moved to by seek since the last call, NaN
+     * if it was not moved.
+     */
+    double takeSeek() {
+        applyRequests();
+        double ms = seekMs;
+        seekMs = Double.NaN;
+        return ms;
+    }
+
+    boolean isPaused() {
+        applyRequests();
+        return paused;
+    }
+
+    private void wakeUpWaiter() {
+        Thread thread = waiter;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    // starts the clock now at the simulation time and clears the statistics
+    void start(double fromMs) {
+        applyRequests();
+        startedNanos = System.nanoTime();
+        anchorNanos = startedNanos;
+        anchorMs = fromMs;
+        lastSimMs = fromMs;
+        this.fromMs = fromMs;
+        seekMs = Double.NaN;
+        // a clock that is paused stays paused, from now on
+        pausedAtNanos = startedNanos;
+        java.util.Arrays.fill(histogram, 0);
+        events = 0;
+        totalLatenessNanos = 0;
+        maxLatenessNanos = 0;
+        lagging = 0;
+        skipped = 0;
+        rebases = 0;
+        rebasedNanos = 0;
+    }
+
+    // wall clock time at which the event at the simulation time is due, Long.MAX_VALUE while paused
+    long deadlineNanos(double simTimeMs) {
+        applyRequests();
+        if (paused)
+            return Long.MAX_VALUE;
+        if (speed == UNPACED)
+            return anchorNanos;
+        return anchorNanos + (long) ((simTimeMs - anchorMs) * 1_000_000 / speed);
+    }
+
+    /**
+     * Re-anchors the clock if the speed was changed or it was moved, and
+     * stops or continues it if it was paused or resumed. While the clock is
+     * paused its wall clock time stands still at the time of the pause.
+     */
+    private void applyRequests() {
+        double requested = requestedSpeed;
+        if (!Double.isNaN(requested)) {
+            requestedSpeed = Double.NaN;
+            long now = paused ? pausedAtNanos : System.nanoTime();
+            if (speed == UNPACED) {
+                // an unpaced replay ran ahead of the anchor, it goes on from its last event
+                anchorMs = lastSimMs;
+            } else {
+                anchorMs += (now - anchorNanos) / 1_000_000.0 * speed;
+            }
+            anchorNanos = now;
+            speed = requested;
+        }
+
+        Double seek = requestedSeekMs.getAndSet(null);
+        if (seek != null) {
+            anchorNanos = paused ? pausedAtNanos : System.nanoTime();
+            anchorMs = seek;
+            lastSimMs = seek;
+            seekMs = seek;
+        }
+
+        boolean pause = pauseRequested;
+        if (pause != paused) {
+            long now = System.nanoTime();
+            if (pause) {
+                pausedAtNanos = now;
+            } else {
+                // the pause doesn't count as lateness
+                anchorNanos += now - pausedAtNanos;
+            }
+            paused = pause;
+        }
+    }
+
+    /**
+     * Waits until the event at the simulation time is due, and as long as
+     * the clock is paused.
+     *
+     * @return false if the catch-up policy drops the event, or the clock was
+     *         moved by seek and the replay has to take the new time first
+     */
+    boolean await(double simTimeMs) {
+        long deadline;
+        long now;
+        waiter = Thread.currentThread();
+        try {
+            while (true) {
+                // the deadline moves if the speed was changed meanwhile
+                deadline = deadlineNanos(simTimeMs);
+                if (!Double.isNaN(seekMs))
+                    return false;
+                if (paused) {
+                    LockSupport.park(this);
+                } else {
+                    now = System.nanoTime();
+                    if (deadline - now <= SPIN_NANOS)
+                        break;
+                    LockSupport.parkNanos(deadline - now - SPIN_NANOS);
+                }
+                if (Thread.currentThread().isInterrupted())
+                    return release(simTimeMs, System.nanoTime());
+            }
+        } finally {
+            waiter = null;
+        }
+        while (now < deadline) {
+            Thread.onSpinWait();
+            now = System.nanoTime();
+        }
+        return release(simTimeMs, now);
+    }
+
+    /**
+     * Accounts an event that is released at the wall clock time, for callers
+     * that do their own waiting.
+     *
+     * @return false if the catch-up policy drops the event
+     */
+    boolean release(double simTimeMs, long nowNanos) {
+        long lateness = Math.max(0, nowNanos - deadlineNanos(simTimeMs));
+        lastSimMs = simTimeMs;
+        if (speed == UNPACED) {
+            // there is no deadline to be late for
+            lateness = 0;
+        }
+        if (lateness > maxLagNanos) {
+            lagging++;
+            if (catchUp == CatchUp.SKIP) {
+                skipped++;
+                return false;
+            }
+            if (catchUp == CatchUp.REBASE) {
+                anchorNanos += lateness;
+                rebases++;
+                rebasedNanos += lateness;
+            }
+        }
+        record(lateness);
+        return true;
+    }
+
+    private void record(long latenessNanos) {
+        long micros = latenessNanos / 1_000;
+        int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        histogram[bucket]++;
+        events++;
+        totalLatenessNanos += latenessNanos;
+        maxLatenessNanos = Math.max(maxLatenessNanos, latenessNanos);
+    }
+
+    long getEventCount() {
+        return events;
+    }
+
+    long getSkippedCount() {
+        return skipped;
+    }
+
+    long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    /**
+     * Upper bound of the lateness of the given fraction of events in µs, from
+     * the histogram buckets; -1 for the open last bucket.
+     */
+    long percentileMicros(double fraction) {
+        long rank = (long) Math.ceil(fraction * events);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0)
+                return i == BUCKETS - 1 ? -1 : 1L << i;
+        }
+        return 0;
+    }
+
+    /**
+     * Summary of the timing of the replay so far, e.g. to print when it ends.
+     */
+    String report(double endMs) {
+        double wallMs = (System.nanoTime() - startedNanos) / 1_000_000.0;
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT,
+                "Replay fidelity: %d events, %.1f ms simulation time in %.1f ms, speed %s, catch-up %s%n",
+                events, endMs - fromMs, wallMs, speed == UNPACED ? "unpaced" : speed + "x", catchUp));
+        text.append(String.format(Locale.ROOT,
+                "  lateness mean %.1f µs, p50 %s, p99 %s, p99.9 %s, max %.1f µs%n",
+                events > 0 ? totalLatenessNanos / 1_000.0 / events : 0.0,
+                bound(0.5), bound(0.99), bound(0.999), maxLatenessNanos / 1_000.0));
+        text.append(String.format(Locale.ROOT,
+                "  %d events more than %s ms late, %d skipped, %d rebases moved the clock by %.1f ms%n",
+                lagging, maxLagNanos / 1_000_000.0, skipped, rebases, rebasedNanos / 1_000_000.0));
+        text.append("  histogram:");
+        for (int i = 0; i < BUCKETS; i++) {
+            if (histogram[i] > 0)
+                text.append(i == BUCKETS - 1 ? " >=" + (1L << (i - 1)) : " <" + (1L << i)).append("µs=")
+                        .append(histogram[i]);
+        }
+        return text.toString();
+    }
+
+    private String bound(double fraction) {
+        long micros = percentileMicros(fraction);
+        return micros < 0 ? ">" + (1L << (BUCKETS - 2)) + " µs" : "<" + micros + " µs";
+    }
+}
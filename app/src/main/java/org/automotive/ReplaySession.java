@@ -0,0 +1,645 @@
+package org.automotive;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One client of the simulator. A session replays the drive on its own
+ * read-only views of the CAN and GPS trace, so every client has its own
+ * position and clients that connect at different times don't disturb each
+ * other. Sessions block while they wait for the next message, so they run on
+ * virtual threads; hundreds of them need only a few carrier threads.
+ *
+ * The client chooses the text protocol or the records of BinaryProtocol and
+ * the replay speed with the START line. Messages the client did not
+ * subscribe to, or that come faster than its subscribed rate, are dropped
+ * before the session waits for them or encodes them. While the replay runs, the client
+ * controls it with command lines, which are read by a second virtual thread
+ * of the session:
+ * <ul>
+ * <li>{@code SPEED <factor>} changes the speed</li>
+ * <li>{@code PAUSE} and {@code RESUME} stop and continue the replay</li>
+ * <li>{@code SEEK <ms>} continues the replay at that simulation time</li>
+ * <li>{@code LOOP [<from ms> <to ms>]} starts the replay again at the end, or
+ *     at the end of the range, from the last START or SEEK position or the
+ *     start of the range; {@code LOOP off} lets the replay end again</li>
+ * </ul>
+ * SEEK and LOOP need the Timeline, whose time index finds the new position
+ * in O(log n).
+ *
+ * With a pre-encoded Timeline the session queues the encoded bytes of the
+ * events as they are. Without one (a streamed trace) every message is
+ * encoded when it is sent. The messages go through a SessionOutput, whose
+ * writer thread sends everything queued since its last write with one write,
+ * so a session that is behind or unpaced sends large batches with few system
+ * calls. A client that reads slower than a paced replay doesn't block it:
+ * it gets the newest message per id and channel instead of a growing
+ * backlog, GPS and vehicle dynamics first, and the session reports how many
+ * messages were conflated and dropped.
+ * A client that asks for {@code compress=deflate} gets the stream through a
+ * DeflatingChannel, which a second virtual thread flushes at the interval
+ * the client chose.
+ * A connection that starts with RESEND instead of START asks for events a
+ * receiver of the MulticastFeed lost, and is closed after the answer.
+ *
+ * A simulator with a DriveCatalog replays the drive the client names with
+ * {@code START <driveId>} instead of its own. A connection that starts with
+ * DRIVES gets the ids of the catalog's drives, one per line.
+ * A connection that starts with {@code FLEET [proto=binary]} is handed to
+ * the FleetReplay of the simulator, which sends it the events of its share of
+ * the fleet's vehicles.
+ */
+class ReplaySession implements Runnable {
+    // events queued before the writer is woken up at most
+    private static final int MAX_BATCH_EVENTS = 64;
+
+    private static final byte[] SIMULATION_COMPLETE = "SIMULATION_COMPLETE\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BINARY_END = new byte[BinaryProtocol.RECORD_SIZE];
+
+    static {
+        BinaryProtocol.putEnd(ByteBuffer.wrap(BINARY_END));
+    }
+
+    private final int id;
+    private final SocketChannel clientChannel;
+    // views of the drive the session replays, null if the simulator has no default drive
+    private CANTrace canTrace;
+    private GPSTrace gpsTrace;
+    private final ReplayClock clock;
+    // pre-encoded events of both traces, null to encode them while replaying
+    private Timeline timeline;
+    // drives a client can name in START, null if the simulator has none
+    private DriveCatalog catalog;
+    // fleet a client can attach to with FLEET, null if the simulator replays none
+    private FleetReplay fleet;
+    // the channel belongs to the fleet once it is attached
+    private boolean attachedToFleet = false;
+
+    // the client channel, or the DeflatingChannel in front of it
+    private GatheringByteChannel output;
+    private DeflatingChannel deflater;
+    // bounded buffer in front of the output, written by a second virtual thread
+    private SessionOutput outbound;
+
+    // records of the message being sent, null for the text protocol
+    private ByteBuffer records;
+
+    // messages the client asked for in the START line
+    private Subscription subscription = Subscription.everything();
+
+    // simulation times the replay loops between, null if it ends at the end of the drive
+    private volatile LoopRange loop;
+    // simulation time of the last START or SEEK, where a plain LOOP starts again
+    private volatile double startMs;
+
+    /**
+     * @param id            number of the session, used in log messages
+     * @param clientChannel connected client over TCP or a Unix domain socket, closed when the session ends
+     * @param canTrace      view of the CAN trace used only by this session, or null
+     * @param gpsTrace      view of the GPS trace used only by this session, or null
+     * @param clock         clock that paces the replay of this session
+     * @param timeline      pre-encoded events of the traces, or null
+     */
+    ReplaySession(int id, SocketChannel clientChannel, CANTrace canTrace, GPSTrace gpsTrace, ReplayClock clock,
+            Timeline timeline) {
+        this.id = id;
+        this.clientChannel = clientChannel;
+        this.canTrace = canTrace;
+        this.gpsTrace = gpsTrace;
+        this.clock = clock;
+        this.timeline = timeline;
+        this.output = clientChannel;
+    }
+
+    /**
+     * Sets the catalog of the drives a client can ask for in its START line
+     */
+    void setCatalog(DriveCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Sets the fleet a client can attach to with a FLEET line
+     */
+    void setFleet(FleetReplay fleet) {
+        this.fleet = fleet;
+    }
+
+    /**
+     * Waits for the START line of the client and replays the drive.
+     */
+    @Override
+    public void run() {
+        try {
+            // Streams of a socket channel don't share a lock, so the command reader and the
+            // replay can use the channel at the same time, over TCP and Unix domain sockets.
+            // Closing the channel in finally closes them and ends the reader.
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(clientChannel)));
+
+            // Wait for client to signal ready to receive data
+            String inputLine = in.readLine();
+            if (inputLine != null && inputLine.startsWith("RESEND")) {
+                resend(inputLine);
+                return;
+            }
+            if (inputLine != null && inputLine.trim().equals("DRIVES")) {
+                listDrives();
+                return;
+            }
+            if (inputLine != null && inputLine.trim().split("\\s+")[0].equals("FLEET")) {
+                attachToFleet(inputLine);
+                return;
+            }
+            StartRequest request;
+            try {
+                request = StartRequest.parse(inputLine);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Session " + id + ": invalid start request: " + e.getMessage());
+                request = null;
+            }
+            if (request != null && !useDrive(request.getDriveId()))
+                request = null;
+            if (request != null) {
+                System.out.println("Session " + id + ": client ready to receive data ("
+                        + (request.isBinary() ? "binary" : "text") + " protocol, speed " + request.getSpeed()
+                        + (request.isDeflate() ? ", deflate every " + request.getFlushMs() + " ms" : "")
+                        + "). Starting simulation...");
+                clock.setSpeed(request.getSpeed());
+                subscription = request.getSubscription();
+                if (request.isDeflate()) {
+                    deflater = DeflatingChannel.open(clientChannel);
+                    output = deflater;
+                    long flushMs = request.getFlushMs();
+                    Thread.ofVirtual().name("replay-session-" + id + "-flush").start(() -> deflater.flushEvery(flushMs));
+                }
+                outbound = new SessionOutput(output);
+                Thread.ofVirtual().name("replay-session-" + id + "-writer").start(outbound);
+                Thread.ofVirtual().name("replay-session-" + id + "-commands").start(() -> readCommands(in));
+                if (request.isBinary()) {
+                    records = ByteBuffer.allocate(16 * BinaryProtocol.RECORD_SIZE);
+                    BinaryProtocol.putHeader(records);
+                    outbound.write(records.flip());
+                    records.clear();
+                }
+
+                // Run the simulation and send data in real-time
+                runSimulation(request.getFromMs());
+
+                // Send simulation complete message after everything queued
+                outbound.finish(records != null ? BINARY_END : SIMULATION_COMPLETE);
+                reportConflation();
+                if (deflater != null) {
+                    deflater.finish();
+                    System.out.println("Session " + id + ": deflated " + deflater.getBytesIn() + " bytes to "
+                            + deflater.getBytesOut());
+                }
+                System.out.println("====>>> Session " + id + ": simulation completed successfully  <<<======");
+            }
+        } catch (IOException e) {
+            System.out.println("Session " + id + ": client disconnected: " + e.getMessage());
+            reportConflation();
+        } finally {
+            if (outbound != null)
+                outbound.close();
+            if (deflater != null)
+                deflater.close();
+            try {
+                // Close the client connection when done, unless the fleet sends to it now
+                if (!attachedToFleet) {
+                    clientChannel.close();
+                    System.out.println("Session " + id + ": client connection closed");
+                }
+            } catch (IOException e) {
+                System.out.println("Error closing client socket: " + e.getMessage());
+            }
+            // Stops the reader of a streamed trace
+            if (canTrace != null)
+                canTrace.close();
+        }
+    }
+
+    /**
+     * Answers {@code RESEND <from> <to>} of a multicast receiver that lost
+     * datagrams: the header of the binary protocol, the records of the events
+     * from..to-1 of the timeline and END. The events follow each other in the
+     * timeline, so their records are sent as one slice of it.
+     */
+    private void resend(String line) throws IOException {
+        String[] tokens = line.trim().split("\\s+");
+        int from;
+        int to;
+        try {
+            from = Integer.parseInt(tokens[1]);
+            to = Integer.parseInt(tokens[2]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.out.println("Session " + id + ": invalid resend request: " + line);
+            return;
+        }
+        if (timeline == null) {
+            System.out.println("Session " + id + ": resend requested, but there is no pre-encoded timeline");
+            return;
+        }
+        from = Math.max(0, from);
+        to = Math.max(from, Math.min(timeline.size(), to));
+
+        ByteBuffer header = ByteBuffer.allocate(BinaryProtocol.HEADER_SIZE);
+        BinaryProtocol.putHeader(header);
+        // start(size()) is the end of the last event
+        Timeline.Encoding encoding = timeline.binary();
+        ByteBuffer events = encoding.view();
+        events.limit(encoding.start(to)).position(encoding.start(from));
+        ByteBuffer end = ByteBuffer.allocate(BinaryProtocol.RECORD_SIZE);
+        BinaryProtocol.putEnd(end);
+        ByteBuffer[] answer = { header.flip(), events, end.flip() };
+        while (end.hasRemaining()) {
+            clientChannel.write(answer);
+        }
+        System.out.println("Session " + id + ": resent events " + from + " to " + (to - 1));
+    }
+
+    /**
+     * Switches the session to the drive of the catalog the client asked for,
+     * or keeps the simulator's own drive if it asked for none.
+     *
+     * @return false if there is no such drive or it can't be loaded
+     */
+    private boolean useDrive(String driveId) {
+        if (driveId == null) {
+            if (canTrace != null)
+                return true;
+            System.out.println("Session " + id + ": the simulator has no drive of its own, START needs a drive id");
+            return false;
+        }
+        if (catalog == null) {
+            System.out.println("Session " + id + ": drive " + driveId + " requested, but there is no catalog");
+            return false;
+        }
+        try {
+            Drive drive = catalog.get(driveId);
+            canTrace = drive.getCANTrace().view();
+            gpsTrace = drive.getGPSTrace().view();
+            timeline = drive.getTimeline();
+            System.out.println("Session " + id + ": replaying drive " + driveId);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Session " + id + ": can't load drive " + driveId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // hands the connection to the fleet, the session ends without closing it
+    private void attachToFleet(String inputLine) throws IOException {
+        if (fleet == null) {
+            System.out.println("Session " + id + ": fleet requested, but the simulator replays no fleet");
+            return;
+        }
+        boolean binary;
+        try {
+            binary = FleetReplay.parseRequest(inputLine);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Session " + id + ": invalid fleet request: " + e.getMessage());
+            return;
+        }
+        int connection = fleet.attach(clientChannel, binary);
+        attachedToFleet = true;
+        System.out.println("Session " + id + ": attached to the fleet of " + fleet.getVehicleCount()
+                + " vehicles as connection " + connection + " (" + (binary ? "binary" : "text") + " protocol)");
+    }
+
+    // answers DRIVES with the ids of the catalog's drives
+    private void listDrives() {
+        PrintWriter out = new PrintWriter(Channels.newOutputStream(clientChannel));
+        if (catalog != null) {
+            for (String driveId : catalog.driveIds()) {
+                out.println(driveId);
+            }
+        }
+        out.flush();
+    }
+
+    // reads command lines of the client until the connection is closed
+    private void readCommands(BufferedReader in) {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                try {
+                    handleCommand(line.trim().split("\\s+"));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Session " + id + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            // the session closed the connection
+        }
+    }
+
+    /**
+     * Applies a command line of the client to the clock or the loop range,
+     * the replay thread picks the change up.
+     *
+     * @throws IllegalArgumentException if the command or its arguments are invalid
+     */
+    private void handleCommand(String[] tokens) {
+        switch (tokens[0]) {
+            case "SPEED":
+                clock.setSpeed(ReplayClock.parseSpeed(argument(tokens, 1)));
+                System.out.println("Session " + id + ": speed set to " + tokens[1]);
+                break;
+            case "PAUSE":
+                clock.pause();
+                System.out.println("Session " + id + ": paused");
+                break;
+            case "RESUME":
+                clock.resume();
+                System.out.println("Session " + id + ": resumed");
+                break;
+            case "SEEK":
+                requireTimeline(tokens[0]);
+                clock.seek(parseTime(argument(tokens, 1)));
+                System.out.println("Session " + id + ": seek to " + tokens[1] + " ms");
+                break;
+            case "LOOP":
+                requireTimeline(tokens[0]);
+                if (tokens.length == 1) {
+                    loop = new LoopRange(startMs, Double.POSITIVE_INFINITY);
+                } else if (tokens[1].equals("off")) {
+                    loop = null;
+                } else {
+                    double fromMs = parseTime(tokens[1]);
+                    double toMs = parseTime(argument(tokens, 2));
+                    if (toMs <= fromMs)
+                        throw new IllegalArgumentException("Empty loop range: " + fromMs + " to " + toMs);
+                    loop = new LoopRange(fromMs, toMs);
+                }
+                System.out.println("Session " + id + ": " + (loop != null ? "looping " + loop : "not looping"));
+                break;
+            case "":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + String.join(" ", tokens));
+        }
+    }
+
+    private static String argument(String[] tokens, int index) {
+        if (index >= tokens.length)
+            throw new IllegalArgumentException(tokens[0] + " needs " + index + " argument" + (index > 1 ? "s" : ""));
+        return tokens[index];
+    }
+
+    private static double parseTime(String text) {
+        try {
+            double ms = Double.parseDouble(text);
+            if (ms >= 0)
+                return ms;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid simulation time: " + text);
+    }
+
+    private void requireTimeline(String command) {
+        if (timeline == null)
+            throw new IllegalArgumentException(command + " needs a pre-encoded timeline, not a streamed trace");
+    }
+
+    // prints the counts of the SessionOutput if the client fell behind
+    private void reportConflation() {
+        String report = outbound != null ? outbound.report() : "";
+        if (!report.isEmpty())
+            System.out.println("Session " + id + ": client was " + report);
+    }
+
+    /**
+     * Runs the simulation on the views of this session, sending sensor data
+     * with correct timing
+     * 
+     * @param fromMs simulation time in milliseconds where the replay starts
+     */
+    private void runSimulation(double fromMs) throws IOException {
+        // Store the simulation start time in nanoseconds for high precision
+        long simStartTimeNanos = System.nanoTime();
+        System.out.println("Simulation started at: " + simStartTimeNanos + " ns");
+
+        // Simulation time fromMs is now
+        clock.start(fromMs);
+        subscription.reset();
+
+        double simTimeMs = timeline != null ? replayTimeline(fromMs) : replayTraces(fromMs);
+
+        // Calculate and print total simulation time
+        long simEndTimeNanos = System.nanoTime();
+        double actualDurationMs = (simEndTimeNanos - simStartTimeNanos) / 1_000_000.0;
+
+        System.out.println("Simulation ended at: " + simEndTimeNanos + " ns");
+        System.out.println("Total simulation duration: " + actualDurationMs + " ms");
+        System.out.println("Final simulation time: " + simTimeMs + " ms");
+        System.out.println("Session " + id + ": " + clock.report(simTimeMs));
+    }
+
+    /**
+     * Sends the events of the timeline from the start time on. An event is
+     * queued when it is due, and the writer is woken up once the next event
+     * is not due yet. A seek of the clock, by SEEK or when the replay loops,
+     * moves to the first event at the new time.
+     *
+     * @return the simulation time of the last event
+     */
+    private double replayTimeline(double fromMs) throws IOException {
+        Timeline.Encoding encoding = records != null ? timeline.binary() : timeline.text();
+        // the bytes of the event being queued
+        ByteBuffer message = encoding.view();
+        int batchSize = 0;
+
+        startMs = fromMs;
+        double simTimeMs = fromMs;
+        int end = timeline.size();
+        int i = timeline.indexOf(fromMs);
+        while (true) {
+            double seekMs = clock.takeSeek();
+            if (!Double.isNaN(seekMs)) {
+                // the events before the seek were due, they are still sent
+                outbound.flush();
+                batchSize = 0;
+                i = timeline.indexOf(seekMs);
+                startMs = seekMs;
+                simTimeMs = seekMs;
+                subscription.reset();
+            }
+
+            LoopRange range = loop;
+            if (i == end || range != null && timeline.time(i) >= range.toMs) {
+                if (range == null)
+                    break;
+                int first = timeline.indexOf(range.fromMs);
+                if (first == end || timeline.time(first) >= range.toMs) {
+                    System.out.println("Session " + id + ": no events from " + range + ", not looping");
+                    loop = null;
+                    continue;
+                }
+                clock.seek(range.fromMs);
+                continue;
+            }
+
+            simTimeMs = timeline.time(i);
+            // Wait for the correct time to send the event, unless it is filtered, skipped or the replay moved
+            if (timeline.accept(subscription, i) && clock.await(simTimeMs)) {
+                message.limit(encoding.end(i)).position(encoding.start(i));
+                outbound.enqueue(timeline.conflationKey(i), timeline.isPriority(i), message, isPaced());
+                batchSize++;
+            }
+            i++;
+            if (batchSize > 0 && (batchSize == MAX_BATCH_EVENTS || i == end
+                    || clock.deadlineNanos(timeline.time(i)) > System.nanoTime())) {
+                outbound.flush();
+                batchSize = 0;
+            }
+        }
+        return simTimeMs;
+    }
+
+    // an unpaced replay has no time to keep up with, its messages are not conflated
+    private boolean isPaced() {
+        return clock.getSpeed() != ReplayClock.UNPACED;
+    }
+
+    /**
+     * Sends the frames and coordinates of the trace views from the start time
+     * on, encoding every message when it is due.
+     *
+     * @return the simulation time of the last message
+     */
+    private double replayTraces(double fromMs) throws IOException {
+        // Move traces to the start time, 0 starts from the beginning
+        if (fromMs > 0) {
+            canTrace.seek(fromMs);
+            gpsTrace.seek(fromMs);
+        } else {
+            canTrace.resetNextMessage();
+            gpsTrace.resetNextCoordinate();
+        }
+
+        // Send the first GPS coordinate (offset 0)
+        GPScoordinates currentGPS = gpsTrace.getNextCoordinate();
+        if (currentGPS != null && subscription.accept(currentGPS)) {
+            sendGPSData(currentGPS);
+        }
+
+        // Get the next GPS coordinate
+        GPScoordinates nextGPS = gpsTrace.getNextCoordinate();
+        double nextGPSTimeMs = (nextGPS != null) ? nextGPS.getTimeOffset() : Double.MAX_VALUE;
+
+        // Variable to track simulation time in milliseconds
+        double simTimeMs = fromMs;
+
+        // Process all CAN frames in time order
+        CANFrame currentFrame;
+        while ((currentFrame = canTrace.getNextMessage()) != null) {
+            double frameOffsetMs = currentFrame.getTimestamp();
+
+            // Check if we need to send a GPS coordinate before this CAN frame
+            while (nextGPS != null && nextGPSTimeMs <= frameOffsetMs) {
+                // Wait for the correct time to send GPS data, unless it is filtered or skipped
+                if (subscription.accept(nextGPS) && clock.await(nextGPSTimeMs))
+                    sendGPSData(nextGPS);
+
+                // Update simulation time to match the sent GPS time
+                simTimeMs = nextGPSTimeMs;
+
+                // Get next GPS coordinate
+                currentGPS = nextGPS;
+                nextGPS = gpsTrace.getNextCoordinate();
+                nextGPSTimeMs = (nextGPS != null) ? nextGPS.getTimeOffset() : Double.MAX_VALUE;
+            }
+
+            // Wait for the correct time to send the CAN frame, unless it is filtered or skipped
+            if (subscription.accept(currentFrame) && clock.await(frameOffsetMs))
+                sendCANData(currentFrame);
+            // System.out.println("Sent CAN frame at offset: " + frameOffsetMs + " ms");
+
+            // Update simulation time to match the sent frame time
+            simTimeMs = frameOffsetMs;
+        }
+
+        // Send any remaining GPS coordinates
+        while (nextGPS != null) {
+            // Wait for the correct time to send GPS data, unless it is filtered or skipped
+            if (subscription.accept(nextGPS) && clock.await(nextGPSTimeMs))
+                sendGPSData(nextGPS);
+
+            // Update simulation time
+            simTimeMs = nextGPSTimeMs;
+
+            // Get next GPS coordinate
+            nextGPS = gpsTrace.getNextCoordinate();
+            nextGPSTimeMs = (nextGPS != null) ? nextGPS.getTimeOffset() : Double.MAX_VALUE;
+        }
+        return simTimeMs;
+    }
+
+    /**
+     * Sends CAN frame data to the client
+     * 
+     * @param frame The CAN frame to send
+     */
+    private void sendCANData(CANFrame frame) throws IOException {
+        int key = frame.getChannel() << 16 | Integer.parseInt(frame.getId(), 16);
+        boolean priority = frame instanceof VehicleDynamicsFrame;
+        if (records != null) {
+            int size = BinaryProtocol.recordCount(frame) * BinaryProtocol.RECORD_SIZE;
+            if (records.capacity() < size)
+                records = ByteBuffer.allocate(size);
+            BinaryProtocol.putCAN(records, frame);
+            sendRecords(key, priority);
+            return;
+        }
+        // Send message to client
+        send(key, priority, CANTraceSimulation.formatCANMessage(frame));
+    }
+
+    /**
+     * Sends GPS coordinate data to the client
+     * 
+     * @param coordinate The GPS coordinate to send
+     */
+    private void sendGPSData(GPScoordinates coordinate) throws IOException {
+        if (records != null) {
+            BinaryProtocol.putGPS(records, coordinate);
+            sendRecords(SessionOutput.GPS_KEY, true);
+            return;
+        }
+        // Send message to client
+        send(SessionOutput.GPS_KEY, true, CANTraceSimulation.formatGPSMessage(coordinate));
+    }
+
+    private void send(int key, boolean priority, String line) throws IOException {
+        outbound.enqueue(key, priority, ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)), isPaced());
+        outbound.flush();
+    }
+
+    // simulation times a LOOP command replays between, the end is exclusive
+    private static final class LoopRange {
+        final double fromMs;
+        final double toMs;
+
+        LoopRange(double fromMs, double toMs) {
+            this.fromMs = fromMs;
+            this.toMs = toMs;
+        }
+
+        @Override
+        public String toString() {
+            return fromMs + " ms to " + (toMs == Double.POSITIVE_INFINITY ? "the end" : toMs + " ms");
+        }
+    }
+
+    // queues the records put into the buffer since the last message
+    private void sendRecords(int key, boolean priority) throws IOException {
+        outbound.enqueue(key, priority, records.flip(), isPaced());
+        outbound.flush();
+        records.clear();
+    }
+}
@@ -0,0 +1,311 @@
+package org.automotive;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded outbound buffer of one ReplaySession. The replay thread appends the
+ * encoded messages and run() writes them on a second virtual thread, so a
+ * client that reads slower than the replay doesn't block the replay.
+ *
+ * The conflation is the one of BroadcastServer: once more than
+ * HIGH_WATER_MARK bytes are queued, only the newest message per conflation
+ * key is kept aside and older ones are dropped. GPS and vehicle dynamics have
+ * priority: they are still queued in order while the buffer has room, and are
+ * queued first when it has drained below LOW_WATER_MARK. An unpaced replay
+ * has no time to keep up with, it waits for room instead and the client gets
+ * every message.
+ *
+ * The writer swaps the buffer the replay fills with the one it has written,
+ * so the lock is not held while the socket blocks, and everything queued
+ * since its last write goes out with one write.
+ */
+final class SessionOutput implements Runnable {
+    // bytes of each of the two buffers
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    // queued bytes above which the client is slow and its messages are conflated
+    static final int HIGH_WATER_MARK = 32 * 1024;
+
+    // queued bytes below which the conflated messages are queued again
+    static final int LOW_WATER_MARK = 8 * 1024;
+
+    // conflation key of GPS messages, CAN keys are not negative
+    static final int GPS_KEY = -1;
+
+    private final WritableByteChannel channel;
+
+    // sessions run on virtual threads, they must not pin their carrier on synchronized
+    private final ReentrantLock lock = new ReentrantLock();
+    // signalled by the replay when there is something to write
+    private final Condition queued = lock.newCondition();
+    // signalled by the writer after every write and when it ends
+    private final Condition written = lock.newCondition();
+
+    // filled by the replay, and being written by the writer
+    private ByteBuffer filling = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private ByteBuffer sending = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private int sendingBytes = 0;
+
+    // newest message per conflation key while the client is behind, in first-seen order
+    private final Map<Integer, byte[]> pendingPriority = new LinkedHashMap<>();
+    private final Map<Integer, byte[]> pendingOther = new LinkedHashMap<>();
+    // went above the high-water mark and has not caught up below the low-water mark since
+    private boolean slow = false;
+    private long slowPeriods = 0;
+    // messages replaced by a newer one of the same key
+    private long conflated = 0;
+
+    // no more messages follow, the end message is sent after the pending ones
+    private boolean finished = false;
+    private byte[] end;
+    // the session failed, nothing more is written
+    private boolean closed = false;
+    // the writer has ended, failure is set if the client could not be written
+    private boolean done = false;
+    private IOException failure;
+
+    SessionOutput(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Appends the message, waits for room if the buffer is full.
+     */
+    void write(ByteBuffer message) throws IOException {
+        lock.lock();
+        try {
+            awaitRoom(message.remaining());
+            filling.put(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the remaining bytes of the message, or keeps them as the newest
+     * message of the key if the client is behind. The writer sends them at
+     * the next flush().
+     *
+     * @param paced false for an unpaced replay, which waits for room instead
+     * @throws IOException if the client could not be written
+     */
+    void enqueue(int key, boolean priority, ByteBuffer message, boolean paced) throws IOException {
+        lock.lock();
+        try {
+            checkFailure();
+            int length = message.remaining();
+            if (!paced && !hasPending()) {
+                awaitRoom(length);
+                filling.put(message);
+                return;
+            }
+            boolean fits = filling.remaining() >= length;
+            if (priority ? fits && pendingPriority.isEmpty()
+                    : fits && !slow && queuedBytes() < HIGH_WATER_MARK) {
+                filling.put(message);
+                return;
+            }
+
+            if (!slow) {
+                slow = true;
+                slowPeriods++;
+            }
+            Map<Integer, byte[]> pending = priority ? pendingPriority : pendingOther;
+            byte[] older = pending.get(key);
+            if (older != null)
+                conflated++;
+            // the array of the older message is reused, it keeps its place in the order
+            byte[] bytes = older != null && older.length == length ? older : new byte[length];
+            message.get(bytes);
+            pending.put(key, bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // wakes up the writer if something is queued or conflated
+    void flush() {
+        boolean signalled = false;
+        lock.lock();
+        try {
+            if (filling.position() > 0 || hasPending()) {
+                queued.signal();
+                signalled = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // the replay spins for the last part of a wait, on few carrier threads
+        // the writer would not get to run before the replay is behind
+        if (signalled)
+            Thread.yield();
+    }
+
+    /**
+     * Sends the end message after everything that is queued or conflated and
+     * waits until the writer has written it.
+     *
+     * @throws IOException if the client could not be written
+     */
+    void finish(byte[] endMessage) throws IOException {
+        lock.lock();
+        try {
+            finished = true;
+            end = endMessage;
+            queued.signal();
+            while (!done) {
+                written.await();
+            }
+            if (failure != null)
+                throw new IOException(failure.getMessage(), failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while the session was written");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ends the writer without sending what is queued, for a session that failed
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queued.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the queued messages until finish() or close() is called, or the
+     * client can't be written.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    sending.clear();
+                    sendingBytes = 0;
+                    written.signalAll();
+                    while (true) {
+                        if (closed)
+                            break;
+                        if (queuedBytes() < LOW_WATER_MARK)
+                            drainPending();
+                        // caught up: messages are queued directly again
+                        if (slow && !hasPending() && queuedBytes() < LOW_WATER_MARK)
+                            slow = false;
+                        if (finished && end != null && !hasPending() && filling.remaining() >= end.length) {
+                            filling.put(end);
+                            end = null;
+                        }
+                        if (filling.position() > 0 || finished && end == null)
+                            break;
+                        queued.await();
+                    }
+                    if (filling.position() == 0 || closed)
+                        break;
+                    ByteBuffer full = filling;
+                    filling = sending;
+                    sending = full.flip();
+                    sendingBytes = sending.remaining();
+                } finally {
+                    lock.unlock();
+                }
+                while (sending.hasRemaining()) {
+                    channel.write(sending);
+                }
+            }
+            fail(null);
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("Writer of the session interrupted"));
+        }
+    }
+
+    // counts for the end report of the session, empty if the client was never behind
+    String report() {
+        lock.lock();
+        try {
+            if (slowPeriods == 0)
+                return "";
+            // conflated messages that were never sent
+            long dropped = pendingPriority.size() + pendingOther.size();
+            return "slow " + slowPeriods + " times, " + conflated + " messages replaced by newer ones, " + dropped
+                    + " dropped";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ends the writer, with the exception that ended it or null
+    private void fail(IOException e) {
+        lock.lock();
+        try {
+            failure = e;
+            done = true;
+            written.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // waits until the message fits, lock held
+    private void awaitRoom(int length) throws IOException {
+        try {
+            while (true) {
+                checkFailure();
+                if (filling.remaining() >= length)
+                    return;
+                queued.signal();
+                written.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while the session was written");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException(failure.getMessage(), failure);
+        if (done)
+            throw new IOException("Session output closed");
+    }
+
+    private int queuedBytes() {
+        return filling.position() + sendingBytes;
+    }
+
+    private boolean hasPending() {
+        return !pendingPriority.isEmpty() || !pendingOther.isEmpty();
+    }
+
+    // moves conflated messages into the buffer, priority messages first, as long as they fit; lock held
+    private void drainPending() {
+        drain(pendingPriority);
+        if (pendingPriority.isEmpty())
+            drain(pendingOther);
+    }
+
+    private void drain(Map<Integer, byte[]> pending) {
+        Iterator<byte[]> messages = pending.values().iterator();
+        while (messages.hasNext()) {
+            byte[] message = messages.next();
+            if (filling.remaining() < message.length)
+                break;
+            filling.put(message);
+            messages.remove();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.automotive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Publishes the replay to a SharedMemoryRing for receivers on the same machine
+ * as the simulator. Unlike the MulticastFeed there is no header per event, the
+ * receivers see the plain stream of records and END after the last event.
+ */
+final class SharedMemoryFeed extends TimelineFeed {
+    static final Path DEFAULT_PATH = defaultPath();
+
+    private static final byte[] END = new byte[BinaryProtocol.RECORD_SIZE];
+
+    static {
+        BinaryProtocol.putEnd(ByteBuffer.wrap(END));
+    }
+
+    private final Path file;
+    private SharedMemoryRing ring;
+
+    /**
+     * @param timeline events to publish
+     * @param file     ring file the receivers map
+     * @param clock    clock that paces the replays
+     */
+    SharedMemoryFeed(Timeline timeline, Path file, ReplayClock clock) {
+        super(timeline, clock);
+        this.file = file;
+    }
+
+    // /dev/shm keeps the ring in memory on Linux, elsewhere the page cache does
+    private static Path defaultPath() {
+        Path shm = Path.of("/dev/shm");
+        Path dir = Files.isDirectory(shm) ? shm : Path.of(System.getProperty("java.io.tmpdir"));
+        return dir.resolve("roadsense.ring");
+    }
+
+    /**
+     * Creates the ring file.
+     *
+     * @param capacity number of records the ring holds, a power of two
+     */
+    void open(int capacity) throws IOException {
+        ring = SharedMemoryRing.create(file, capacity);
+        // the feed thread is a daemon, it does not get to close()
+        file.toFile().deleteOnExit();
+        System.out.println("Publishing the replay to shared memory ring " + file + " ("
+                + capacity + " records)");
+    }
+
+    @Override
+    String name() {
+        return "Shared memory feed";
+    }
+
+    @Override
+    void publish(int sequence, ByteBuffer records) {
+        ring.publish(records);
+    }
+
+    @Override
+    void publishEnd(int sequence) {
+        ring.publish(ByteBuffer.wrap(END));
+    }
+
+    @Override
+    void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Error deleting shared memory ring: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.automotive;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Ring of BinaryProtocol records in a memory-mapped file, written by one
+ * simulator and read by any number of receivers on the same machine, each at
+ * its own pace and without a system call per record:
+ * <pre>
+ * header:  magic "RSRB" (4) | version (2) | record size (2) | capacity (4)
+ * offset 64:  published, long; number of records written so far
+ * offset 128: capacity slots of one record each
+ * </pre>
+ * Record n is written to slot n modulo capacity and published by storing
+ * n + 1 as the published count with release semantics. The writer never
+ * waits for the readers: a reader that falls more than capacity records
+ * behind has lost the records that were written over, it notices it from the
+ * published count and continues with the oldest record still in the ring.
+ * Since a slot can be written over while a reader copies it, the reader reads
+ * the published count again after the copy and only keeps the record if its
+ * slot was not handed to the writer in the meantime.
+ */
+final class SharedMemoryRing {
+    static final int MAGIC = 0x52535242; // "RSRB"
+    static final int VERSION = 1;
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    // field offsets in the file, the published count has a cache line of its own
+    private static final int VERSION_OFFSET = 4;
+    private static final int RECORD_SIZE_OFFSET = 6;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int PUBLISHED = 64;
+    private static final int SLOTS = 128;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    // written records, only used by the writer
+    private long written;
+
+    private SharedMemoryRing(MappedByteBuffer buffer, int capacity) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Creates the ring file, an existing file is replaced.
+     *
+     * @param capacity number of records, a power of two
+     */
+    static SharedMemoryRing create(Path file, int capacity) throws IOException {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        // readers that still map the old file are not confused by the new one
+        Files.deleteIfExists(file);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    SLOTS + (long) capacity * BinaryProtocol.RECORD_SIZE);
+        }
+        buffer.putShort(VERSION_OFFSET, (short) VERSION);
+        buffer.putShort(RECORD_SIZE_OFFSET, (short) BinaryProtocol.RECORD_SIZE);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        // readers check the magic last, it is only there once the ring is ready
+        LONG.setRelease(buffer, PUBLISHED, 0L);
+        buffer.putInt(0, MAGIC);
+        return new SharedMemoryRing(buffer, capacity);
+    }
+
+    /**
+     * Maps the ring file a simulator created.
+     *
+     * @throws IOException if the file is not a ring of this version
+     */
+    static SharedMemoryRing open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < SLOTS)
+                throw new IOException("Not a shared memory ring: " + file);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC)
+                throw new IOException("Not a shared memory ring: " + file);
+            int version = buffer.getShort(VERSION_OFFSET);
+            int recordSize = buffer.getShort(RECORD_SIZE_OFFSET);
+            if (version != VERSION || recordSize != BinaryProtocol.RECORD_SIZE)
+                throw new IOException("Unsupported shared memory ring version " + version);
+            int capacity = buffer.getInt(CAPACITY_OFFSET);
+            if (capacity <= 0 || Integer.bitCount(capacity) != 1
+                    || channel.size() < SLOTS + (long) capacity * BinaryProtocol.RECORD_SIZE)
+                throw new IOException("Corrupt shared memory ring: " + file);
+            return new SharedMemoryRing(buffer, capacity);
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    // number of records written so far
+    long published() {
+        return (long) LONG.getAcquire(buffer, PUBLISHED);
+    }
+
+    /**
+     * Writes the records from the position to the limit of the buffer and
+     * publishes each one as soon as it is written. Only one thread may write.
+     */
+    void publish(ByteBuffer records) {
+        while (records.remaining() >= BinaryProtocol.RECORD_SIZE) {
+            // the new record must not be seen before the count that hands its slot over
+            VarHandle.storeStoreFence();
+            buffer.put(slot(written), records, records.position(), BinaryProtocol.RECORD_SIZE);
+            records.position(records.position() + BinaryProtocol.RECORD_SIZE);
+            written++;
+            LONG.setRelease(buffer, PUBLISHED, written);
+        }
+    }
+
+    private int slot(long sequence) {
+        return SLOTS + (int) (sequence & mask) * BinaryProtocol.RECORD_SIZE;
+    }
+
+    /**
+     * Reader that starts with the next record written.
+     */
+    Reader reader() {
+        return new Reader(published());
+    }
+
+    /**
+     * Position of one receiver in the ring. Not thread-safe, every reading
+     * thread needs its own.
+     */
+    final class Reader {
+        private long next;
+        private long lost = 0;
+
+        private Reader(long next) {
+            this.next = next;
+        }
+
+        /**
+         * Copies the next record to the position of the buffer and advances
+         * the position.
+         *
+         * @return false if no new record has been published yet
+         */
+        boolean poll(ByteBuffer into) {
+            while (true) {
+                long published = published();
+                if (next >= published)
+                    return false;
+                if (published - next >= capacity)
+                    skipTo(published - capacity + 1);
+
+                into.put(into.position(), buffer, slot(next), BinaryProtocol.RECORD_SIZE);
+                // the copy must be done before the count is checked again
+                VarHandle.loadLoadFence();
+                if (published() - next < capacity) {
+                    into.position(into.position() + BinaryProtocol.RECORD_SIZE);
+                    next++;
+                    return true;
+                }
+                // written over while it was copied, the record is lost as well
+            }
+        }
+
+        private void skipTo(long sequence) {
+            lost += sequence - next;
+            next = sequence;
+        }
+
+        // records written over before this reader got to them
+        long lost() {
+            return lost;
+        }
+    }
+}
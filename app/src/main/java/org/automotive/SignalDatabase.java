@@ -0,0 +1,231 @@
+package org.automotive;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Signal definitions loaded from a "CAN Frames Info" file, e.g.
+ * <pre>
+ * 0018; By7Bi5-By6Bi0; 14 bit; Steering wheel angle;  -2048 - +2047°;  0 - 8190; 0.5 ° (+ means clockwise)
+ * </pre>
+ * Each line is compiled into a {@link Signal} with a precomputed shift, mask,
+ * scale and offset. The signals of one frame id are combined into a
+ * {@link FrameDecoder} that is stored in an array indexed by the id, so a
+ * decoder is found with a single array access.
+ *
+ * The 8 data bytes of a message are handled as one big-endian long: the first
+ * byte of the trace line (Byte 7 in the definition file) is the top byte.
+ * Bit n of byte m is then bit {@code m * 8 + n} of the long.
+ */
+final class SignalDatabase {
+    // one decoder slot for every 4 digit hex id of the trace format
+    static final int ID_COUNT = 0x10000;
+
+    // definition file shipped with the application
+    private static final String DEFAULT_RESOURCE = "/CAN Frames Info.txt";
+
+    // signed decimal number inside a definition field
+    private static final Pattern NUMBER = Pattern.compile("[-+]?\\d+(\\.\\d+)?");
+
+    private static SignalDatabase defaultDatabase;
+
+    private final FrameDecoder[] decoders = new FrameDecoder[ID_COUNT];
+    private final List<Signal> signals;
+
+    private SignalDatabase(List<Signal> signals) {
+        this.signals = Collections.unmodifiableList(signals);
+
+        // group the signals by frame id, keeping the order of the file
+        Map<Integer, List<Signal>> byId = new LinkedHashMap<>();
+        for (Signal signal : signals) {
+            byId.computeIfAbsent(signal.id, id -> new ArrayList<>()).add(signal);
+        }
+        for (Map.Entry<Integer, List<Signal>> entry : byId.entrySet()) {
+            decoders[entry.getKey()] = compile(entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the database built from the definition file on the classpath.
+     */
+    static synchronized SignalDatabase getDefault() {
+        if (defaultDatabase == null) {
+            InputStream in = SignalDatabase.class.getResourceAsStream(DEFAULT_RESOURCE);
+            if (in == null)
+                throw new IllegalStateException("Signal definition resource not found: " + DEFAULT_RESOURCE);
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                defaultDatabase = load(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return defaultDatabase;
+    }
+
+    // loads a definition file
+    static SignalDatabase load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * Reads the definitions. Lines that don't start with a hex frame id (the
+     * column description, empty lines) are skipped.
+     */
+    static SignalDatabase load(Reader reader) throws IOException {
+        List<Signal> signals = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            String[] fields = line.split(";");
+            if (fields.length < 7 || !fields[0].trim().matches("[0-9A-Fa-f]{1,4}"))
+                continue;
+            try {
+                signals.add(parseSignal(fields));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid signal definition in line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return new SignalDatabase(signals);
+    }
+
+    // decoder for the frame id, or null if the id has no signals
+    FrameDecoder decoderFor(int id) {
+        return decoders[id];
+    }
+
+    List<Signal> getSignals() {
+        return signals;
+    }
+
+    // fields: id; location; size; description; value range; raw range; step size
+    private static Signal parseSignal(String[] fields) {
+        String idText = fields[0].trim();
+        int id = Integer.parseInt(idText, 16);
+
+        // "By7Bi5-By6Bi0" -> highest bit 61, lowest bit 48
+        String[] location = fields[1].trim().split("-");
+        if (location.length != 2)
+            throw new IllegalArgumentException("bad data field location " + fields[1].trim());
+        int highBit = bitPosition(location[0]);
+        int lowBit = bitPosition(location[1]);
+
+        int size = (int) firstNumber(fields[2]);
+        if (size != highBit - lowBit + 1)
+            throw new IllegalArgumentException("size " + size + " does not match location " + fields[1].trim());
+
+        String description = fields[3].trim();
+        double offset = firstNumber(fields[4]);
+        double scale = firstNumber(fields[6]);
+
+        return new Signal(id, idText, description, lowBit, size, scale, offset);
+    }
+
+    // "By6Bi0" -> 48
+    private static int bitPosition(String text) {
+        String value = text.trim();
+        if (!value.matches("By[0-7]Bi[0-7]"))
+            throw new IllegalArgumentException("bad bit position " + value);
+        return (value.charAt(2) - '0') * 8 + (value.charAt(5) - '0');
+    }
+
+    // first signed decimal number in the text, e.g. "-327.68" in "-327.68 - +327.66 °/s"
+    private static double firstNumber(String text) {
+        Matcher matcher = NUMBER.matcher(text);
+        if (!matcher.find())
+            throw new IllegalArgumentException("no number in " + text.trim());
+        return Double.parseDouble(matcher.group());
+    }
+
+    /**
+     * Builds the decoder for the signals of one frame id. Ids with a steering
+     * angle, a speed or a yaw rate signal produce the existing frame types,
+     * any other id produces a generic SignalFrame with all its signals.
+     */
+    private static FrameDecoder compile(List<Signal> frameSignals) {
+        String id = frameSignals.get(0).idText;
+        Signal yawRate = find(frameSignals, "yaw rate");
+        Signal steering = find(frameSignals, "steering wheel angle");
+        Signal speed = find(frameSignals, "speed");
+
+        if (yawRate != null) {
+            Signal lat = find(frameSignals, "lateral acceleration");
+            Signal lon = find(frameSignals, "longitudinal acceleration");
+            return (timestamp, data) -> new VehicleDynamicsFrame(id, timestamp,
+                    lat != null ? lat.decode(data) : 0.0,
+                    lon != null ? lon.decode(data) : 0.0,
+                    yawRate.decode(data));
+        }
+        if (steering != null) {
+            return (timestamp, data) -> new SteeringWheelAngleFrame(id, timestamp, steering.decode(data));
+        }
+        if (speed != null) {
+            return (timestamp, data) -> new VehicleSpeedFrame(id, timestamp, speed.decode(data));
+        }
+
+        Signal[] all = frameSignals.toArray(new Signal[0]);
+        return (timestamp, data) -> {
+            double[] values = new double[all.length];
+            for (int i = 0; i < all.length; i++) {
+                values[i] = all[i].decode(data);
+            }
+            return new SignalFrame(id, timestamp, all, values);
+        };
+    }
+
+    private static Signal find(List<Signal> frameSignals, String keyword) {
+        for (Signal signal : frameSignals) {
+            if (signal.description.toLowerCase(Locale.ROOT).contains(keyword))
+                return signal;
+        }
+        return null;
+    }
+
+    /**
+     * Turns the 8 data bytes of one frame id into a frame.
+     */
+    interface FrameDecoder {
+        CANFrame decode(double timestamp, long data);
+    }
+
+    /**
+     * One signal of a frame: {@code ((data >>> shift) & mask) * scale + offset}.
+     */
+    static final class Signal {
+        final int id;
+        final String idText;
+        final String description;
+        final int shift;
+        final long mask;
+        final double scale;
+        final double offset;
+
+        Signal(int id, String idText, String description, int shift, int size, double scale, double offset) {
+            this.id = id;
+            this.idText = idText;
+            this.description = description;
+            this.shift = shift;
+            this.mask = size == 64 ? -1L : (1L << size) - 1;
+            this.scale = scale;
+            this.offset = offset;
+        }
+
+        double decode(long data) {
+            long raw = (data >>> shift) & mask;
+            // adding the negative offset gives the same double as subtracting it
+            return offset == 0 ? raw * scale : raw * scale + offset;
+        }
+
+        String getDescription() {
+            return description;
+        }
+    }
+}
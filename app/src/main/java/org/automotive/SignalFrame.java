@@ -0,0 +1,42 @@
+package org.automotive;
+
+// frame for ids from the signal database that have no dedicated frame class
+class SignalFrame extends CANFrame {
+    // definitions of the decoded signals, shared by all frames of the id
+    private final SignalDatabase.Signal[] signals;
+
+    // decoded values, same order as the signals
+    private final double[] values;
+
+    // constructor to set id, timestamp and the decoded signal values
+    public SignalFrame(String id, double timestamp, SignalDatabase.Signal[] signals, double[] values) {
+        super(id, timestamp);
+        this.signals = signals;
+        this.values = values;
+    }
+
+    // number of signals in the frame
+    public int getSignalCount() {
+        return values.length;
+    }
+
+    // description of the signal at the index, e.g. "Displayed vehicle speed"
+    public String getSignalName(int index) {
+        return signals[index].getDescription();
+    }
+
+    // decoded value of the signal at the index
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    // method to return the frame details as a string
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("SignalFrame [ID=" + id + ", Time=" + timestamp);
+        for (int i = 0; i < values.length; i++) {
+            text.append(", ").append(getSignalName(i)).append('=').append(values[i]);
+        }
+        return text.append(']').toString();
+    }
+}
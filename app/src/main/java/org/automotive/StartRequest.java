@@ -0,0 +1,132 @@
+package org.automotive;
+
+/**
+ * Options a client sends with the START handshake, e.g.
+ * {@code START from=60000 proto=binary speed=10 subscribe=SPEED,GPS}. A plain
+ * {@code START} replays the whole drive in real time with the text protocol
+ * and every message of the drive the simulator was started with;
+ * {@code START <driveId> ...} replays a drive of its DriveCatalog. With {@code compress=deflate} the simulator deflates
+ * the stream and flushes it every {@code flush=<ms>} milliseconds.
+ * Options are {@code key=value} pairs separated by spaces; unknown keys are
+ * ignored so newer clients can still talk to older simulators.
+ */
+class StartRequest {
+    // drive of the catalog to replay, null for the simulator's own drive
+    private String driveId;
+
+    // simulation time in milliseconds where the replay starts
+    private double fromMs = 0.0;
+
+    // records of BinaryProtocol instead of text lines
+    private boolean binary = false;
+
+    // speed factor of the replay, ReplayClock.UNPACED for as fast as possible
+    private double speed = 1.0;
+
+    // messages the client wants and their maximum rates
+    private Subscription subscription = Subscription.everything();
+
+    // stream deflated by a DeflatingChannel
+    private boolean deflate = false;
+
+    // interval of the sync flushes of a deflated stream in milliseconds
+    private long flushMs = DeflatingChannel.DEFAULT_FLUSH_MS;
+
+    /**
+     * Parses the handshake line.
+     *
+     * @return the request, or null if the line is not a START command
+     * @throws IllegalArgumentException if an option has an invalid value
+     */
+    static StartRequest parse(String line) {
+        if (line == null)
+            return null;
+        String[] tokens = line.trim().split("\\s+");
+        if (!tokens[0].equals("START"))
+            return null;
+
+        StartRequest request = new StartRequest();
+        for (int i = 1; i < tokens.length; i++) {
+            int eq = tokens[i].indexOf('=');
+            if (eq < 0) {
+                // the drive id comes right after START
+                if (i == 1)
+                    request.setDriveId(tokens[i]);
+                continue;
+            }
+            String key = tokens[i].substring(0, eq);
+            String value = tokens[i].substring(eq + 1);
+            request.setOption(key, value);
+        }
+        return request;
+    }
+
+    private void setDriveId(String id) {
+        if (!DriveCatalog.isDriveId(id))
+            throw new IllegalArgumentException("Invalid drive id: " + id);
+        driveId = id;
+    }
+
+    private void setOption(String key, String value) {
+        try {
+            switch (key) {
+                case "from":
+                    fromMs = Double.parseDouble(value);
+                    if (fromMs < 0)
+                        throw new IllegalArgumentException("from must not be negative: " + value);
+                    break;
+                case "proto":
+                    // protocols this simulator doesn't know fall back to text
+                    binary = value.equals("binary");
+                    break;
+                case "speed":
+                    speed = ReplayClock.parseSpeed(value);
+                    break;
+                case "subscribe":
+                    subscription = Subscription.parse(value);
+                    break;
+                case "compress":
+                    // compressions this simulator doesn't know fall back to none
+                    deflate = value.equals("deflate");
+                    break;
+                case "flush":
+                    flushMs = Long.parseLong(value);
+                    if (flushMs <= 0)
+                        throw new IllegalArgumentException("flush must be positive: " + value);
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    public String getDriveId() {
+        return driveId;
+    }
+
+    public double getFromMs() {
+        return fromMs;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public Subscription getSubscription() {
+        return subscription;
+    }
+
+    public boolean isDeflate() {
+        return deflate;
+    }
+
+    public long getFlushMs() {
+        return flushMs;
+    }
+}
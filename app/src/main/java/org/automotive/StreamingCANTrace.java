@@ -0,0 +1,284 @@
+package org.automotive;
+
+import java.io.*;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * CAN trace that parses the trace file (PCAN, candump or BLF) lazily while it
+ * is being read. The frames are replayed in file order.
+ * A background thread decodes the file into a bounded read-ahead queue, so the
+ * first frames are available right away and memory use does not depend on the
+ * length of the trace. Resetting restarts the reader from the beginning of the
+ * file.
+ */
+class StreamingCANTrace extends CANTrace {
+    // default number of decoded frames the reader may run ahead
+    static final int DEFAULT_READ_AHEAD = 4096;
+
+    // marks the end of the file in the queue
+    private static final CANFrame END_OF_TRACE = new CANFrame("", Double.MAX_VALUE) {
+        @Override
+        public String toString() {
+            return "END_OF_TRACE";
+        }
+    };
+
+    private final String filePath;
+    private final int readAhead;
+
+    private BlockingQueue<CANFrame> queue;
+    private Thread readerThread;
+    // error that ended the reader early, reported when the end of the trace is reached
+    private volatile Exception readError;
+    private boolean finished = false;
+
+    // frame taken from the queue by seek that getNextMessage returns first
+    private CANFrame pending;
+
+    // number of frames in the file, -1 until size() has counted them
+    private int frameCount = -1;
+
+    public StreamingCANTrace(String filePath) {
+        this(filePath, DEFAULT_READ_AHEAD);
+    }
+
+    public StreamingCANTrace(String filePath, int readAhead) {
+        this.filePath = filePath;
+        this.readAhead = readAhead;
+    }
+
+    // streamed traces are read from the file only
+    @Override
+    public void addFrame(CANFrame frame) {
+        throw new UnsupportedOperationException("Frames of a streaming trace come from " + filePath);
+    }
+
+    @Override
+    public void addFrames(List<CANFrame> newFrames) {
+        throw new UnsupportedOperationException("Frames of a streaming trace come from " + filePath);
+    }
+
+    /**
+     * Counts the frames by parsing the whole file once, later calls return the
+     * count. Check isSized() to avoid that on the replay path.
+     *
+     * @throws UncheckedIOException if the file can't be read
+     */
+    @Override
+    public synchronized int size() {
+        if (frameCount < 0) {
+            int[] count = { 0 };
+            try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+                read(channel, frame -> count[0]++);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            frameCount = count[0];
+        }
+        return frameCount;
+    }
+
+    // the number of frames is not known without reading the whole file
+    @Override
+    public boolean isSized() {
+        return false;
+    }
+
+    // method to print all frames, reads the file once without the read-ahead queue
+    @Override
+    public void printTrace() {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            read(channel, System.out::println);
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+        }
+    }
+
+    // method to get the next frame, blocks until the reader has decoded it
+    @Override
+    public synchronized CANFrame getNextMessage() {
+        if (finished)
+            return null;
+        if (readerThread == null)
+            startReader();
+
+        try {
+            CANFrame frame = pending != null ? pending : queue.take();
+            pending = null;
+            if (frame == END_OF_TRACE) {
+                finished = true;
+                if (readError != null) {
+                    System.out.println("Error reading CAN trace " + filePath + ": " + readError);
+                }
+                return null;
+            }
+            return frame;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // method to start again from the beginning of the file
+    @Override
+    public synchronized void resetNextMessage() {
+        restart();
+        System.out.println("Reset next message index.");
+    }
+
+    // stops the reader, the next read starts again at the beginning of the file
+    @Override
+    public synchronized void close() {
+        restart();
+    }
+
+    private void restart() {
+        stopReader();
+        finished = false;
+        pending = null;
+    }
+
+    /**
+     * Skips to the first frame at or after the time. A streamed trace has no
+     * index, so this restarts the reader and drops the frames before it.
+     */
+    @Override
+    public synchronized void seek(double timestampMs) {
+        restart();
+        startReader();
+        try {
+            while (true) {
+                CANFrame frame = queue.take();
+                if (frame == END_OF_TRACE || frame.getTimestamp() >= timestampMs) {
+                    // returned by the next getNextMessage call
+                    pending = frame;
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counts the frames before the first frame at or after the time. A
+     * streamed trace has no index, so this parses the file up to that frame.
+     *
+     * @throws UncheckedIOException if the file can't be read
+     */
+    @Override
+    public int indexOf(double timestampMs) {
+        int[] count = { 0 };
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            read(channel, frame -> {
+                if (frame.getTimestamp() >= timestampMs)
+                    throw new ReaderStoppedException();
+                count[0]++;
+            });
+        } catch (ReaderStoppedException e) {
+            // found the frame
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count[0];
+    }
+
+    // a view of a streamed trace reads the file with its own reader
+    @Override
+    public CANTrace view() {
+        return new StreamingCANTrace(filePath, readAhead);
+    }
+
+    /**
+     * Reads the file once and collects the frames in [startMs, endMs).
+     *
+     * @throws UncheckedIOException if the file can't be read
+     */
+    @Override
+    public List<CANFrame> range(double startMs, double endMs) {
+        List<CANFrame> result = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            read(channel, frame -> {
+                if (frame.getTimestamp() >= startMs && frame.getTimestamp() < endMs) {
+                    result.add(frame);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Starts the background thread that fills the read-ahead queue. Each reader
+     * gets its own queue so a stopped reader can never put stale frames into
+     * the queue of the next one.
+     */
+    private void startReader() {
+        BlockingQueue<CANFrame> readerQueue = new ArrayBlockingQueue<>(readAhead);
+        queue = readerQueue;
+        readError = null;
+
+        readerThread = new Thread(() -> {
+            try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+                read(channel, frame -> {
+                    try {
+                        readerQueue.put(frame);
+                    } catch (InterruptedException e) {
+                        throw new ReaderStoppedException();
+                    }
+                });
+            } catch (ReaderStoppedException | ClosedByInterruptException | InterruptedIOException e) {
+                // reader was stopped by a reset
+                return;
+            } catch (IOException | RuntimeException e) {
+                // the trace ends here, getNextMessage must not wait for frames that never come
+                readError = e;
+            }
+
+            try {
+                readerQueue.put(END_OF_TRACE);
+            } catch (InterruptedException e) {
+                // reader was stopped, nobody waits for the end marker
+            }
+        }, "can-trace-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    // reads the frames of the file in file order, BLF logs with a BLFReader and text logs with parser()
+    private void read(FileChannel channel, Consumer<CANFrame> sink) throws IOException {
+        if (BLFReader.isBLFFile(filePath)) {
+            new BLFReader().read(channel, sink);
+        } else {
+            parser().parse(channel, sink);
+        }
+    }
+
+    // parser for the format of a text log, one per reader thread
+    ByteLineParser parser() throws IOException {
+        return ByteLineParser.forFile(filePath);
+    }
+
+    private void stopReader() {
+        if (readerThread != null) {
+            readerThread.interrupt();
+            readerThread = null;
+            queue = null;
+        }
+    }
+
+    // thrown inside the parser callback to stop parsing early, e.g. when the reader is interrupted
+    private static class ReaderStoppedException extends RuntimeException {
+        ReaderStoppedException() {
+            super(null, null, false, false);
+        }
+    }
+}
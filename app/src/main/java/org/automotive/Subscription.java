@@ -0,0 +1,152 @@
+package org.automotive;
+
+import java.util.*;
+
+/**
+ * Messages a client wants to receive, from the {@code subscribe} option of
+ * the START line, e.g.
+ * <pre>
+ * START subscribe=SPEED,GPS,STEERING@20,0B41@5
+ * </pre>
+ * An entry is a message type (STEERING, SPEED, DYNAMICS, SIGNALS, GPS) or a
+ * 4 digit hex CAN id, optionally followed by {@code @<Hz>}, the highest rate
+ * at which the client wants it. An id entry wins over the type of its frame.
+ * Faster messages are decimated in simulation time: a message is only sent
+ * if at least 1/rate seconds of simulation time have passed since the last
+ * one sent for the same entry, so the result does not depend on the replay
+ * speed.
+ *
+ * A subscription keeps the time of the last message sent per entry, so every
+ * replay needs its own instance.
+ */
+class Subscription {
+    private static final Map<String, Class<? extends CANFrame>> TYPES = Map.of(
+            "STEERING", SteeringWheelAngleFrame.class,
+            "SPEED", VehicleSpeedFrame.class,
+            "DYNAMICS", VehicleDynamicsFrame.class,
+            "SIGNALS", SignalFrame.class);
+
+    // rounding error allowed between timestamps, 0.4 + 50.0 may become 50.399999
+    private static final double TIME_TOLERANCE_MS = 1e-6;
+
+    // null for a subscription to everything
+    private final Map<String, Entry> byId;
+    private final Map<Class<? extends CANFrame>, Entry> byType;
+    private final Entry gps;
+
+    private Subscription(Map<String, Entry> byId, Map<Class<? extends CANFrame>, Entry> byType, Entry gps) {
+        this.byId = byId;
+        this.byType = byType;
+        this.gps = gps;
+    }
+
+    // subscription to every message at full rate
+    static Subscription everything() {
+        return new Subscription(null, null, null);
+    }
+
+    /**
+     * Parses the value of the subscribe option.
+     *
+     * @throws IllegalArgumentException if an entry is not a known type or id, or has an invalid rate
+     */
+    static Subscription parse(String value) {
+        Map<String, Entry> byId = new HashMap<>();
+        Map<Class<? extends CANFrame>, Entry> byType = new HashMap<>();
+        Entry gps = null;
+        for (String item : value.split(",")) {
+            if (item.isEmpty())
+                continue;
+            int at = item.indexOf('@');
+            String name = (at < 0 ? item : item.substring(0, at)).toUpperCase(Locale.ROOT);
+            Entry entry = new Entry(at < 0 ? 0.0 : parseRate(item.substring(at + 1)));
+
+            if (name.equals("GPS")) {
+                gps = entry;
+            } else if (TYPES.containsKey(name)) {
+                byType.put(TYPES.get(name), entry);
+            } else if (name.length() == 4 && name.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+                byId.put(name, entry);
+            } else {
+                throw new IllegalArgumentException("Unknown subscription: " + item);
+            }
+        }
+        return new Subscription(byId, byType, gps);
+    }
+
+    // minimum time between two messages in ms for the rate in Hz, e.g. "20" or "20Hz"
+    private static double parseRate(String rate) {
+        String number = rate.toUpperCase(Locale.ROOT).endsWith("HZ") ? rate.substring(0, rate.length() - 2) : rate;
+        try {
+            double hz = Double.parseDouble(number);
+            if (hz > 0)
+                return 1000.0 / hz;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid rate: " + rate);
+    }
+
+    boolean isEverything() {
+        return byId == null;
+    }
+
+    /**
+     * Checks if the frame is subscribed and due at its rate; a frame that is
+     * accepted counts as sent.
+     */
+    boolean accept(CANFrame frame) {
+        return accept(frame.getId(), frame.getClass(), frame.getTimestamp());
+    }
+
+    // same for a frame given by its id, class and timestamp
+    boolean accept(String id, Class<? extends CANFrame> type, double timestampMs) {
+        if (byId == null)
+            return true;
+        Entry entry = byId.get(id);
+        if (entry == null)
+            entry = byType.get(type);
+        return entry != null && entry.accept(timestampMs);
+    }
+
+    boolean accept(GPScoordinates coordinate) {
+        return acceptGPS(coordinate.getTimeOffset());
+    }
+
+    boolean acceptGPS(double timestampMs) {
+        if (byId == null)
+            return true;
+        return gps != null && gps.accept(timestampMs);
+    }
+
+    // forgets the last sent times, e.g. when the replay starts again or jumps
+    void reset() {
+        if (byId == null)
+            return;
+        byId.values().forEach(Entry::reset);
+        byType.values().forEach(Entry::reset);
+        if (gps != null)
+            gps.reset();
+    }
+
+    private static final class Entry {
+        final double minIntervalMs;
+        double lastSentMs = Double.NEGATIVE_INFINITY;
+
+        Entry(double minIntervalMs) {
+            this.minIntervalMs = minIntervalMs;
+        }
+
+        boolean accept(double timestampMs) {
+            // a message older than the last one sent (replay jumped back) starts again
+            if (timestampMs - lastSentMs < minIntervalMs - TIME_TOLERANCE_MS && timestampMs >= lastSentMs)
+                return false;
+            lastSentMs = timestampMs;
+            return true;
+        }
+
+        void reset() {
+            lastSentMs = Double.NEGATIVE_INFINITY;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.automotive;
+
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Sparse time index over a time-ordered sequence, e.g. the frames of a trace.
+ * It keeps the timestamp of every {@code stride}-th element. A lookup first
+ * does a binary search over these keys and then a binary search inside one
+ * block, so it reads only O(log n) timestamps and the index itself needs just
+ * n / stride doubles.
+ */
+final class TimeIndex {
+    // elements between two keys, same as the stride stored in snapshots
+    static final int DEFAULT_STRIDE = TraceSnapshot.INDEX_STRIDE;
+
+    private final int size;
+    private final int stride;
+    private final double[] keys;
+    private final IntToDoubleFunction timeAt;
+
+    private TimeIndex(int size, int stride, double[] keys, IntToDoubleFunction timeAt) {
+        this.size = size;
+        this.stride = stride;
+        this.keys = keys;
+        this.timeAt = timeAt;
+    }
+
+    /**
+     * Builds the index and checks that the timestamps never decrease.
+     *
+     * @param size   number of elements
+     * @param timeAt timestamp of the element at an index
+     * @throws IllegalStateException if the sequence is not time-ordered
+     */
+    static TimeIndex build(int size, IntToDoubleFunction timeAt) {
+        double[] keys = new double[(size + DEFAULT_STRIDE - 1) / DEFAULT_STRIDE];
+        double previous = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            double time = timeAt.applyAsDouble(i);
+            if (time < previous)
+                throw new IllegalStateException("Trace is not time-ordered at index " + i);
+            if (i % DEFAULT_STRIDE == 0)
+                keys[i / DEFAULT_STRIDE] = time;
+            previous = time;
+        }
+        return new TimeIndex(size, DEFAULT_STRIDE, keys, timeAt);
+    }
+
+    /**
+     * Creates the index from keys that were built before, e.g. read from a
+     * snapshot. The caller guarantees that the sequence is time-ordered.
+     *
+     * @return the index, or null if the keys don't fit the size
+     */
+    static TimeIndex fromKeys(int size, double[] keys, IntToDoubleFunction timeAt) {
+        if (keys.length != (size + DEFAULT_STRIDE - 1) / DEFAULT_STRIDE)
+            return null;
+        return new TimeIndex(size, DEFAULT_STRIDE, keys, timeAt);
+    }
+
+    /**
+     * Returns the index of the first element with a timestamp of at least
+     * timestampMs, or size() if there is none.
+     */
+    int lowerBound(double timestampMs) {
+        // last block whose first key is below the timestamp
+        int low = 0;
+        int high = keys.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < timestampMs) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (block < 0)
+            return 0;
+
+        // first element of the block range that is not below the timestamp
+        low = block * stride + 1;
+        high = Math.min(size, (block + 1) * stride);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timeAt.applyAsDouble(middle) < timestampMs) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int stride() {
+        return stride;
+    }
+}
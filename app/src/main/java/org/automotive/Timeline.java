@@ -0,0 +1,251 @@
+package org.automotive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The CAN trace and the GPS trace merged once into a single time-ordered
+ * list of events, every event already encoded for both protocols. The
+ * encoded messages are written back to back into a temporary file per
+ * protocol, which is memory-mapped, so they live in the page cache instead of
+ * the heap. A replay sends the bytes of a range of events as they are, it
+ * does not format or allocate anything per event, however many clients are
+ * connected.
+ *
+ * Besides the offsets of the encoded messages, every event keeps its time,
+ * frame type and id (with its channel) in primitive columns, which is all a
+ * Subscription needs to filter it and a SessionOutput to conflate it. A GPS coordinate comes before a CAN frame with the same time,
+ * as in the replay of the traces.
+ */
+final class Timeline {
+    // type of GPS events, CAN events store the index of their frame class
+    private static final byte GPS = -1;
+
+    // size of the buffer the encoded messages are written through
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final int size;
+    private final double[] times;
+    private final byte[] types;
+    private final char[] idIndexes;
+    private final List<Class<? extends CANFrame>> frameClasses;
+    private final List<String> ids;
+    private final TimeIndex timeIndex;
+
+    private final Encoding text;
+    private final Encoding binary;
+
+    private Timeline(int size, double[] times, byte[] types, char[] idIndexes,
+            List<Class<? extends CANFrame>> frameClasses, List<String> ids, Encoding text, Encoding binary) {
+        this.size = size;
+        this.times = times;
+        this.types = types;
+        this.idIndexes = idIndexes;
+        this.frameClasses = frameClasses;
+        this.ids = ids;
+        this.text = text;
+        this.binary = binary;
+        this.timeIndex = TimeIndex.build(size, i -> times[i]);
+    }
+
+    /**
+     * Merges and encodes the traces, reading them through views so their own
+     * positions are not moved.
+     *
+     * @throws IOException           if the temporary files can't be written
+     * @throws IllegalStateException if the traces are not time-ordered or an
+     *                               encoding exceeds 2 GB
+     */
+    static Timeline build(CANTrace canTrace, GPSTrace gpsTrace) throws IOException {
+        int capacity = canTrace.size() + gpsTrace.size();
+        double[] times = new double[capacity];
+        byte[] types = new byte[capacity];
+        char[] idIndexes = new char[capacity];
+        List<Class<? extends CANFrame>> frameClasses = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        Map<String, Integer> idIndex = new HashMap<>();
+
+        Encoder text = new Encoder("text", capacity);
+        Encoder binary = new Encoder("binary", capacity);
+        try {
+            CANTrace frames = canTrace.view();
+            GPSTrace coordinates = gpsTrace.view();
+            CANFrame frame = frames.getNextMessage();
+            GPScoordinates coordinate = coordinates.getNextCoordinate();
+            int size = 0;
+            while (frame != null || coordinate != null) {
+                if (size == capacity)
+                    throw new IllegalStateException("The traces have more events than their size");
+                if (coordinate != null && (frame == null || coordinate.getTimeOffset() <= frame.getTimestamp())) {
+                    times[size] = coordinate.getTimeOffset();
+                    types[size] = GPS;
+                    text.add(CANTraceSimulation.formatGPSMessage(coordinate));
+                    binary.add(BinaryProtocol.encode(coordinate));
+                    coordinate = coordinates.getNextCoordinate();
+                } else {
+                    times[size] = frame.getTimestamp();
+                    int type = frameClasses.indexOf(frame.getClass());
+                    if (type < 0) {
+                        type = frameClasses.size();
+                        frameClasses.add(frame.getClass());
+                    }
+                    types[size] = (byte) type;
+                    // the same id on another channel gets its own index, a session conflates them apart
+                    String key = frame.getChannel() + ":" + frame.getId();
+                    Integer index = idIndex.get(key);
+                    if (index == null) {
+                        index = ids.size();
+                        ids.add(frame.getId());
+                        idIndex.put(key, index);
+                    }
+                    idIndexes[size] = (char) (int) index;
+                    text.add(CANTraceSimulation.formatCANMessage(frame));
+                    binary.add(BinaryProtocol.encode(frame));
+                    frame = frames.getNextMessage();
+                }
+                size++;
+            }
+            return new Timeline(size, times, types, idIndexes, frameClasses, ids, text.finish(), binary.finish());
+        } finally {
+            text.close();
+            binary.close();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Approximate size of the columns and of both encodings in bytes. The
+     * encodings take page cache rather than heap.
+     */
+    long memoryFootprint() {
+        return times.length * (8L + 1 + 2 + 2 * 4) + text.start(size) + binary.start(size);
+    }
+
+    double time(int index) {
+        return times[index];
+    }
+
+    // index of the first event at or after the time, size() if there is none
+    int indexOf(double timestampMs) {
+        return timeIndex.lowerBound(timestampMs);
+    }
+
+    // checks the event against the subscription, see Subscription.accept
+    boolean accept(Subscription subscription, int index) {
+        if (types[index] == GPS)
+            return subscription.acceptGPS(times[index]);
+        return subscription.accept(ids.get(idIndexes[index]), frameClasses.get(types[index]), times[index]);
+    }
+
+    // conflation key of the event for a SessionOutput, one per id and channel
+    int conflationKey(int index) {
+        return types[index] == GPS ? SessionOutput.GPS_KEY : idIndexes[index];
+    }
+
+    // GPS and vehicle dynamics are sent first by a session that is behind
+    boolean isPriority(int index) {
+        return types[index] == GPS || frameClasses.get(types[index]) == VehicleDynamicsFrame.class;
+    }
+
+    // text lines, each with its line separator
+    Encoding text() {
+        return text;
+    }
+
+    // records of BinaryProtocol
+    Encoding binary() {
+        return binary;
+    }
+
+    // bytes of all events in one protocol
+    static final class Encoding {
+        private final ByteBuffer bytes;
+        // event i is bytes [offsets[i], offsets[i + 1])
+        private final int[] offsets;
+
+        private Encoding(ByteBuffer bytes, int[] offsets) {
+            this.bytes = bytes;
+            this.offsets = offsets;
+        }
+
+        int start(int index) {
+            return offsets[index];
+        }
+
+        int end(int index) {
+            return offsets[index + 1];
+        }
+
+        // read-only buffer over all bytes with its own position and limit
+        ByteBuffer view() {
+            return bytes.duplicate();
+        }
+    }
+
+    // writes the messages of one protocol to a temporary file and maps it
+    private static final class Encoder {
+        private final Path file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private final int[] offsets;
+        private int count = 0;
+        private long length = 0;
+
+        Encoder(String protocol, int capacity) throws IOException {
+            file = Files.createTempFile("roadsense-timeline-", "." + protocol);
+            file.toFile().deleteOnExit();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            offsets = new int[capacity + 1];
+        }
+
+        void add(String line) throws IOException {
+            add((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        void add(byte[] message) throws IOException {
+            if (length + message.length > Integer.MAX_VALUE)
+                throw new IllegalStateException("Encoded timeline is larger than 2 GB");
+            if (buffer.remaining() < message.length)
+                writeBuffer();
+            if (buffer.remaining() < message.length) {
+                channel.write(ByteBuffer.wrap(message));
+            } else {
+                buffer.put(message);
+            }
+            length += message.length;
+            offsets[++count] = (int) length;
+        }
+
+        Encoding finish() throws IOException {
+            writeBuffer();
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, length).asReadOnlyBuffer();
+            return new Encoding(bytes, offsets);
+        }
+
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // the mapping stays valid after the channel is closed and, where the
+        // file system allows it, after the file is deleted
+        void close() throws IOException {
+            channel.close();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // a mapped file can't be deleted on Windows, it is deleted on exit
+            }
+        }
+    }
+}
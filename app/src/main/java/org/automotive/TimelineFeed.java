@@ -0,0 +1,85 @@
+package org.automotive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Replays the Timeline again and again, independent of any client, and
+ * publishes the binary records of every event to a transport that any number
+ * of receivers read from, e.g. a multicast group or a shared memory ring.
+ * The sequence number of an event is its index in the timeline; the replay
+ * number is incremented every time the feed starts the drive again. After
+ * the last event the feed publishes END and pauses shortly before the next
+ * replay, so receivers can join at any time.
+ */
+abstract class TimelineFeed implements Runnable {
+    // pause between the end of a replay and the start of the next one
+    private static final long LOOP_PAUSE_MS = 2000;
+
+    protected final Timeline timeline;
+    private final ReplayClock clock;
+    private volatile boolean running = true;
+    // number of the current replay, starting at 1
+    protected int replay = 0;
+
+    /**
+     * @param timeline events to publish, their indexes are the sequence numbers
+     * @param clock    clock that paces the replays
+     */
+    TimelineFeed(Timeline timeline, ReplayClock clock) {
+        this.timeline = timeline;
+        this.clock = clock;
+    }
+
+    // name of the feed for log messages
+    abstract String name();
+
+    // publishes the records of the event with the sequence number
+    abstract void publish(int sequence, ByteBuffer records) throws IOException;
+
+    // publishes END, sequence is the number after the last event
+    abstract void publishEnd(int sequence) throws IOException;
+
+    // releases the transport when the feed stops
+    abstract void close();
+
+    // stops the feed after the current event, can be called from any thread
+    void stop() {
+        running = false;
+    }
+
+    /**
+     * Replays the timeline until stop() is called or the transport fails.
+     */
+    @Override
+    public void run() {
+        Timeline.Encoding encoding = timeline.binary();
+        ByteBuffer records = encoding.view();
+        try {
+            while (running) {
+                replay++;
+                clock.start(0);
+                double simTimeMs = 0;
+                for (int i = 0; i < timeline.size() && running; i++) {
+                    simTimeMs = timeline.time(i);
+                    // a skipped event is a gap the receivers may notice
+                    if (!clock.await(simTimeMs))
+                        continue;
+                    records.limit(encoding.end(i)).position(encoding.start(i));
+                    publish(i, records);
+                }
+                publishEnd(timeline.size());
+                System.out.println(name() + " replay " + replay + " completed");
+                System.out.println(clock.report(simTimeMs));
+                Thread.sleep(LOOP_PAUSE_MS);
+            }
+        } catch (IOException e) {
+            System.out.println(name() + " stopped: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            close();
+        }
+    }
+}
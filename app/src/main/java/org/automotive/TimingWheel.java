@@ -0,0 +1,103 @@
+package org.automotive;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Hierarchical timing wheel for a fixed set of entries, e.g. the vehicles of
+ * a FleetReplay, each of which waits for one tick at a time. Four levels of
+ * 256 slots cover 2^32 ticks: level 0 holds the entries due within the next
+ * 256 ticks, one slot per tick, and every higher level 256 times the range of
+ * the level below. When the wheel reaches the start of a higher slot, its
+ * entries are spread over the lower levels. Scheduling and expiring an entry
+ * is O(1) however many entries wait, and the entries are linked through an
+ * int array, so nothing is allocated while the wheel turns.
+ */
+final class TimingWheel {
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1;
+    private static final int NONE = -1;
+
+    // first entry of every slot, the entries of a slot are linked through next
+    private final int[][] heads = new int[LEVELS][SLOTS];
+    private final int[] next;
+    private final long[] deadlines;
+    private long currentTick = 0;
+
+    /**
+     * @param capacity number of entries, they are numbered 0..capacity-1
+     */
+    TimingWheel(int capacity) {
+        for (int[] level : heads) {
+            Arrays.fill(level, NONE);
+        }
+        next = new int[capacity];
+        deadlines = new long[capacity];
+    }
+
+    // last tick the wheel expired
+    long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Schedules an entry that is not scheduled yet. A tick that has passed
+     * already expires with the next tick.
+     */
+    void schedule(int entry, long tick) {
+        deadlines[entry] = Math.min(Math.max(tick, currentTick + 1), currentTick + MAX_DELAY);
+        insert(entry);
+    }
+
+    private void insert(int entry) {
+        long deadline = deadlines[entry];
+        long delay = deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) (deadline >>> (SLOT_BITS * level)) & SLOT_MASK;
+        next[entry] = heads[level][slot];
+        heads[level][slot] = entry;
+    }
+
+    /**
+     * Turns the wheel tick by tick up to the given tick and hands every entry
+     * that expires to the consumer, which may schedule it again.
+     */
+    void advance(long toTick, IntConsumer expired) {
+        while (currentTick < toTick) {
+            currentTick++;
+            cascade();
+            int slot = (int) currentTick & SLOT_MASK;
+            int entry = heads[0][slot];
+            heads[0][slot] = NONE;
+            while (entry != NONE) {
+                int following = next[entry];
+                expired.accept(entry);
+                entry = following;
+            }
+        }
+    }
+
+    // spreads the slots of the higher levels that start at this tick over the levels below
+    private void cascade() {
+        int top = 0;
+        while (top < LEVELS - 1 && (currentTick & ((1L << (SLOT_BITS * (top + 1))) - 1)) == 0) {
+            top++;
+        }
+        for (int level = top; level > 0; level--) {
+            int slot = (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+            int entry = heads[level][slot];
+            heads[level][slot] = NONE;
+            while (entry != NONE) {
+                int following = next[entry];
+                insert(entry);
+                entry = following;
+            }
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package org.automotive;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of a parsed CAN or GPS trace, stored next to the text file
+ * as {@code <trace file>.rsnap}.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * header     magic "RSNP", version, kind (1 = CAN, 2 = GPS),
+ *            source size, source modification time, source hash,
+ *            row count, time index stride, column count, id count
+ * id names   (length, ISO-8859-1 bytes) per id, CAN only
+ * directory  (tag, element size, element count, file offset) per column
+ * columns    one array per column, each starting on an 8 byte boundary
+ * </pre>
+ * The time index is stored as columns as well: the timestamp of every
+ * {@link #INDEX_STRIDE}-th row and, for CAN traces, how many rows of each
+ * frame kind come before it.
+ *
+ * A snapshot is only used when size, modification time and the hash of the
+ * first and last 64 KB of the text file still match. Loading memory-maps each
+ * column and copies it into a primitive array in one bulk operation.
+ */
+final class TraceSnapshot {
+    static final String SUFFIX = ".rsnap";
+
+    // rows between two time index entries
+    static final int INDEX_STRIDE = 1024;
+
+    private static final int MAGIC = 0x52534E50; // "RSNP"
+    private static final short VERSION = 1;
+    private static final short KIND_CAN = 1;
+    private static final short KIND_GPS = 2;
+
+    // bytes of the start and the end of the text file that go into the hash
+    private static final int HASH_SAMPLE_SIZE = 64 * 1024;
+
+    // column tags
+    private static final int TIME = tag("TIME");
+    private static final int KIND = tag("KIND");
+    private static final int ID_INDEX = tag("IDIX");
+    private static final int STEERING_ANGLE = tag("STEE");
+    private static final int SPEED = tag("SPED");
+    private static final int YAW_RATE = tag("YAWR");
+    private static final int LAT_ACCEL = tag("LATA");
+    private static final int LONG_ACCEL = tag("LONA");
+    private static final int LATITUDE = tag("LATI");
+    private static final int LONGITUDE = tag("LONG");
+    private static final int INDEX_TIME = tag("XTIM");
+    private static final int INDEX_STEERING = tag("XSTE");
+    private static final int INDEX_SPEED = tag("XSPD");
+    private static final int INDEX_DYNAMICS = tag("XDYN");
+
+    private TraceSnapshot() {
+    }
+
+    /**
+     * Loads the snapshot of a CAN trace file.
+     *
+     * @return the trace, or null if there is no snapshot or it is out of date
+     * @throws IOException if the snapshot can't be read or is corrupt
+     */
+    static ColumnarCANTrace loadCAN(String tracePath) throws IOException {
+        Snapshot snapshot = open(tracePath, KIND_CAN);
+        if (snapshot == null)
+            return null;
+        try (snapshot) {
+            double[] timestamps = snapshot.doubles(TIME);
+            byte[] kinds = snapshot.bytes(KIND);
+            char[] idIndexes = snapshot.chars(ID_INDEX);
+            double[] steeringAngles = snapshot.doubles(STEERING_ANGLE);
+            double[] speeds = snapshot.doubles(SPEED);
+            double[] yawRates = snapshot.doubles(YAW_RATE);
+            double[] latAccels = snapshot.doubles(LAT_ACCEL);
+            double[] longAccels = snapshot.doubles(LONG_ACCEL);
+            double[] indexTimes = snapshot.doubles(INDEX_TIME);
+            int[] indexSteering = snapshot.ints(INDEX_STEERING);
+            int[] indexSpeed = snapshot.ints(INDEX_SPEED);
+            int[] indexDynamics = snapshot.ints(INDEX_DYNAMICS);
+
+            // the trace trusts its columns, a replay would fail in the middle instead of here
+            String error = checkCAN(timestamps, kinds, idIndexes, snapshot.idNames.size(),
+                    new int[] { steeringAngles.length, speeds.length, yawRates.length },
+                    latAccels.length, longAccels.length, indexTimes, indexSteering, indexSpeed, indexDynamics);
+            if (error != null)
+                throw new IOException("Corrupt snapshot " + snapshotPath(tracePath) + ": " + error);
+
+            return new ColumnarCANTrace(timestamps, kinds, idIndexes, snapshot.idNames, steeringAngles, speeds,
+                    yawRates, latAccels, longAccels, indexTimes, indexSteering, indexSpeed, indexDynamics);
+        } catch (RuntimeException e) {
+            throw corrupt(tracePath, e);
+        }
+    }
+
+    /**
+     * Checks that the columns of a CAN snapshot fit together: one kind and id
+     * per row, a signal value for every row of its kind, ids in the id list and
+     * an index that matches the rows, which then must be time-ordered.
+     *
+     * @return what is wrong, or null if the columns are consistent
+     */
+    private static String checkCAN(double[] timestamps, byte[] kinds, char[] idIndexes, int idCount,
+            int[] kindRows, int latAccelRows, int longAccelRows, double[] indexTimes, int[] indexSteering,
+            int[] indexSpeed, int[] indexDynamics) {
+        int rows = timestamps.length;
+        if (kinds.length != rows || idIndexes.length != rows)
+            return "row columns of different lengths";
+        if (latAccelRows != kindRows[ColumnarCANTrace.DYNAMICS] || longAccelRows != kindRows[ColumnarCANTrace.DYNAMICS])
+            return "dynamics columns of different lengths";
+        int entries = indexTimes.length;
+        if (indexSteering.length != entries || indexSpeed.length != entries || indexDynamics.length != entries)
+            return "index columns of different lengths";
+        boolean indexed = entries > 0;
+        if (indexed && entries != (rows + INDEX_STRIDE - 1) / INDEX_STRIDE)
+            return "index does not fit the rows";
+
+        int[] counts = new int[3];
+        for (int row = 0; row < rows; row++) {
+            if (indexed && row % INDEX_STRIDE == 0) {
+                int entry = row / INDEX_STRIDE;
+                if (indexTimes[entry] != timestamps[row] || indexSteering[entry] != counts[ColumnarCANTrace.STEERING]
+                        || indexSpeed[entry] != counts[ColumnarCANTrace.SPEED]
+                        || indexDynamics[entry] != counts[ColumnarCANTrace.DYNAMICS])
+                    return "index entry " + entry + " does not match the rows";
+            }
+            if (indexed && row > 0 && timestamps[row] < timestamps[row - 1])
+                return "indexed rows are not time-ordered at row " + row;
+            int kind = kinds[row];
+            if (kind < ColumnarCANTrace.STEERING || kind > ColumnarCANTrace.DYNAMICS)
+                return "invalid frame kind " + kind + " in row " + row;
+            if (idIndexes[row] >= idCount)
+                return "invalid id index " + (int) idIndexes[row] + " in row " + row;
+            counts[kind]++;
+        }
+        if (!Arrays.equals(counts, kindRows))
+            return "signal columns don't match the rows of their kind";
+        return null;
+    }
+
+    /**
+     * Loads the snapshot of a GPS trace file.
+     *
+     * @return the trace, or null if there is no snapshot or it is out of date
+     * @throws IOException if the snapshot can't be read or is corrupt
+     */
+    static GPSTrace loadGPS(String tracePath) throws IOException {
+        Snapshot snapshot = open(tracePath, KIND_GPS);
+        if (snapshot == null)
+            return null;
+        try (snapshot) {
+            double[] times = snapshot.doubles(TIME);
+            double[] latitudes = snapshot.doubles(LATITUDE);
+            double[] longitudes = snapshot.doubles(LONGITUDE);
+            if (latitudes.length != times.length || longitudes.length != times.length)
+                throw new IOException("Snapshot of " + tracePath + " has columns of different lengths");
+
+            GPSTrace trace = new GPSTrace();
+            for (int i = 0; i < times.length; i++) {
+                trace.addCoordinate(new GPScoordinates(latitudes[i], longitudes[i], times[i]));
+            }
+            return trace;
+        } catch (RuntimeException e) {
+            throw corrupt(tracePath, e);
+        }
+    }
+
+    /**
+     * Writes the snapshot of a parsed CAN trace next to its text file.
+     */
+    static void saveCAN(String tracePath, ColumnarCANTrace trace) throws IOException {
+        if (trace.otherFrameCount() > 0)
+            throw new IOException("Snapshots only store steering, speed and dynamics frames");
+        trace.trimToSize();
+        double[] timestamps = trace.timestampColumn();
+        byte[] kinds = trace.kindColumn();
+
+        // time index with the number of rows of each kind before every entry,
+        // left empty when the trace is not time-ordered
+        int entries = isTimeOrdered(timestamps) ? (timestamps.length + INDEX_STRIDE - 1) / INDEX_STRIDE : 0;
+        double[] indexTimes = new double[entries];
+        int[] indexSteering = new int[entries];
+        int[] indexSpeed = new int[entries];
+        int[] indexDynamics = new int[entries];
+        int[] counts = new int[3];
+        for (int row = 0; row < timestamps.length && entries > 0; row++) {
+            if (row % INDEX_STRIDE == 0) {
+                int entry = row / INDEX_STRIDE;
+                indexTimes[entry] = timestamps[row];
+                indexSteering[entry] = counts[ColumnarCANTrace.STEERING];
+                indexSpeed[entry] = counts[ColumnarCANTrace.SPEED];
+                indexDynamics[entry] = counts[ColumnarCANTrace.DYNAMICS];
+            }
+            counts[kinds[row]]++;
+        }
+
+        List<Column> columns = List.of(
+                new Column(TIME, timestamps),
+                new Column(KIND, kinds),
+                new Column(ID_INDEX, trace.idIndexColumn()),
+                new Column(STEERING_ANGLE, trace.steeringAngleColumn()),
+                new Column(SPEED, trace.speedColumn()),
+                new Column(YAW_RATE, trace.yawRateColumn()),
+                new Column(LAT_ACCEL, trace.latAccelColumn()),
+                new Column(LONG_ACCEL, trace.longAccelColumn()),
+                new Column(INDEX_TIME, indexTimes),
+                new Column(INDEX_STEERING, indexSteering),
+                new Column(INDEX_SPEED, indexSpeed),
+                new Column(INDEX_DYNAMICS, indexDynamics));
+        write(tracePath, KIND_CAN, timestamps.length, trace.idNames(), columns);
+    }
+
+    /**
+     * Writes the snapshot of a parsed GPS trace next to its text file.
+     */
+    static void saveGPS(String tracePath, GPSTrace trace) throws IOException {
+        List<GPScoordinates> coordinates = trace.getAllCoordinates();
+        int rows = coordinates.size();
+        double[] times = new double[rows];
+        double[] latitudes = new double[rows];
+        double[] longitudes = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            GPScoordinates coordinate = coordinates.get(i);
+            times[i] = coordinate.getTimeOffset();
+            latitudes[i] = coordinate.getLatitude();
+            longitudes[i] = coordinate.getLongitude();
+        }
+
+        double[] indexTimes = new double[(rows + INDEX_STRIDE - 1) / INDEX_STRIDE];
+        for (int entry = 0; entry < indexTimes.length; entry++) {
+            indexTimes[entry] = times[entry * INDEX_STRIDE];
+        }
+
+        List<Column> columns = List.of(
+                new Column(TIME, times),
+                new Column(LATITUDE, latitudes),
+                new Column(LONGITUDE, longitudes),
+                new Column(INDEX_TIME, indexTimes));
+        write(tracePath, KIND_GPS, rows, List.of(), columns);
+    }
+
+    // path of the snapshot that belongs to a trace file
+    static Path snapshotPath(String tracePath) {
+        return Paths.get(tracePath + SUFFIX);
+    }
+
+    private static void write(String tracePath, short kind, int rows, List<String> idNames, List<Column> columns)
+            throws IOException {
+        Path source = Paths.get(tracePath);
+        Path target = snapshotPath(tracePath);
+        Path temp = Paths.get(target + ".tmp");
+
+        // header and id names
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeShort(VERSION);
+        header.writeShort(kind);
+        header.writeLong(Files.size(source));
+        header.writeLong(Files.getLastModifiedTime(source).toMillis());
+        header.writeLong(sourceHash(source));
+        header.writeInt(rows);
+        header.writeInt(INDEX_STRIDE);
+        header.writeInt(columns.size());
+        header.writeInt(idNames.size());
+        for (String id : idNames) {
+            byte[] name = id.getBytes(StandardCharsets.ISO_8859_1);
+            header.writeShort(name.length);
+            header.write(name);
+        }
+        while (headerBytes.size() % 8 != 0) {
+            header.writeByte(0);
+        }
+
+        // column directory, the offsets follow from the column sizes
+        long offset = headerBytes.size() + columns.size() * 24L;
+        for (Column column : columns) {
+            header.writeInt(column.tag);
+            header.writeInt(column.elementSize);
+            header.writeLong(column.count);
+            header.writeLong(offset);
+            offset = align(offset + column.byteSize());
+        }
+        header.flush();
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, ByteBuffer.wrap(headerBytes.toByteArray()));
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            for (Column column : columns) {
+                column.writeTo(channel, buffer);
+                long position = channel.position();
+                long padding = align(position) - position;
+                if (padding > 0) {
+                    writeFully(channel, ByteBuffer.allocate((int) padding));
+                }
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens and validates the snapshot of a trace file.
+     *
+     * @return the snapshot, or null if there is none or it does not match the
+     *         text file
+     */
+    private static Snapshot open(String tracePath, short expectedKind) throws IOException {
+        Path source = Paths.get(tracePath);
+        Path path = snapshotPath(tracePath);
+        if (!Files.isRegularFile(path))
+            return null;
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long headerSize = Math.min(channel.size(), 64 * 1024);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize);
+
+            if (headerSize < 48 || header.getInt() != MAGIC || header.getShort() != VERSION
+                    || header.getShort() != expectedKind
+                    || header.getLong() != Files.size(source)
+                    || header.getLong() != Files.getLastModifiedTime(source).toMillis()
+                    || header.getLong() != sourceHash(source)) {
+                channel.close();
+                return null;
+            }
+
+            header.getInt(); // rows
+            header.getInt(); // index stride
+            int columnCount = header.getInt();
+            int idCount = header.getInt();
+            List<String> idNames = new ArrayList<>(idCount);
+            for (int i = 0; i < idCount; i++) {
+                byte[] name = new byte[header.getShort()];
+                header.get(name);
+                idNames.add(new String(name, StandardCharsets.ISO_8859_1));
+            }
+            header.position((int) align(header.position()));
+
+            Map<Integer, long[]> directory = new HashMap<>();
+            for (int i = 0; i < columnCount; i++) {
+                int tag = header.getInt();
+                long elementSize = header.getInt();
+                long count = header.getLong();
+                long offset = header.getLong();
+                directory.put(tag, new long[] { elementSize, count, offset });
+            }
+            return new Snapshot(channel, idNames, directory);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            // a truncated or overwritten header, e.g. BufferUnderflowException
+            channel.close();
+            throw corrupt(tracePath, e);
+        }
+    }
+
+    // a snapshot that can't be decoded is a cache miss for the callers, not a crash
+    private static IOException corrupt(String tracePath, RuntimeException e) {
+        return new IOException("Corrupt snapshot " + snapshotPath(tracePath) + ": " + e, e);
+    }
+
+    /**
+     * Hash of the size and the first and last 64 KB of the text file, cheap
+     * to compute even for multi-GB logs.
+     */
+    private static long sourceHash(Path source) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer sample = ByteBuffer.allocate(HASH_SAMPLE_SIZE);
+            channel.read(sample, 0);
+            sample.flip();
+            crc.update(sample);
+            if (size > HASH_SAMPLE_SIZE) {
+                sample.clear();
+                channel.read(sample, Math.max(HASH_SAMPLE_SIZE, size - HASH_SAMPLE_SIZE));
+                sample.flip();
+                crc.update(sample);
+            }
+            return (crc.getValue() << 32) ^ size;
+        }
+    }
+
+    private static boolean isTimeOrdered(double[] timestamps) {
+        for (int i = 1; i < timestamps.length; i++) {
+            if (timestamps[i] < timestamps[i - 1])
+                return false;
+        }
+        return true;
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int tag(String name) {
+        return ByteBuffer.wrap(name.getBytes(StandardCharsets.US_ASCII)).getInt();
+    }
+
+    /**
+     * One primitive array to be written as a column.
+     */
+    private static class Column {
+        final int tag;
+        final int elementSize;
+        final int count;
+        final Object data;
+
+        Column(int tag, double[] data) {
+            this(tag, 8, data.length, data);
+        }
+
+        Column(int tag, int[] data) {
+            this(tag, 4, data.length, data);
+        }
+
+        Column(int tag, char[] data) {
+            this(tag, 2, data.length, data);
+        }
+
+        Column(int tag, byte[] data) {
+            this(tag, 1, data.length, data);
+        }
+
+        private Column(int tag, int elementSize, int count, Object data) {
+            this.tag = tag;
+            this.elementSize = elementSize;
+            this.count = count;
+            this.data = data;
+        }
+
+        long byteSize() {
+            return (long) elementSize * count;
+        }
+
+        // writes the array through the buffer in pieces of the buffer size
+        void writeTo(FileChannel channel, ByteBuffer buffer) throws IOException {
+            int perBuffer = buffer.capacity() / elementSize;
+            for (int start = 0; start < count; start += perBuffer) {
+                int length = Math.min(perBuffer, count - start);
+                buffer.clear();
+                if (data instanceof double[]) {
+                    buffer.asDoubleBuffer().put((double[]) data, start, length);
+                } else if (data instanceof int[]) {
+                    buffer.asIntBuffer().put((int[]) data, start, length);
+                } else if (data instanceof char[]) {
+                    buffer.asCharBuffer().put((char[]) data, start, length);
+                } else {
+                    buffer.put((byte[]) data, start, length);
+                }
+                buffer.position(0).limit(length * elementSize);
+                writeFully(channel, buffer);
+            }
+        }
+    }
+
+    /**
+     * An opened snapshot file, columns are memory-mapped when they are read.
+     */
+    private static class Snapshot implements Closeable {
+        final FileChannel channel;
+        final List<String> idNames;
+        final Map<Integer, long[]> directory;
+
+        Snapshot(FileChannel channel, List<String> idNames, Map<Integer, long[]> directory) {
+            this.channel = channel;
+            this.idNames = idNames;
+            this.directory = directory;
+        }
+
+        // maps one column, each column gets its own mapping so none exceeds 2 GB
+        private MappedByteBuffer map(int tag, int elementSize) throws IOException {
+            long[] entry = directory.get(tag);
+            if (entry == null || entry[0] != elementSize)
+                throw new IOException("Snapshot column " + tag + " is missing or has the wrong type");
+            if (entry[1] < 0 || entry[2] < 0 || entry[1] > (channel.size() - entry[2]) / elementSize)
+                throw new IOException("Snapshot column " + tag + " is outside the file");
+            return channel.map(FileChannel.MapMode.READ_ONLY, entry[2], entry[0] * entry[1]);
+        }
+
+        double[] doubles(int tag) throws IOException {
+            MappedByteBuffer buffer = map(tag, 8);
+            double[] values = new double[buffer.capacity() / 8];
+            buffer.asDoubleBuffer().get(values);
+            return values;
+        }
+
+        int[] ints(int tag) throws IOException {
+            MappedByteBuffer buffer = map(tag, 4);
+            int[] values = new int[buffer.capacity() / 4];
+            buffer.asIntBuffer().get(values);
+            return values;
+        }
+
+        char[] chars(int tag) throws IOException {
+            MappedByteBuffer buffer = map(tag, 2);
+            char[] values = new char[buffer.capacity() / 2];
+            buffer.asCharBuffer().get(values);
+            return values;
+        }
+
+        byte[] bytes(int tag) throws IOException {
+            MappedByteBuffer buffer = map(tag, 1);
+            byte[] values = new byte[buffer.capacity()];
+            buffer.get(values);
+            return values;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BLFReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void decodesMessagesSplitAcrossContainers() throws IOException {
+        ByteBuffer objects = ByteBuffer.allocate(3 * 48).order(ByteOrder.LITTLE_ENDIAN);
+        // steering angle 0x1004 * 0.5 - 2048 at 4 ms, timestamp in ns
+        putCANMessage(objects, 2, 4_000_000L, 1, 0x0018, 0x10, 0x04);
+        // speed 0x00FA * 0.1 = 25 km/h at 4.5 ms, timestamp in 10 µs
+        putCANMessage(objects, 1, 450L, 2, 0x0F7A, 0x00, 0xFA);
+        // no signal definitions
+        putCANMessage(objects, 2, 5_000_000L, 1, 0x0123, 0x00, 0x00);
+
+        // the second message continues in the second container
+        byte[] data = objects.array();
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(fileHeader());
+        file.write(container(Arrays.copyOfRange(data, 0, 70)));
+        file.write(container(Arrays.copyOfRange(data, 70, data.length)));
+
+        List<CANFrame> frames = new ArrayList<>();
+        new BLFReader().read(Channels.newChannel(new ByteArrayInputStream(file.toByteArray())), frames::add);
+
+        assertEquals(2, frames.size());
+        SteeringWheelAngleFrame steering = (SteeringWheelAngleFrame) frames.get(0);
+        assertEquals(4.0, steering.getTimestamp());
+        assertEquals(0x1004 * 0.5 - 2048, steering.getAngle());
+        assertEquals(1, steering.getChannel());
+        VehicleSpeedFrame speed = (VehicleSpeedFrame) frames.get(1);
+        assertEquals(4.5, speed.getTimestamp());
+        assertEquals(2, speed.getChannel());
+    }
+
+    @Test
+    void streamedBLFFileIsReadWithTheBLFReader() throws IOException {
+        // speed messages every ms, in three containers
+        ByteBuffer objects = ByteBuffer.allocate(300 * 48).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 300; i++) {
+            putCANMessage(objects, 2, i * 1_000_000L, 1 + i % 2, 0x0F7A, 0x00, i % 256);
+        }
+        byte[] data = objects.array();
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(fileHeader());
+        for (int start = 0; start < data.length; start += 5000) {
+            file.write(container(Arrays.copyOfRange(data, start, Math.min(data.length, start + 5000))));
+        }
+        Path path = dir.resolve("drive.blf");
+        Files.write(path, file.toByteArray());
+
+        List<CANFrame> read = new ArrayList<>();
+        new BLFReader().read(path.toString(), read::add);
+        assertEquals(300, read.size());
+
+        StreamingCANTrace trace = new StreamingCANTrace(path.toString(), 8);
+        List<String> streamed = new ArrayList<>();
+        for (CANFrame frame = trace.getNextMessage(); frame != null; frame = trace.getNextMessage()) {
+            streamed.add(frame.toString() + " on " + frame.getChannel());
+        }
+        assertEquals(read.stream().map(frame -> frame.toString() + " on " + frame.getChannel()).toList(), streamed);
+        assertEquals(300, trace.size());
+        assertEquals(120, trace.indexOf(119.5));
+        assertEquals(10, trace.range(100, 110).size());
+        trace.seek(250);
+        assertEquals(250.0, trace.getNextMessage().getTimestamp());
+
+        // the text parsers refuse a BLF file instead of finding no lines in it
+        assertThrows(IOException.class, () -> ByteLineParser.forFile(path.toString()));
+    }
+
+    private static void putCANMessage(ByteBuffer out, int timeFlags, long time, int channel, int id, int byte0, int byte1) {
+        out.put("LOBJ".getBytes()).putShort((short) 32).putShort((short) 1).putInt(48).putInt(BLFReader.CAN_MESSAGE);
+        out.putInt(timeFlags).putShort((short) 0).putShort((short) 0).putLong(time);
+        out.putShort((short) channel).put((byte) 0).put((byte) 8).putInt(id);
+        out.put((byte) byte0).put((byte) byte1).put(new byte[6]);
+    }
+
+    private static byte[] fileHeader() {
+        ByteBuffer header = ByteBuffer.allocate(144).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("LOGG".getBytes()).putInt(144);
+        return header.array();
+    }
+
+    private static byte[] container(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] compressed = new byte[data.length + 64];
+        int length = deflater.deflate(compressed);
+        deflater.end();
+
+        int size = 32 + length;
+        ByteBuffer object = ByteBuffer.allocate(size + size % 4).order(ByteOrder.LITTLE_ENDIAN);
+        object.put("LOBJ".getBytes()).putShort((short) 16).putShort((short) 1).putInt(size).putInt(BLFReader.LOG_CONTAINER);
+        object.putShort((short) BLFReader.ZLIB_DEFLATE).put(new byte[6]).putInt(data.length).put(new byte[4]);
+        object.put(compressed, 0, length);
+        return object.array();
+    }
+}
@@ -0,0 +1,44 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class BinaryProtocolTest {
+
+    @Test
+    void recordsCarryTheDecodedValues() {
+        CANFrame dynamics = new VehicleDynamicsFrame("0B41", 984.9, -0.64, 1.2, 205.49).withChannel(2);
+        ByteBuffer record = ByteBuffer.wrap(BinaryProtocol.encode(dynamics));
+
+        assertEquals(BinaryProtocol.RECORD_SIZE, record.capacity());
+        assertEquals(BinaryProtocol.DYNAMICS, BinaryProtocol.type(record));
+        assertEquals(2, BinaryProtocol.channel(record));
+        assertEquals(0x0B41, BinaryProtocol.id(record));
+        assertEquals(984.9, BinaryProtocol.timestamp(record));
+        assertEquals(205.49f, BinaryProtocol.value(record, 0));
+        assertEquals(1.2f, BinaryProtocol.value(record, 1));
+        assertEquals(-0.64f, BinaryProtocol.value(record, 2));
+        assertEquals("CAN|0B41|984.9|DYNAMICS|205.49|1.2|-0.64", BinaryProtocol.describe(record));
+    }
+
+    @Test
+    void gpsIsSentInMicrodegrees() {
+        ByteBuffer record = ByteBuffer.wrap(BinaryProtocol.encode(new GPScoordinates(48.1234567, -11.5, 1000.0)));
+
+        assertEquals(BinaryProtocol.GPS, BinaryProtocol.type(record));
+        assertEquals(1000.0, BinaryProtocol.timestamp(record));
+        assertEquals(48.123457, BinaryProtocol.latitude(record));
+        assertEquals(-11.5, BinaryProtocol.longitude(record));
+    }
+
+    @Test
+    void startRequestSelectsTheProtocol() {
+        assertTrue(StartRequest.parse("START from=10 proto=binary").isBinary());
+        assertFalse(StartRequest.parse("START").isBinary());
+        // unknown protocols fall back to text
+        assertFalse(StartRequest.parse("START proto=protobuf").isBinary());
+    }
+}
@@ -0,0 +1,196 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BroadcastServerTest {
+
+    @TempDir
+    Path dir;
+
+    private BroadcastServer server;
+    private Thread serverThread;
+
+    // speed frames every 10 ms from 100 ms on
+    private static CANTrace canTrace(int frames) {
+        CANTrace trace = new CANTrace();
+        for (int i = 0; i < frames; i++) {
+            trace.addFrame(new VehicleSpeedFrame("0F7A", 100 + i * 10.0, i));
+        }
+        return trace;
+    }
+
+    // coordinates every second from 105 ms on, never at the time of a frame
+    private static GPSTrace gpsTrace(int coordinates) {
+        GPSTrace trace = new GPSTrace();
+        for (int i = 0; i < coordinates; i++) {
+            trace.addCoordinate(new GPScoordinates(48.1 + i * 0.001, 11.5 + i * 0.001, 105 + i * 1000.0));
+        }
+        return trace;
+    }
+
+    // the messages of the replay in both protocols, GPS first as the server sends them
+    private static byte[][] expected(CANTrace canTrace, GPSTrace gpsTrace) {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(BinaryProtocol.HEADER_SIZE);
+        BinaryProtocol.putHeader(header);
+        binary.writeBytes(header.array());
+
+        CANTrace frames = canTrace.view();
+        GPSTrace coordinates = gpsTrace.view();
+        CANFrame frame = frames.getNextMessage();
+        GPScoordinates coordinate = coordinates.getNextCoordinate();
+        while (frame != null || coordinate != null) {
+            if (coordinate != null && (frame == null || coordinate.getTimeOffset() <= frame.getTimestamp())) {
+                text.writeBytes((CANTraceSimulation.formatGPSMessage(coordinate) + "\n").getBytes(StandardCharsets.UTF_8));
+                binary.writeBytes(BinaryProtocol.encode(coordinate));
+                coordinate = coordinates.getNextCoordinate();
+            } else {
+                text.writeBytes((CANTraceSimulation.formatCANMessage(frame) + "\n").getBytes(StandardCharsets.UTF_8));
+                binary.writeBytes(BinaryProtocol.encode(frame));
+                frame = frames.getNextMessage();
+            }
+        }
+        text.writeBytes("SIMULATION_COMPLETE\n".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer end = ByteBuffer.allocate(BinaryProtocol.RECORD_SIZE);
+        BinaryProtocol.putEnd(end);
+        binary.writeBytes(end.array());
+        return new byte[][] { text.toByteArray(), binary.toByteArray() };
+    }
+
+    // starts the server on a Unix domain socket in the temporary directory
+    private UnixDomainSocketAddress startServer(CANTrace canTrace, GPSTrace gpsTrace) throws InterruptedException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(dir.resolve("broadcast.sock"));
+        server = new BroadcastServer(canTrace, gpsTrace, address);
+        serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, "broadcast-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        while (!Files.exists(address.getPath())) {
+            Thread.sleep(10);
+        }
+        return address;
+    }
+
+    // stops the server and waits until it has removed its socket file
+    private void stopServer() throws InterruptedException {
+        server.stop();
+        serverThread.join(5_000);
+    }
+
+    private static SocketChannel connect(UnixDomainSocketAddress address, String lines)
+            throws IOException, InterruptedException {
+        SocketChannel channel;
+        while (true) {
+            try {
+                channel = SocketChannel.open(address);
+                break;
+            } catch (ConnectException e) {
+                // the socket file exists a moment before the server listens
+                Thread.sleep(10);
+            }
+        }
+        channel.write(ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8)));
+        return channel;
+    }
+
+    // reads until the server closes the connection
+    private static byte[] readAll(SocketChannel channel) throws IOException {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (channel.read(buffer) >= 0) {
+            received.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        channel.close();
+        return received.toByteArray();
+    }
+
+    @Test
+    void twoClientsGetTheSameReplayInTheirProtocols() throws Exception {
+        CANTrace canTrace = canTrace(300);
+        GPSTrace gpsTrace = gpsTrace(4);
+        byte[][] expected = expected(canTrace, gpsTrace);
+        UnixDomainSocketAddress address = startServer(canTrace, gpsTrace);
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+                // the first START starts the replay so slowly that nothing is due
+                // before the second client has joined and switched it to full speed
+                SocketChannel text = connect(address, "START speed=0.001\n");
+                SocketChannel binary = connect(address, "START speed=0.001 proto=binary\nSPEED max\n");
+                assertArrayEquals(expected[1], readAll(binary));
+                assertArrayEquals(expected[0], readAll(text));
+            });
+        } finally {
+            stopServer();
+        }
+    }
+
+    @Test
+    void slowClientGetsTheLatestValuePerIdAndFastClientEverything() throws Exception {
+        // speed and steering frames every ms, far more than a client that doesn't read can buffer
+        CANTrace canTrace = new CANTrace();
+        for (int i = 0; i < 40_000; i++) {
+            double time = 100 + i;
+            canTrace.addFrame(i % 2 == 0 ? new VehicleSpeedFrame("0F7A", time, i % 4096)
+                    : new SteeringWheelAngleFrame("0018", time, i % 4096));
+        }
+        GPSTrace gpsTrace = new GPSTrace();
+        List<String> expected = Arrays.asList(new String(expected(canTrace, gpsTrace)[0], StandardCharsets.UTF_8).split("\n"));
+        UnixDomainSocketAddress address = startServer(canTrace, gpsTrace);
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                SocketChannel slow = connect(address, "START speed=0.001\n");
+                SocketChannel fast = connect(address, "START speed=0.001\nSPEED 20\n");
+                CompletableFuture<byte[]> fastReceived = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return readAll(fast);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+
+                // the fast client gets every message although the other one reads nothing
+                List<String> fastLines = Arrays.asList(new String(fastReceived.get(), StandardCharsets.UTF_8).split("\n"));
+                assertEquals(expected, fastLines);
+
+                // the slow client gets the messages that were queued before it fell
+                // behind, then only the newest message of each id
+                List<String> slowLines = Arrays.asList(new String(readAll(slow), StandardCharsets.UTF_8).split("\n"));
+                assertTrue(slowLines.size() < expected.size() / 2, "slow client got " + slowLines.size() + " lines");
+                int queued = slowLines.size() - 3;
+                assertEquals(expected.subList(0, queued), slowLines.subList(0, queued));
+                String lastSpeed = expected.get(expected.size() - 3);
+                String lastSteering = expected.get(expected.size() - 2);
+                assertTrue(lastSpeed.startsWith("CAN|0F7A|") && lastSteering.startsWith("CAN|0018|"));
+                assertEquals(List.of(lastSpeed, lastSteering).stream().sorted().toList(),
+                        slowLines.subList(queued, queued + 2).stream().sorted().toList());
+                assertEquals("SIMULATION_COMPLETE", slowLines.get(slowLines.size() - 1));
+            });
+        } finally {
+            stopServer();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CANTraceByteParserTest {
+
+    @TempDir
+    Path dir;
+
+    private static final String TRACE = ";$FILEVERSION=1.1\n"
+            + ";   Message Number\n"
+            + "\n"
+            + "     1)         4.0  Rx         0018  8  10 04 00 00 00 00 00 00\n"
+            + "     2)        14.3  Rx         0F7A  8  02 58 00 00 00 00 00 00\r\n"
+            + "     3)        20.1  Rx         0123  8  FF FF FF FF FF FF FF FF\n"
+            + "     4)        24.7  Rx         0B41  8  80 00 00 00 80 7f 00 00\n"
+            + "     5)        30.0  Rx         0f7a  8  02 58 00 00 00 00 00 00\n"
+            + "     6)      1234.5  Rx         0018  8  00 00 00 00 00 00 00 00";
+
+    private static List<CANFrame> parse(String text) throws IOException {
+        List<CANFrame> frames = new ArrayList<>();
+        new CANTraceByteParser().parse(
+                Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1))),
+                frames::add);
+        return frames;
+    }
+
+    @Test
+    void decodesKnownFramesLikeTheRegexParser() throws IOException {
+        List<CANFrame> frames = parse(TRACE);
+
+        // unknown id 0123 and lower case id 0f7a are skipped
+        assertEquals(4, frames.size());
+
+        SteeringWheelAngleFrame steering = (SteeringWheelAngleFrame) frames.get(0);
+        assertEquals("0018", steering.getId());
+        assertEquals(4.0, steering.getTimestamp());
+        assertEquals(0x1004 * 0.5 - 2048, steering.getAngle());
+
+        VehicleSpeedFrame speed = (VehicleSpeedFrame) frames.get(1);
+        assertEquals(14.3, speed.getTimestamp());
+        assertEquals(0x258 * 0.1, speed.getSpeed());
+
+        VehicleDynamicsFrame dynamics = (VehicleDynamicsFrame) frames.get(2);
+        assertEquals(24.7, dynamics.getTimestamp());
+        assertEquals(0x8000 * 0.01 - 327.68, dynamics.getYawRate());
+        assertEquals(0x80 * 0.08 - 10.24, dynamics.getLongAccel());
+        assertEquals(0x7F * 0.08 - 10.24, dynamics.getLatAccel());
+
+        // last line has no trailing newline
+        assertEquals(1234.5, frames.get(3).getTimestamp());
+    }
+
+    @Test
+    void decimalParsingMatchesDoubleParseDouble() {
+        String[] values = { "0", "4.0", "0.1", "14.3", "123456.789", "-2.5", "99999999.999", "1e3" };
+        for (String value : values) {
+            ByteBuffer buf = ByteBuffer.wrap(value.getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals(Double.parseDouble(value), CANTraceByteParser.parseDecimal(buf, 0, buf.capacity()), value);
+        }
+    }
+
+    @Test
+    void parallelChunksMatchTheSequentialParser() throws IOException {
+        // lines of different lengths, CRLF endings, comments, blank lines and unknown ids
+        String[] ids = { "0018", "0F7A", "0123", "0B41" };
+        StringBuilder text = new StringBuilder(";$FILEVERSION=1.1\n;   Message Number\n");
+        for (int i = 0; i < 300; i++) {
+            text.append(String.format(Locale.ROOT, "%6d)%12.1f  Rx         %s  8  %02X 58 00 00 80 7F 00 00%s",
+                    i + 1, i * 2.5, ids[i % ids.length], i % 256, i % 7 == 0 ? "\r\n" : "\n"));
+            if (i % 50 == 0)
+                text.append(i % 100 == 0 ? "\n" : ";   comment\n");
+        }
+        // no newline after the last line
+        text.append("   301)       750.0  Rx         0F7A  8  02 58 00 00 00 00 00 00");
+        Path file = dir.resolve("trace.trc");
+        Files.writeString(file, text);
+
+        List<String> expected = new ArrayList<>();
+        for (CANFrame frame : parse(text.toString())) {
+            expected.add(frame.toString());
+        }
+        assertEquals(226, expected.size());
+
+        // chunks end in the middle of nearly every line, or hold a few lines each
+        for (long chunkSize : new long[] { 1, 7, 33, 64, 65, 100, 257, 1000, 1 << 20 }) {
+            CANTrace trace = CANTraceParser.parseCANTraceFileParallel(file.toString(), new CANTrace(), chunkSize);
+            List<String> actual = new ArrayList<>();
+            for (CANFrame frame = trace.getNextMessage(); frame != null; frame = trace.getNextMessage()) {
+                actual.add(frame.toString());
+            }
+            assertEquals(expected, actual, "chunk size " + chunkSize);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class CandumpParserTest {
+
+    @Test
+    void timestampsAreRelativeToTheFirstFrame() throws IOException {
+        String log = "(1700000000.100000) can0 123#0011223344556677\n"
+                + "(1700000000.104500) can1 018#1004\n"
+                + "(1700000000.105000) can0 F7A#R\n"
+                + "(1700000000.110000) can0 018#10.05.00.00.00.00.00.00\n";
+
+        CandumpParser parser = new CandumpParser();
+        List<CANFrame> frames = new ArrayList<>();
+        parser.parse(Channels.newChannel(new ByteArrayInputStream(log.getBytes(StandardCharsets.ISO_8859_1))),
+                frames::add);
+
+        // 0123 has no signals and the remote frame is skipped
+        assertEquals(2, frames.size());
+        SteeringWheelAngleFrame first = (SteeringWheelAngleFrame) frames.get(0);
+        assertEquals(4.5, first.getTimestamp());
+        assertEquals("0018", first.getId());
+        assertEquals(0x1004 * 0.5 - 2048, first.getAngle());
+        assertEquals(2, first.getChannel());
+
+        SteeringWheelAngleFrame second = (SteeringWheelAngleFrame) frames.get(1);
+        assertEquals(10.0, second.getTimestamp());
+        assertEquals(0x1005 * 0.5 - 2048, second.getAngle());
+        assertEquals(1, second.getChannel());
+        assertEquals(List.of("can0", "can1"), parser.getInterfaces());
+    }
+
+    @Test
+    void extendedIdsAreNotTheStandardIdsWithTheSameDigits() throws IOException {
+        String log = "(1700000000.000000) can2 00000018#1004000000000000\n"
+                + "(1700000000.001000) can0 00000F7A#0258000000000000\n"
+                + "(1700000000.002000) can0 018#1004\n";
+
+        CandumpParser parser = new CandumpParser();
+        List<CANFrame> frames = new ArrayList<>();
+        parser.parse(Channels.newChannel(new ByteArrayInputStream(log.getBytes(StandardCharsets.ISO_8859_1))),
+                frames::add);
+
+        // only the standard frame, its time and channel still count from the extended lines
+        assertEquals(1, frames.size());
+        assertEquals("0018", frames.get(0).getId());
+        assertEquals(2.0, frames.get(0).getTimestamp());
+        assertEquals(2, frames.get(0).getChannel());
+    }
+}
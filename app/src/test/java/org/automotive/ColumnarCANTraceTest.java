@@ -0,0 +1,182 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ColumnarCANTraceTest {
+
+    private static final int ROWS = 2 * TraceSnapshot.INDEX_STRIDE + 700;
+
+    // frames every 0.5 ms of all four kinds in an irregular order, so the
+    // count of each kind differs at every stride boundary
+    private static List<CANFrame> frames() {
+        SignalDatabase.Signal[] noSignals = new SignalDatabase.Signal[0];
+        List<CANFrame> frames = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            double time = i * 0.5;
+            int kind = (i * 7 + i / 13) % 10;
+            if (kind < 3) {
+                frames.add(new SteeringWheelAngleFrame("0018", time, i * 0.5 - 2048));
+            } else if (kind < 5) {
+                frames.add(new VehicleSpeedFrame("0F7A", time, i * 0.1));
+            } else if (kind < 9) {
+                frames.add(new VehicleDynamicsFrame("0123", time, i * 0.01, -i * 0.02, i * 0.03));
+            } else {
+                frames.add(new SignalFrame("0200", time, noSignals, new double[0]));
+            }
+        }
+        return frames;
+    }
+
+    private static ColumnarCANTrace columnar(List<CANFrame> frames) {
+        ColumnarCANTrace trace = new ColumnarCANTrace();
+        trace.addFrames(frames);
+        return trace;
+    }
+
+    // checks that the cursor is on the row of the frame and reads its values
+    private static void assertRow(CANFrame frame, int row, ColumnarCANTrace.Cursor cursor) {
+        assertEquals(row, cursor.getRow());
+        assertEquals(frame.getId(), cursor.getId());
+        assertEquals(frame.getTimestamp(), cursor.getTimestamp());
+        if (frame instanceof SteeringWheelAngleFrame) {
+            assertEquals(ColumnarCANTrace.STEERING, cursor.getKind());
+            assertEquals(((SteeringWheelAngleFrame) frame).getAngle(), cursor.getSteeringAngle());
+        } else if (frame instanceof VehicleSpeedFrame) {
+            assertEquals(ColumnarCANTrace.SPEED, cursor.getKind());
+            assertEquals(((VehicleSpeedFrame) frame).getSpeed(), cursor.getSpeed());
+        } else if (frame instanceof VehicleDynamicsFrame) {
+            VehicleDynamicsFrame dynamics = (VehicleDynamicsFrame) frame;
+            assertEquals(ColumnarCANTrace.DYNAMICS, cursor.getKind());
+            assertEquals(dynamics.getYawRate(), cursor.getYawRate());
+            assertEquals(dynamics.getLatAccel(), cursor.getLatAccel());
+            assertEquals(dynamics.getLongAccel(), cursor.getLongAccel());
+        } else {
+            assertEquals(ColumnarCANTrace.OTHER, cursor.getKind());
+            // rows without columns hand out the frame that was added
+            assertSame(frame, cursor.toFrame());
+        }
+        assertEquals(frame.toString(), cursor.toFrame().toString());
+    }
+
+    private static List<String> strings(List<CANFrame> frames) {
+        return frames.stream().map(CANFrame::toString).toList();
+    }
+
+    @Test
+    void cursorReadsTheValuesOfEveryRow() {
+        List<CANFrame> frames = frames();
+        ColumnarCANTrace trace = columnar(frames);
+        assertEquals(ROWS, trace.size());
+        assertTrue(trace.otherFrameCount() > 0);
+
+        ColumnarCANTrace.Cursor cursor = trace.cursor();
+        for (int row = 0; row < ROWS; row++) {
+            assertTrue(cursor.next());
+            assertRow(frames.get(row), row, cursor);
+        }
+        assertFalse(cursor.next());
+
+        // getNextMessage creates the same frames as a plain trace returns
+        CANTrace plain = new CANTrace();
+        plain.addFrames(frames);
+        for (int row = 0; row < ROWS; row++) {
+            assertEquals(plain.getNextMessage().toString(), trace.getNextMessage().toString());
+        }
+        assertNull(trace.getNextMessage());
+    }
+
+    @Test
+    void cursorIsPlacedFromTheIndexAtAndAroundStrideBoundaries() {
+        List<CANFrame> frames = frames();
+        ColumnarCANTrace trace = columnar(frames);
+        int stride = TraceSnapshot.INDEX_STRIDE;
+        int[] targets = { 1, stride - 1, stride, stride + 1, 2 * stride - 1, 2 * stride, 2 * stride + 1, ROWS - 1 };
+        for (int target : targets) {
+            ColumnarCANTrace.Cursor cursor = trace.cursor();
+            cursor.moveBefore(target);
+            // the signal indexes come from the counts at the index entry,
+            // every following row must still read its own values
+            for (int row = target; row < Math.min(ROWS, target + stride + 2); row++) {
+                assertTrue(cursor.next(), "row " + row + " after moving before " + target);
+                assertRow(frames.get(row), row, cursor);
+            }
+        }
+        ColumnarCANTrace.Cursor cursor = trace.cursor();
+        cursor.moveBefore(ROWS);
+        assertFalse(cursor.next());
+
+        // seek goes through the same path
+        trace.seek(stride * 0.5);
+        assertEquals(frames.get(stride).toString(), trace.getNextMessage().toString());
+        trace.seek(stride * 0.5 - 0.25);
+        assertEquals(frames.get(stride).toString(), trace.getNextMessage().toString());
+    }
+
+    @Test
+    void boundedCursorStopsAtTheEndTime() {
+        List<CANFrame> frames = frames();
+        ColumnarCANTrace trace = columnar(frames);
+        CANTrace plain = new CANTrace();
+        plain.addFrames(frames);
+
+        // across both stride boundaries, and ends between two rows
+        double[][] ranges = { { 0, 10 }, { 400, 1200 }, { 511.75, 1024.25 }, { 1300, 5000 }, { 600, 600 }, { 800, 700 } };
+        for (double[] range : ranges) {
+            ColumnarCANTrace.Cursor cursor = trace.cursor(range[0], range[1]);
+            List<CANFrame> inRange = plain.range(range[0], range[1]);
+            int first = plain.indexOf(range[0]);
+            for (int i = 0; i < inRange.size(); i++) {
+                assertTrue(cursor.next());
+                assertRow(frames.get(first + i), first + i, cursor);
+            }
+            assertFalse(cursor.next(), "cursor over " + range[0] + " to " + range[1] + " went past the end");
+            assertEquals(strings(inRange), strings(trace.range(range[0], range[1])));
+        }
+    }
+
+    @Test
+    void viewHasItsOwnPosition() {
+        List<CANFrame> frames = frames();
+        ColumnarCANTrace trace = columnar(frames);
+        for (int i = 0; i < 3; i++) {
+            trace.getNextMessage();
+        }
+
+        ColumnarCANTrace view = trace.view();
+        assertEquals(frames.get(0).toString(), view.getNextMessage().toString());
+        view.seek(1100);
+        assertEquals(frames.get(2200).toString(), view.getNextMessage().toString());
+
+        // the trace is still where it was
+        assertEquals(frames.get(3).toString(), trace.getNextMessage().toString());
+        assertThrows(UnsupportedOperationException.class, () -> view.addFrame(frames.get(0)));
+    }
+
+    @Test
+    void memoryFootprintCountsTheUsedColumnsAfterTrimToSize() {
+        List<CANFrame> frames = frames();
+        ColumnarCANTrace trace = columnar(frames);
+        long steering = frames.stream().filter(frame -> frame instanceof SteeringWheelAngleFrame).count();
+        long speed = frames.stream().filter(frame -> frame instanceof VehicleSpeedFrame).count();
+        long dynamics = frames.stream().filter(frame -> frame instanceof VehicleDynamicsFrame).count();
+        long used = ROWS * 11L + (steering + speed) * 8 + dynamics * 3 * 8;
+
+        assertTrue(trace.memoryFootprint() > used);
+        trace.trimToSize();
+        assertEquals(used, trace.memoryFootprint());
+        assertEquals(steering, trace.steeringAngleColumn().length);
+        assertEquals(dynamics, trace.longAccelColumn().length);
+
+        // the trimmed columns still read the same values
+        ColumnarCANTrace.Cursor cursor = trace.cursor();
+        for (int row = 0; row < ROWS; row++) {
+            assertTrue(cursor.next());
+            assertRow(frames.get(row), row, cursor);
+        }
+    }
+}
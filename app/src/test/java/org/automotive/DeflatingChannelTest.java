@@ -0,0 +1,60 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.jupiter.api.Test;
+
+class DeflatingChannelTest {
+
+    private static final byte[] LINE = "CAN|0F7A|2600.4|SPEED|60.0\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void flushedBytesCanBeInflatedBeforeTheEnd() throws IOException {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        DeflatingChannel channel = DeflatingChannel.open(Channels.newChannel(sent));
+        for (int i = 0; i < 100; i++) {
+            channel.write(ByteBuffer.wrap(LINE));
+        }
+        channel.flush();
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(sent.toByteArray()));
+        assertEquals(DeflatingChannel.MAGIC, data.readInt());
+        byte[] inflated = new byte[100 * LINE.length];
+        new DataInputStream(new InflaterInputStream(data)).readFully(inflated);
+        assertArrayEquals(LINE, Arrays.copyOfRange(inflated, 99 * LINE.length, inflated.length));
+        // the repeated lines compress well
+        assertTrue(channel.getBytesOut() < channel.getBytesIn() / 10);
+    }
+
+    @Test
+    void finishEndsTheStream() throws IOException {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        DeflatingChannel channel = DeflatingChannel.open(Channels.newChannel(sent));
+        channel.write(new ByteBuffer[] { ByteBuffer.wrap(LINE), ByteBuffer.wrap(LINE) });
+        channel.finish();
+        assertFalse(channel.isOpen());
+
+        ByteArrayInputStream input = new ByteArrayInputStream(sent.toByteArray(), 4, sent.size() - 4);
+        assertArrayEquals(ByteBuffer.allocate(2 * LINE.length).put(LINE).put(LINE).array(),
+                new InflaterInputStream(input).readAllBytes());
+    }
+
+    @Test
+    void startRequestAsksForCompression() {
+        StartRequest request = StartRequest.parse("START compress=deflate flush=20");
+        assertTrue(request.isDeflate());
+        assertEquals(20, request.getFlushMs());
+        assertFalse(StartRequest.parse("START compress=zstd").isDeflate());
+        assertThrows(IllegalArgumentException.class, () -> StartRequest.parse("START compress=deflate flush=0"));
+    }
+}
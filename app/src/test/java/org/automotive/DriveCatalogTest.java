@@ -0,0 +1,114 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DriveCatalogTest {
+
+    @TempDir
+    Path dir;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    // a drive of ten speed frames, without a timeline
+    private Drive load(String id, Path directory) {
+        loads.incrementAndGet();
+        CANTrace canTrace = new CANTrace();
+        for (int i = 0; i < 10; i++) {
+            canTrace.addFrame(new VehicleSpeedFrame("0F7A", i * 10.0, 100));
+        }
+        return new Drive(id, canTrace, new GPSTrace(), null);
+    }
+
+    @Test
+    void listsTheDriveDirectories() throws IOException {
+        Files.createDirectory(dir.resolve("b"));
+        Files.createDirectory(dir.resolve("a"));
+        Files.createFile(dir.resolve("notes.txt"));
+        DriveCatalog catalog = new DriveCatalog(dir, DriveCatalog.DEFAULT_CACHE_BYTES, this::load);
+
+        assertEquals(List.of("a", "b"), catalog.driveIds());
+        assertThrows(NoSuchFileException.class, () -> catalog.get("c"));
+        assertThrows(IllegalArgumentException.class, () -> catalog.get(".."));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedDrive() throws IOException {
+        for (String id : List.of("a", "b", "c")) {
+            Files.createDirectory(dir.resolve(id));
+        }
+        long driveBytes = load("x", dir).memoryFootprint();
+        loads.set(0);
+        DriveCatalog catalog = new DriveCatalog(dir, 2 * driveBytes, this::load);
+
+        Drive a = catalog.get("a");
+        catalog.get("b");
+        assertSame(a, catalog.get("a"));
+        catalog.get("c");
+
+        // b was used least recently, a is still cached
+        assertEquals(2, catalog.cachedDriveCount());
+        assertEquals(2 * driveBytes, catalog.cachedBytes());
+        assertSame(a, catalog.get("a"));
+        catalog.get("b");
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void driveThatChangesWhileItIsLoadedIsNotCached() throws Exception {
+        Files.createDirectory(dir.resolve("a"));
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+        DriveCatalog catalog = new DriveCatalog(dir, DriveCatalog.DEFAULT_CACHE_BYTES, (id, directory) -> {
+            if (loads.get() == 0) {
+                loadStarted.countDown();
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return load(id, directory);
+        });
+
+        CompletableFuture<Drive> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return catalog.get("a");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+        // the watcher sees the change before the load has finished
+        catalog.invalidate("a");
+        changed.countDown();
+
+        // the session that asked gets the drive it loaded, but it is not cached
+        Drive stale = first.get(5, TimeUnit.SECONDS);
+        assertEquals(0, catalog.cachedDriveCount());
+        assertEquals(0, catalog.cachedBytes());
+        Drive loadedAgain = catalog.get("a");
+        assertNotSame(stale, loadedAgain);
+        assertSame(loadedAgain, catalog.get("a"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void startNamesTheDrive() {
+        assertEquals("drive-7", StartRequest.parse("START drive-7 speed=10").getDriveId());
+        assertNull(StartRequest.parse("START speed=10").getDriveId());
+        assertThrows(IllegalArgumentException.class, () -> StartRequest.parse("START ../drive"));
+    }
+}
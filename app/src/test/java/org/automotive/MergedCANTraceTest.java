@@ -0,0 +1,103 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class MergedCANTraceTest {
+
+    // a trace of speed frames at the times, in the given order
+    private static CANTrace trace(double... times) {
+        CANTrace trace = new CANTrace();
+        for (double time : times) {
+            trace.addFrame(new VehicleSpeedFrame("0F7A", time, 100));
+        }
+        return trace;
+    }
+
+    private static List<CANFrame> drain(CANTrace trace) {
+        List<CANFrame> frames = new ArrayList<>();
+        CANFrame frame;
+        while ((frame = trace.getNextMessage()) != null) {
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static double[] times(List<CANFrame> frames) {
+        return frames.stream().mapToDouble(CANFrame::getTimestamp).toArray();
+    }
+
+    private static int[] channels(List<CANFrame> frames) {
+        return frames.stream().mapToInt(CANFrame::getChannel).toArray();
+    }
+
+    @Test
+    void interleavesTheSourcesByTimeAndTagsTheirChannels() {
+        CANTrace first = trace(0, 20, 40, 50);
+        CANTrace second = trace(10, 30, 50);
+        MergedCANTrace merged = new MergedCANTrace(List.of(first, second));
+
+        List<CANFrame> frames = drain(merged);
+        assertArrayEquals(new double[] { 0, 10, 20, 30, 40, 50, 50 }, times(frames));
+        // the lower channel first on equal timestamps
+        assertArrayEquals(new int[] { 1, 2, 1, 2, 1, 1, 2 }, channels(frames));
+        assertEquals(7, merged.size());
+        assertEquals(0, merged.getLateFrameCount());
+
+        List<CANFrame> range = merged.range(10, 50);
+        assertArrayEquals(new double[] { 10, 20, 30, 40 }, times(range));
+        assertArrayEquals(new int[] { 2, 1, 2, 1 }, channels(range));
+    }
+
+    @Test
+    void indexOfIsThePositionInTheMergedStream() {
+        MergedCANTrace merged = new MergedCANTrace(List.of(trace(0, 20, 40, 50), trace(10, 20, 30)));
+        // merged: 0, 10, 20, 20, 30, 40, 50
+        assertEquals(0, merged.indexOf(-1));
+        assertEquals(0, merged.indexOf(0));
+        assertEquals(2, merged.indexOf(20));
+        assertEquals(4, merged.indexOf(25));
+        assertEquals(6, merged.indexOf(50));
+        assertEquals(7, merged.indexOf(51));
+        assertEquals(times(drain(merged)).length, merged.indexOf(Double.MAX_VALUE));
+    }
+
+    @Test
+    void sourceFramesAreNotChanged() {
+        CANTrace first = trace(0, 20);
+        CANTrace second = trace(10);
+        MergedCANTrace merged = new MergedCANTrace(List.of(first.view(), second.view()));
+        drain(merged);
+        merged.range(0, 100);
+
+        // other sessions replay the same frames without a channel
+        for (CANFrame frame : drain(first.view())) {
+            assertEquals(0, frame.getChannel());
+        }
+        assertEquals(0, second.view().getNextMessage().getChannel());
+    }
+
+    @Test
+    void framesInsideTheReorderWindowAreSorted() {
+        MergedCANTrace merged = new MergedCANTrace(List.of(trace(0, 10, 5, 12), trace(3)), 10.0, 16);
+
+        assertArrayEquals(new double[] { 0, 3, 5, 10, 12 }, times(drain(merged)));
+        assertEquals(0, merged.getLateFrameCount());
+    }
+
+    @Test
+    void framesLaterThanTheWindowAreReplayedAndCounted() {
+        MergedCANTrace merged = new MergedCANTrace(List.of(trace(0, 10, 30, 5)), 10.0, 16);
+
+        // 5 arrives after 30 was read, which is more than the window later, so 10 is already out
+        assertArrayEquals(new double[] { 0, 10, 5, 30 }, times(drain(merged)));
+        assertEquals(1, merged.getLateFrameCount());
+
+        merged.resetNextMessage();
+        assertEquals(4, drain(merged).size());
+    }
+}
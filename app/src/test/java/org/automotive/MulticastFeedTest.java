@@ -0,0 +1,48 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class MulticastFeedTest {
+
+    @Test
+    void datagramHeaderCarriesReplayAndSequence() {
+        ByteBuffer datagram = ByteBuffer.allocate(MulticastFeed.HEADER_SIZE + BinaryProtocol.RECORD_SIZE);
+        MulticastFeed.putHeader(datagram, 3, 1234);
+        datagram.put(BinaryProtocol.encode(new GPScoordinates(48.1, 11.5, 1000.0)));
+        datagram.flip();
+
+        assertTrue(MulticastFeed.isFeedDatagram(datagram));
+        assertEquals(3, MulticastFeed.replay(datagram));
+        assertEquals(1234, MulticastFeed.sequence(datagram));
+        datagram.position(MulticastFeed.HEADER_SIZE);
+        assertEquals(BinaryProtocol.GPS, BinaryProtocol.type(datagram));
+    }
+
+    @Test
+    void otherDatagramsAreNotFeedDatagrams() {
+        ByteBuffer datagram = ByteBuffer.allocate(MulticastFeed.HEADER_SIZE);
+        BinaryProtocol.putHeader(datagram);
+        datagram.flip();
+        assertFalse(MulticastFeed.isFeedDatagram(datagram));
+        assertFalse(MulticastFeed.isFeedDatagram(ByteBuffer.allocate(4)));
+    }
+
+    @Test
+    void parsesGroupWithDefaults() {
+        InetSocketAddress group = MulticastFeed.parseGroup("");
+        assertEquals(MulticastFeed.DEFAULT_GROUP, group.getAddress().getHostAddress());
+        assertEquals(MulticastFeed.DEFAULT_PORT, group.getPort());
+
+        group = MulticastFeed.parseGroup("239.1.2.3:6000");
+        assertEquals("239.1.2.3", group.getAddress().getHostAddress());
+        assertEquals(6000, group.getPort());
+
+        assertThrows(IllegalArgumentException.class, () -> MulticastFeed.parseGroup("192.168.0.1"));
+        assertThrows(IllegalArgumentException.class, () -> MulticastFeed.parseGroup("239.1.2.3:port"));
+    }
+}
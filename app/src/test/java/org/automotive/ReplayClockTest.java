@@ -0,0 +1,120 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class ReplayClockTest {
+
+    @Test
+    void skipDropsEventsThatAreTooLate() {
+        ReplayClock clock = new ReplayClock(ReplayClock.CatchUp.SKIP, 10.0);
+        clock.start(0.0);
+
+        assertTrue(clock.release(100.0, clock.deadlineNanos(100.0) + 5_000_000));
+        assertFalse(clock.release(200.0, clock.deadlineNanos(200.0) + 20_000_000));
+        assertEquals(1, clock.getEventCount());
+        assertEquals(1, clock.getSkippedCount());
+        assertEquals(5_000_000, clock.getMaxLatenessNanos());
+    }
+
+    @Test
+    void rebaseMovesTheClockByTheLag() {
+        ReplayClock clock = new ReplayClock(ReplayClock.CatchUp.REBASE, 10.0);
+        clock.start(0.0);
+        long deadline = clock.deadlineNanos(100.0);
+
+        assertTrue(clock.release(100.0, deadline + 30_000_000));
+        // the next event keeps its distance of 50 ms to the late one
+        assertEquals(deadline + 80_000_000, clock.deadlineNanos(150.0));
+    }
+
+    @Test
+    void percentilesAreBucketUpperBounds() {
+        ReplayClock clock = new ReplayClock();
+        clock.start(0.0);
+        for (int i = 0; i < 99; i++) {
+            clock.release(i, clock.deadlineNanos(i));
+        }
+        clock.release(99, clock.deadlineNanos(99) + 300_000);
+
+        assertEquals(1, clock.percentileMicros(0.5));
+        assertEquals(1, clock.percentileMicros(0.99));
+        assertEquals(512, clock.percentileMicros(1.0));
+    }
+
+    @Test
+    void awaitReturnsAtTheDeadline() {
+        ReplayClock clock = new ReplayClock();
+        clock.start(0.0);
+        assertTrue(clock.await(5.0));
+        assertTrue(System.nanoTime() >= clock.deadlineNanos(5.0));
+    }
+
+    @Test
+    void speedScalesTheDeadlines() {
+        ReplayClock clock = new ReplayClock();
+        clock.setSpeed(10.0);
+        clock.start(1000.0);
+        long start = clock.deadlineNanos(1000.0);
+
+        assertEquals(start + 100_000_000, clock.deadlineNanos(2000.0));
+
+        clock.setSpeed(ReplayClock.UNPACED);
+        assertTrue(clock.deadlineNanos(1_000_000.0) <= System.nanoTime());
+    }
+
+    @Test
+    void pacedSpeedGoesOnFromTheLastUnpacedEvent() {
+        ReplayClock clock = new ReplayClock();
+        clock.setSpeed(ReplayClock.UNPACED);
+        clock.start(0.0);
+        assertTrue(clock.await(60_000.0));
+
+        clock.setSpeed(1.0);
+        long deadline = clock.deadlineNanos(60_010.0);
+        // due 10 ms after now, not 60 s after the start of the unpaced run
+        assertTrue(deadline - System.nanoTime() <= 10_000_000);
+        assertTrue(clock.await(60_010.0));
+    }
+
+    @Test
+    void pauseStopsTheSimulationTime() throws InterruptedException {
+        ReplayClock clock = new ReplayClock();
+        clock.start(0.0);
+        long deadline = clock.deadlineNanos(100.0);
+
+        clock.pause();
+        assertTrue(clock.isPaused());
+        assertEquals(Long.MAX_VALUE, clock.deadlineNanos(100.0));
+        Thread.sleep(20);
+        clock.resume();
+
+        // the event is due at least as much later as the clock was paused
+        assertTrue(clock.deadlineNanos(100.0) >= deadline + 20_000_000);
+    }
+
+    @Test
+    void seekMovesTheClockAndInterruptsAwait() {
+        ReplayClock clock = new ReplayClock();
+        clock.start(0.0);
+        clock.seek(60_000.0);
+
+        // the event of the old position is not sent
+        assertFalse(clock.await(10_000.0));
+        assertEquals(60_000.0, clock.takeSeek());
+        assertTrue(Double.isNaN(clock.takeSeek()));
+        assertTrue(clock.deadlineNanos(60_000.0) <= System.nanoTime());
+        assertTrue(clock.await(60_001.0));
+    }
+
+    @Test
+    void parsesSpeedFactors() {
+        assertEquals(0.5, ReplayClock.parseSpeed("0.5x"));
+        assertEquals(100.0, ReplayClock.parseSpeed("100"));
+        assertEquals(ReplayClock.UNPACED, ReplayClock.parseSpeed("max"));
+        assertEquals(ReplayClock.UNPACED, StartRequest.parse("START speed=unpaced").getSpeed());
+        assertThrows(IllegalArgumentException.class, () -> ReplayClock.parseSpeed("0"));
+        assertThrows(IllegalArgumentException.class, () -> StartRequest.parse("START speed=fast"));
+    }
+}
@@ -0,0 +1,209 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReplaySessionTest {
+
+    @TempDir
+    Path dir;
+
+    // steering and speed frames every 10 ms and a coordinate every second
+    private static CANTrace canTrace() {
+        CANTrace trace = new CANTrace();
+        for (int i = 0; i < 400; i++) {
+            trace.addFrame(i % 2 == 0 ? new SteeringWheelAngleFrame("0018", i * 10.0, 4096 + i)
+                    : new VehicleSpeedFrame("0F7A", i * 10.0, i));
+        }
+        return trace;
+    }
+
+    private static GPSTrace gpsTrace() {
+        GPSTrace trace = new GPSTrace();
+        for (int i = 0; i < 4; i++) {
+            trace.addCoordinate(new GPScoordinates(48.1 + i * 0.001, 11.5 + i * 0.001, i * 1000.0));
+        }
+        return trace;
+    }
+
+    // the messages of the events at or after fromMs as a session sends them, GPS first at equal times
+    private static byte[] expected(CANTrace canTrace, GPSTrace gpsTrace, double fromMs, boolean binary) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (binary) {
+            ByteBuffer header = ByteBuffer.allocate(BinaryProtocol.HEADER_SIZE);
+            BinaryProtocol.putHeader(header);
+            bytes.writeBytes(header.array());
+        }
+        CANTrace frames = canTrace.view();
+        GPSTrace coordinates = gpsTrace.view();
+        frames.seek(fromMs);
+        coordinates.seek(fromMs);
+        CANFrame frame = frames.getNextMessage();
+        GPScoordinates coordinate = coordinates.getNextCoordinate();
+        while (frame != null || coordinate != null) {
+            if (coordinate != null && (frame == null || coordinate.getTimeOffset() <= frame.getTimestamp())) {
+                bytes.writeBytes(binary ? BinaryProtocol.encode(coordinate)
+                        : (CANTraceSimulation.formatGPSMessage(coordinate) + "\n").getBytes(StandardCharsets.UTF_8));
+                coordinate = coordinates.getNextCoordinate();
+            } else {
+                bytes.writeBytes(binary ? BinaryProtocol.encode(frame)
+                        : (CANTraceSimulation.formatCANMessage(frame) + "\n").getBytes(StandardCharsets.UTF_8));
+                frame = frames.getNextMessage();
+            }
+        }
+        if (binary) {
+            ByteBuffer end = ByteBuffer.allocate(BinaryProtocol.RECORD_SIZE);
+            BinaryProtocol.putEnd(end);
+            bytes.writeBytes(end.array());
+        } else {
+            bytes.writeBytes("SIMULATION_COMPLETE\n".getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Connects a client for every START line, each to its own session on a
+     * virtual thread with views of the traces, as the simulator does, and
+     * returns what the clients received.
+     */
+    private byte[][] replay(CANTrace canTrace, GPSTrace gpsTrace, Timeline timeline, String... startLines)
+            throws Exception {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(dir.resolve("sessions.sock"));
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            SocketChannel[] clients = new SocketChannel[startLines.length];
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = SocketChannel.open(address);
+                ReplaySession session = new ReplaySession(i + 1, server.accept(), canTrace.view(), gpsTrace.view(),
+                        new ReplayClock(), timeline);
+                Thread.ofVirtual().start(session);
+            }
+
+            // the clients start at the same time and read concurrently
+            @SuppressWarnings("unchecked")
+            CompletableFuture<byte[]>[] received = new CompletableFuture[clients.length];
+            for (int i = 0; i < clients.length; i++) {
+                SocketChannel client = clients[i];
+                String line = startLines[i];
+                received[i] = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        client.write(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+                        return readAll(client);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+            byte[][] result = new byte[clients.length][];
+            for (int i = 0; i < clients.length; i++) {
+                result[i] = received[i].get();
+            }
+            return result;
+        }
+    }
+
+    private static List<String> lines(byte[] received) {
+        return Arrays.asList(new String(received, StandardCharsets.UTF_8).split("\n"));
+    }
+
+    // reads until the session closes the connection
+    private static byte[] readAll(SocketChannel channel) throws IOException {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (channel.read(buffer) >= 0) {
+            received.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        channel.close();
+        return received.toByteArray();
+    }
+
+    @Test
+    void twoSessionsReplayFromTheirOwnPositions() throws Exception {
+        CANTrace canTrace = canTrace();
+        GPSTrace gpsTrace = gpsTrace();
+        Timeline timeline = Timeline.build(canTrace, gpsTrace);
+        assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+            byte[][] received = replay(canTrace, gpsTrace, timeline,
+                    "START speed=max", "START from=1500 speed=max proto=binary");
+            assertArrayEquals(expected(canTrace, gpsTrace, 0, false), received[0]);
+            assertArrayEquals(expected(canTrace, gpsTrace, 1500, true), received[1]);
+        });
+        // the sessions replayed views, the traces themselves did not move
+        assertEquals(0.0, canTrace.getNextMessage().getTimestamp());
+        assertEquals(0.0, gpsTrace.getNextCoordinate().getTimeOffset());
+    }
+
+    @Test
+    void twoSessionsWithoutATimelineEncodeTheSameMessages() throws Exception {
+        CANTrace canTrace = canTrace();
+        GPSTrace gpsTrace = gpsTrace();
+        assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+            byte[][] received = replay(canTrace, gpsTrace, null,
+                    "START from=2000 speed=max", "START speed=max proto=binary");
+            assertArrayEquals(expected(canTrace, gpsTrace, 2000, false), received[0]);
+            assertArrayEquals(expected(canTrace, gpsTrace, 0, true), received[1]);
+        });
+    }
+
+    @Test
+    void slowClientOfAPacedReplayGetsTheLatestValuePerId() throws Exception {
+        // speed and steering frames every ms, far more than a client that doesn't read can buffer
+        CANTrace canTrace = new CANTrace();
+        for (int i = 0; i < 40_000; i++) {
+            canTrace.addFrame(i % 2 == 0 ? new VehicleSpeedFrame("0F7A", i, i % 4096)
+                    : new SteeringWheelAngleFrame("0018", i, i % 4096));
+        }
+        GPSTrace gpsTrace = new GPSTrace();
+        List<String> expected = lines(expected(canTrace, gpsTrace, 0, false));
+        Timeline timeline = Timeline.build(canTrace, gpsTrace);
+
+        for (Timeline sessionTimeline : Arrays.asList(timeline, null)) {
+            UnixDomainSocketAddress address = UnixDomainSocketAddress
+                    .of(dir.resolve((sessionTimeline != null ? "timeline" : "traces") + ".sock"));
+            try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                server.bind(address);
+                SocketChannel slow = SocketChannel.open(address);
+                Thread.ofVirtual().start(new ReplaySession(1, server.accept(), canTrace.view(), gpsTrace.view(),
+                        new ReplayClock(), sessionTimeline));
+                slow.write(ByteBuffer.wrap("START speed=40\n".getBytes(StandardCharsets.UTF_8)));
+                assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                    // the 40 s drive is replayed in 1 s while the client reads nothing,
+                    // then the session waits for it to read
+                    Thread.sleep(2000);
+
+                    // the client gets the messages that were queued while it was not
+                    // behind, and only the newest message of each id while it was
+                    List<String> slowLines = lines(readAll(slow));
+                    assertTrue(slowLines.size() < expected.size() / 2, "slow client got " + slowLines.size() + " lines");
+                    assertTrue(new HashSet<>(expected).containsAll(slowLines));
+                    assertEquals(expected.get(0), slowLines.get(0));
+                    int queued = slowLines.size() - 3;
+                    String lastSpeed = expected.get(expected.size() - 3);
+                    String lastSteering = expected.get(expected.size() - 2);
+                    assertTrue(lastSpeed.startsWith("CAN|0F7A|") && lastSteering.startsWith("CAN|0018|"));
+                    assertEquals(List.of(lastSpeed, lastSteering).stream().sorted().toList(),
+                            slowLines.subList(queued, queued + 2).stream().sorted().toList());
+                    assertEquals("SIMULATION_COMPLETE", slowLines.get(slowLines.size() - 1));
+                });
+            }
+        }
+    }
+}
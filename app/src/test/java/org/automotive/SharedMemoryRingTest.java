@@ -0,0 +1,60 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SharedMemoryRingTest {
+
+    @TempDir
+    Path dir;
+
+    private static ByteBuffer gps(double timestampMs) {
+        return ByteBuffer.wrap(BinaryProtocol.encode(new GPScoordinates(48.1, 11.5, timestampMs)));
+    }
+
+    @Test
+    void readerGetsTheRecordsWrittenAfterIt() throws IOException {
+        Path file = dir.resolve("test.ring");
+        SharedMemoryRing writer = SharedMemoryRing.create(file, 8);
+        writer.publish(gps(1.0));
+        SharedMemoryRing.Reader reader = SharedMemoryRing.open(file).reader();
+        writer.publish(gps(2.0));
+        writer.publish(gps(3.0));
+
+        ByteBuffer record = ByteBuffer.allocate(BinaryProtocol.RECORD_SIZE);
+        assertTrue(reader.poll(record));
+        assertEquals(2.0, BinaryProtocol.timestamp(record.flip()));
+        assertTrue(reader.poll(record.clear()));
+        assertEquals(3.0, BinaryProtocol.timestamp(record.flip()));
+        assertFalse(reader.poll(record.clear()));
+    }
+
+    @Test
+    void slowReaderSkipsTheRecordsWrittenOver() throws IOException {
+        SharedMemoryRing writer = SharedMemoryRing.create(dir.resolve("test.ring"), 4);
+        SharedMemoryRing.Reader reader = writer.reader();
+        for (int i = 0; i < 10; i++) {
+            writer.publish(gps(i));
+        }
+
+        // the oldest record left is the one the writer hands over next
+        ByteBuffer record = ByteBuffer.allocate(BinaryProtocol.RECORD_SIZE);
+        assertTrue(reader.poll(record));
+        assertEquals(7.0, BinaryProtocol.timestamp(record.flip()));
+        assertEquals(7, reader.lost());
+    }
+
+    @Test
+    void rejectsOtherFilesAndCapacities() throws IOException {
+        Path file = Files.write(dir.resolve("other.ring"), new byte[256]);
+        assertThrows(IOException.class, () -> SharedMemoryRing.open(file));
+        assertThrows(IllegalArgumentException.class, () -> SharedMemoryRing.create(dir.resolve("test.ring"), 6));
+    }
+}
@@ -0,0 +1,47 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class SignalDatabaseTest {
+
+    @Test
+    void defaultDatabaseMatchesTheFrameInfoFile() {
+        SignalDatabase database = SignalDatabase.getDefault();
+        assertEquals(5, database.getSignals().size());
+
+        // By7Bi5-By6Bi0: the 14 low bits of the first two data bytes
+        CANFrame frame = database.decoderFor(0x0018).decode(4.0, 0x1004_0000_0000_0000L);
+        assertEquals(0x1004 * 0.5 - 2048, ((SteeringWheelAngleFrame) frame).getAngle());
+        assertNull(database.decoderFor(0x0123));
+    }
+
+    @Test
+    void unknownFrameTypesBecomeSignalFrames() throws IOException {
+        SignalDatabase database = SignalDatabase.load(new StringReader(
+                "Frame ID; data field location; size; description; range; raw range; step\n"
+                        + "0123; By7Bi7-By7Bi0; 8 bit; Coolant temperature; -40 - +215 °C; 0 - 255; 1 °C\n"
+                        + "0123; By6Bi3-By6Bi0; 4 bit; Gear; 0 - 15; 0 - 15; 1\n"));
+
+        String line = "     1)        10.0  Rx         0123  8  50 0C 00 00 00 00 00 00";
+        ByteBuffer buf = ByteBuffer.wrap(line.getBytes(StandardCharsets.ISO_8859_1));
+        SignalFrame frame = (SignalFrame) new CANTraceByteParser(database).parseLine(buf, 0, buf.capacity());
+
+        assertEquals(2, frame.getSignalCount());
+        assertEquals("Coolant temperature", frame.getSignalName(0));
+        assertEquals(0x50 - 40.0, frame.getValue(0));
+        assertEquals(0x0C, frame.getValue(1));
+    }
+
+    @Test
+    void rejectsSizeThatDoesNotMatchTheLocation() {
+        assertThrows(IOException.class, () -> SignalDatabase.load(new StringReader(
+                "0018; By7Bi5-By6Bi0; 12 bit; Steering wheel angle; -2048 - +2047°; 0 - 8190; 0.5 °\n")));
+    }
+}
@@ -0,0 +1,157 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StreamingCANTraceTest {
+
+    @TempDir
+    Path dir;
+
+    // a PCAN trace of speed frames at 0, 10, 20, ... ms
+    private String writeTrace(int frames) throws IOException {
+        StringBuilder text = new StringBuilder(";$FILEVERSION=1.1\n");
+        for (int i = 0; i < frames; i++) {
+            text.append(String.format(Locale.ROOT, "%6d)%12.1f  Rx         0F7A  8  02 58 00 00 00 00 00 00%n", i + 1, i * 10.0));
+        }
+        Path file = dir.resolve("trace.trc");
+        Files.writeString(file, text);
+        return file.toString();
+    }
+
+    @Test
+    void streamsTheFramesOfTheFile() throws IOException {
+        StreamingCANTrace trace = new StreamingCANTrace(writeTrace(100), 8);
+        for (int i = 0; i < 100; i++) {
+            CANFrame frame = trace.getNextMessage();
+            assertEquals(i * 10.0, frame.getTimestamp());
+            assertEquals(0x258 * 0.1, ((VehicleSpeedFrame) frame).getSpeed());
+        }
+        assertNull(trace.getNextMessage());
+        assertNull(trace.getNextMessage());
+    }
+
+    @Test
+    void isNotSizedButCountsItsFrames() throws IOException {
+        StreamingCANTrace trace = new StreamingCANTrace(writeTrace(25));
+        assertFalse(trace.isSized());
+        assertEquals(25, trace.size());
+        assertFalse(new MergedCANTrace(List.of(trace, new CANTrace())).isSized());
+        assertEquals(25, new MergedCANTrace(List.of(trace, new CANTrace())).size());
+        assertThrows(UnsupportedOperationException.class, () -> trace.addFrame(trace.getNextMessage()));
+    }
+
+    @Test
+    void resetStartsAgainFromTheBeginning() throws IOException {
+        StreamingCANTrace trace = new StreamingCANTrace(writeTrace(50), 4);
+        for (int i = 0; i < 20; i++) {
+            trace.getNextMessage();
+        }
+        trace.resetNextMessage();
+        assertEquals(0.0, trace.getNextMessage().getTimestamp());
+
+        // also after the end
+        while (trace.getNextMessage() != null) {
+        }
+        trace.resetNextMessage();
+        assertEquals(0.0, trace.getNextMessage().getTimestamp());
+    }
+
+    @Test
+    void closedTraceIsReadAgainFromTheBeginning() throws IOException {
+        StreamingCANTrace trace = new StreamingCANTrace(writeTrace(50), 4);
+        trace.getNextMessage();
+        trace.getNextMessage();
+        trace.close();
+        assertEquals(0.0, trace.getNextMessage().getTimestamp());
+    }
+
+    @Test
+    void seekSkipsToTheFirstFrameAtOrAfterTheTime() throws IOException {
+        StreamingCANTrace trace = new StreamingCANTrace(writeTrace(50), 4);
+        trace.seek(205.0);
+        assertEquals(210.0, trace.getNextMessage().getTimestamp());
+        assertEquals(220.0, trace.getNextMessage().getTimestamp());
+
+        // backwards, to an exact timestamp
+        trace.seek(30.0);
+        assertEquals(30.0, trace.getNextMessage().getTimestamp());
+
+        trace.seek(1_000.0);
+        assertNull(trace.getNextMessage());
+    }
+
+    @Test
+    void indexOfCountsTheFramesBeforeTheTime() throws IOException {
+        StreamingCANTrace trace = new StreamingCANTrace(writeTrace(50), 4);
+        assertEquals(0, trace.indexOf(-5.0));
+        assertEquals(0, trace.indexOf(0.0));
+        assertEquals(21, trace.indexOf(205.0));
+        assertEquals(21, trace.indexOf(210.0));
+        assertEquals(49, trace.indexOf(490.0));
+        assertEquals(50, trace.indexOf(491.0));
+        // the position of the replay doesn't move
+        assertEquals(0.0, trace.getNextMessage().getTimestamp());
+    }
+
+    @Test
+    void viewsReadTheFileOnTheirOwn() throws IOException {
+        StreamingCANTrace trace = new StreamingCANTrace(writeTrace(10), 4);
+        trace.getNextMessage();
+        CANTrace view = trace.view();
+        assertEquals(0.0, view.getNextMessage().getTimestamp());
+        assertEquals(10.0, trace.getNextMessage().getTimestamp());
+        assertEquals(List.of(20.0, 30.0), trace.range(20, 40).stream().map(CANFrame::getTimestamp).toList());
+    }
+
+    @Test
+    void unreadableFileIsNotAnEmptyRange() throws IOException {
+        String file = writeTrace(10);
+        StreamingCANTrace trace = new StreamingCANTrace(file, 4);
+        Files.delete(Path.of(file));
+        assertThrows(UncheckedIOException.class, () -> trace.range(0, 100));
+        assertThrows(UncheckedIOException.class, () -> trace.indexOf(50));
+    }
+
+    @Test
+    void parserErrorEndsTheTrace() throws IOException {
+        String file = writeTrace(10);
+        StreamingCANTrace trace = new StreamingCANTrace(file, 4) {
+            @Override
+            ByteLineParser parser() {
+                CANTraceByteParser pcan = new CANTraceByteParser();
+                return new ByteLineParser(SignalDatabase.getDefault()) {
+                    private int lines = 0;
+
+                    @Override
+                    CANFrame parseLine(ByteBuffer buf, int start, int end) {
+                        if (++lines == 5)
+                            throw new NumberFormatException("malformed line");
+                        return pcan.parseLine(buf, start, end);
+                    }
+                };
+            }
+        };
+
+        // the frames before the bad line, then the end instead of waiting forever
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            int frames = 0;
+            while (trace.getNextMessage() != null) {
+                frames++;
+            }
+            assertEquals(3, frames);
+            assertNull(trace.getNextMessage());
+        });
+    }
+}
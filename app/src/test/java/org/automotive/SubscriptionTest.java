@@ -0,0 +1,42 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class SubscriptionTest {
+
+    @Test
+    void filtersByTypeAndId() {
+        Subscription subscription = Subscription.parse("SPEED,gps,0B41");
+
+        assertTrue(subscription.accept(new VehicleSpeedFrame("0F7A", 1.0, 100)));
+        assertFalse(subscription.accept(new SteeringWheelAngleFrame("0018", 1.0, 4096)));
+        assertTrue(subscription.accept(new VehicleDynamicsFrame("0B41", 1.0, 0, 0, 0)));
+        assertTrue(subscription.accept(new GPScoordinates(48.0, 11.0, 0.0)));
+        assertTrue(Subscription.everything().accept(new SteeringWheelAngleFrame("0018", 1.0, 4096)));
+    }
+
+    @Test
+    void decimatesToTheRateInSimulationTime() {
+        Subscription subscription = Subscription.parse("STEERING@20");
+        int sent = 0;
+        // 100 Hz for one second
+        for (int i = 0; i < 100; i++) {
+            if (subscription.accept(new SteeringWheelAngleFrame("0018", 0.4 + i * 10.0, 4096)))
+                sent++;
+        }
+        assertEquals(20, sent);
+
+        // after a reset the next frame is sent again
+        subscription.reset();
+        assertTrue(subscription.accept(new SteeringWheelAngleFrame("0018", 0.4, 4096)));
+    }
+
+    @Test
+    void rejectsUnknownEntries() {
+        assertThrows(IllegalArgumentException.class, () -> Subscription.parse("BRAKES"));
+        assertThrows(IllegalArgumentException.class, () -> Subscription.parse("SPEED@0"));
+        assertThrows(IllegalArgumentException.class, () -> StartRequest.parse("START subscribe=SPEED@fast"));
+    }
+}
@@ -0,0 +1,98 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TimeIndexTest {
+
+    private static final int STRIDE = TimeIndex.DEFAULT_STRIDE;
+
+    // index of the first time at or after the timestamp, by looking at every element
+    private static int linearLowerBound(double[] times, double timestampMs) {
+        int i = 0;
+        while (i < times.length && times[i] < timestampMs) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void assertLowerBounds(double[] times) {
+        TimeIndex index = TimeIndex.build(times.length, i -> times[i]);
+        for (double time : times) {
+            for (double query : new double[] { time - 0.5, time, time + 0.5 }) {
+                assertEquals(linearLowerBound(times, query), index.lowerBound(query), "at " + query);
+            }
+        }
+    }
+
+    @Test
+    void findsElementsAroundTheBlockBoundaries() {
+        // frames every 10 ms over three full blocks and part of a fourth
+        double[] times = new double[3 * STRIDE + 7];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = i * 10.0;
+        }
+        TimeIndex index = TimeIndex.build(times.length, i -> times[i]);
+        for (int block = 1; block <= 3; block++) {
+            int first = block * STRIDE;
+            assertEquals(first - 1, index.lowerBound(times[first - 1]));
+            assertEquals(first, index.lowerBound(times[first - 1] + 1));
+            assertEquals(first, index.lowerBound(times[first]));
+            assertEquals(first + 1, index.lowerBound(times[first] + 1));
+        }
+        assertLowerBounds(times);
+    }
+
+    @Test
+    void findsTheFirstAndTheLastElement() {
+        double[] times = new double[2 * STRIDE];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = 1000 + i;
+        }
+        TimeIndex index = TimeIndex.build(times.length, i -> times[i]);
+        assertEquals(0, index.lowerBound(1000));
+        assertEquals(times.length - 1, index.lowerBound(times[times.length - 1]));
+        assertEquals(times.length - 1, index.lowerBound(times[times.length - 1] - 0.5));
+    }
+
+    @Test
+    void timestampsOutsideTheSequence() {
+        double[] times = new double[STRIDE + 1];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = 500 + i * 2.0;
+        }
+        TimeIndex index = TimeIndex.build(times.length, i -> times[i]);
+        assertEquals(0, index.lowerBound(0));
+        assertEquals(0, index.lowerBound(-1e9));
+        assertEquals(0, index.lowerBound(Double.NEGATIVE_INFINITY));
+        assertEquals(times.length, index.lowerBound(times[times.length - 1] + 0.001));
+        assertEquals(times.length, index.lowerBound(Double.MAX_VALUE));
+        assertEquals(times.length, index.lowerBound(Double.POSITIVE_INFINITY));
+
+        TimeIndex empty = TimeIndex.build(0, i -> Double.NaN);
+        assertEquals(0, empty.lowerBound(0));
+        assertEquals(0, empty.lowerBound(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    void equalTimestampsAcrossABoundaryFindTheFirst() {
+        // the same time from the middle of the first block into the second
+        double[] times = new double[2 * STRIDE + 3];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = i < STRIDE / 2 ? i : i < STRIDE + 10 ? STRIDE : STRIDE + i;
+        }
+        TimeIndex index = TimeIndex.build(times.length, i -> times[i]);
+        assertEquals(STRIDE / 2, index.lowerBound(STRIDE));
+        assertEquals(STRIDE + 10, index.lowerBound(STRIDE + 0.5));
+        assertLowerBounds(times);
+    }
+
+    @Test
+    void keysFromASnapshotMustFitTheSize() {
+        double[] times = new double[STRIDE + 1];
+        assertNull(TimeIndex.fromKeys(times.length, new double[1], i -> times[i]));
+        assertNotNull(TimeIndex.fromKeys(times.length, new double[2], i -> times[i]));
+        assertThrows(IllegalStateException.class, () -> TimeIndex.build(2, i -> 1 - i));
+    }
+}
@@ -0,0 +1,106 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class TimelineTest {
+
+    // bytes [start(index), end(index)) of the encoding
+    private static byte[] event(Timeline.Encoding encoding, int index) {
+        ByteBuffer bytes = encoding.view();
+        bytes.limit(encoding.end(index)).position(encoding.start(index));
+        byte[] event = new byte[bytes.remaining()];
+        bytes.get(event);
+        return event;
+    }
+
+    @Test
+    void eventsAreEncodedAsASessionSendsThem() throws IOException {
+        CANTrace canTrace = new CANTrace();
+        canTrace.addFrame(new SteeringWheelAngleFrame("0018", 0.0, 4100));
+        canTrace.addFrame(new VehicleSpeedFrame("0F7A", 10.0, 600));
+        canTrace.addFrame(new VehicleDynamicsFrame("0B41", 1000.0, 0x7F, 0x80, 0x8000).withChannel(2));
+        canTrace.addFrame(new VehicleSpeedFrame("0F7A", 1000.0, 601));
+        GPSTrace gpsTrace = new GPSTrace();
+        gpsTrace.addCoordinate(new GPScoordinates(48.137154, 11.576124, 5.0));
+        gpsTrace.addCoordinate(new GPScoordinates(48.137200, 11.576200, 1000.0));
+
+        Timeline timeline = Timeline.build(canTrace, gpsTrace);
+
+        // a coordinate comes before the frames with its time
+        Object[] events = { canTrace.range(0, 1).get(0), gpsTrace.getCoordinateAt(0), canTrace.range(10, 11).get(0),
+                gpsTrace.getCoordinateAt(1), canTrace.range(1000, 1001).get(0), canTrace.range(1000, 1001).get(1) };
+        assertEquals(events.length, timeline.size());
+        for (int i = 0; i < events.length; i++) {
+            String text;
+            byte[] binary;
+            if (events[i] instanceof CANFrame) {
+                CANFrame frame = (CANFrame) events[i];
+                text = CANTraceSimulation.formatCANMessage(frame);
+                binary = BinaryProtocol.encode(frame);
+                assertEquals(frame.getTimestamp(), timeline.time(i));
+            } else {
+                GPScoordinates coordinate = (GPScoordinates) events[i];
+                text = CANTraceSimulation.formatGPSMessage(coordinate);
+                binary = BinaryProtocol.encode(coordinate);
+                assertEquals(coordinate.getTimeOffset(), timeline.time(i));
+            }
+            assertEquals(text + "\n", new String(event(timeline.text(), i), StandardCharsets.UTF_8), "event " + i);
+            assertArrayEquals(binary, event(timeline.binary(), i));
+        }
+    }
+
+    @Test
+    void eventsFollowEachOtherWithoutGaps() throws IOException {
+        CANTrace canTrace = new CANTrace();
+        for (int i = 0; i < 3000; i++) {
+            canTrace.addFrame(new VehicleSpeedFrame("0F7A", i * 2.0, i % 4096));
+        }
+        GPSTrace gpsTrace = new GPSTrace();
+        for (int i = 0; i < 6; i++) {
+            gpsTrace.addCoordinate(new GPScoordinates(48.1, 11.5, i * 1000.0 + 1));
+        }
+        Timeline timeline = Timeline.build(canTrace, gpsTrace);
+        int size = timeline.size();
+        assertEquals(3006, size);
+
+        for (Timeline.Encoding encoding : new Timeline.Encoding[] { timeline.text(), timeline.binary() }) {
+            assertEquals(0, encoding.start(0));
+            for (int i = 0; i < size - 1; i++) {
+                assertEquals(encoding.end(i), encoding.start(i + 1));
+                assertTrue(encoding.start(i) < encoding.end(i));
+            }
+            // start(size()) is the end of the last event and of the encoding
+            assertEquals(encoding.end(size - 1), encoding.start(size));
+            assertEquals(encoding.start(size), encoding.view().remaining());
+        }
+        assertEquals((long) size * BinaryProtocol.RECORD_SIZE, timeline.binary().start(size));
+
+        // the same events as a replay of the traces
+        StringBuilder text = new StringBuilder();
+        CANTrace frames = canTrace.view();
+        GPSTrace coordinates = gpsTrace.view();
+        CANFrame frame = frames.getNextMessage();
+        GPScoordinates coordinate = coordinates.getNextCoordinate();
+        while (frame != null || coordinate != null) {
+            if (coordinate != null && (frame == null || coordinate.getTimeOffset() <= frame.getTimestamp())) {
+                text.append(CANTraceSimulation.formatGPSMessage(coordinate)).append('\n');
+                coordinate = coordinates.getNextCoordinate();
+            } else {
+                text.append(CANTraceSimulation.formatCANMessage(frame)).append('\n');
+                frame = frames.getNextMessage();
+            }
+        }
+        ByteBuffer all = timeline.text().view();
+        assertEquals(text.toString(), StandardCharsets.UTF_8.decode(all).toString());
+
+        assertEquals(0, timeline.indexOf(-1));
+        assertEquals(2, timeline.indexOf(1.5));
+        assertEquals(size, timeline.indexOf(6000));
+    }
+}
@@ -0,0 +1,56 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+    @Test
+    void expiresEveryEntryAtItsTick() {
+        // ticks on the first three levels and on the boundaries between them
+        long[] ticks = { 1, 255, 256, 257, 1000, 65_535, 65_536, 70_000, 3_000_000 };
+        TimingWheel wheel = new TimingWheel(ticks.length);
+        for (int entry = 0; entry < ticks.length; entry++) {
+            wheel.schedule(entry, ticks[entry]);
+        }
+
+        long[] expiredAt = new long[ticks.length];
+        wheel.advance(3_000_000, entry -> expiredAt[entry] = wheel.currentTick());
+        assertArrayEquals(ticks, expiredAt);
+    }
+
+    @Test
+    void entriesCanBeScheduledAgainWhenTheyExpire() {
+        TimingWheel wheel = new TimingWheel(2);
+        List<Long> expired = new ArrayList<>();
+        wheel.schedule(0, 100);
+        wheel.schedule(1, 300);
+        wheel.advance(1000, entry -> {
+            expired.add(wheel.currentTick());
+            if (entry == 0)
+                wheel.schedule(0, wheel.currentTick() + 300);
+        });
+        assertEquals(List.of(100L, 300L, 400L, 700L, 1000L), expired);
+    }
+
+    @Test
+    void pastTicksExpireWithTheNextTick() {
+        TimingWheel wheel = new TimingWheel(1);
+        wheel.advance(500, entry -> fail());
+        long[] expiredAt = new long[1];
+        wheel.schedule(0, 10);
+        wheel.advance(1000, entry -> expiredAt[0] = wheel.currentTick());
+        assertEquals(501, expiredAt[0]);
+    }
+
+    @Test
+    void fleetRequestsChooseTheProtocol() {
+        assertFalse(FleetReplay.parseRequest("FLEET"));
+        assertTrue(FleetReplay.parseRequest("FLEET proto=binary"));
+        assertThrows(IllegalArgumentException.class, () -> FleetReplay.parseRequest("FLEET speed=10"));
+    }
+}
@@ -0,0 +1,169 @@
+package org.automotive;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TraceSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    // a PCAN trace that alternates speed and steering frames every 10 ms
+    private String writeCANTrace(int frames) throws IOException {
+        StringBuilder text = new StringBuilder(";$FILEVERSION=1.1\n");
+        for (int i = 0; i < frames; i++) {
+            String id = i % 2 == 0 ? "0F7A" : "0003";
+            text.append(String.format(Locale.ROOT, "%6d)%12.1f  Rx         %s  8  02 %02X 00 00 00 00 00 00%n",
+                    i + 1, i * 10.0, id, i % 256));
+        }
+        Path file = dir.resolve("trace.trc");
+        Files.writeString(file, text);
+        return file.toString();
+    }
+
+    private String writeGPSTrace(int coordinates) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < coordinates; i++) {
+            text.append(String.format(Locale.ROOT, "%.6f, %.6f;%n", 52.5 + i * 0.0001, 13.4 - i * 0.0001));
+        }
+        Path file = dir.resolve("gps.txt");
+        Files.writeString(file, text);
+        return file.toString();
+    }
+
+    private static List<String> frames(CANTrace trace) {
+        List<String> frames = new ArrayList<>();
+        trace.resetNextMessage();
+        for (CANFrame frame = trace.getNextMessage(); frame != null; frame = trace.getNextMessage()) {
+            frames.add(frame.toString());
+        }
+        return frames;
+    }
+
+    @Test
+    void canSnapshotIsWrittenAndLoadedAgain() throws IOException {
+        String path = writeCANTrace(500);
+        List<String> parsed = frames(CANTraceParser.parseCANTraceFileColumnar(path));
+
+        assertNull(TraceSnapshot.loadCAN(path));
+        CANTraceParser.parseCANTraceFile(path);
+        assertTrue(Files.isRegularFile(TraceSnapshot.snapshotPath(path)));
+
+        ColumnarCANTrace loaded = TraceSnapshot.loadCAN(path);
+        assertNotNull(loaded);
+        assertEquals(parsed, frames(loaded));
+        assertEquals(parsed, frames(CANTraceParser.parseCANTraceFile(path)));
+        assertEquals(CANTraceParser.parseCANTraceFileColumnar(path).indexOf(2500), loaded.indexOf(2500));
+    }
+
+    @Test
+    void gpsSnapshotIsWrittenAndLoadedAgain() throws IOException {
+        String path = writeGPSTrace(120);
+        GPSTrace parsed = GPSParser.parseGPSTextFile(path);
+        TraceSnapshot.saveGPS(path, parsed);
+
+        GPSTrace loaded = TraceSnapshot.loadGPS(path);
+        assertNotNull(loaded);
+        assertEquals(parsed.size(), loaded.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            assertEquals(parsed.getCoordinateAt(i).toString(), loaded.getCoordinateAt(i).toString());
+        }
+    }
+
+    @Test
+    void snapshotOfAnotherKindIsNotLoaded() throws IOException {
+        String path = writeCANTrace(10);
+        CANTraceParser.parseCANTraceFile(path);
+        assertNull(TraceSnapshot.loadGPS(path));
+    }
+
+    @Test
+    void truncatedSnapshotIsACacheMiss() throws IOException {
+        String path = writeCANTrace(500);
+        List<String> parsed = frames(CANTraceParser.parseCANTraceFile(path));
+        Path snapshot = TraceSnapshot.snapshotPath(path);
+        byte[] complete = Files.readAllBytes(snapshot);
+
+        // inside the fixed header, in the id names and directory, and in the columns
+        for (int length : new int[] { 0, 20, 47, 48, 60, 80, 120, 200, complete.length / 2, complete.length - 8 }) {
+            Files.write(snapshot, Arrays.copyOf(complete, length));
+            if (length < 48) {
+                assertNull(TraceSnapshot.loadCAN(path), "truncated to " + length);
+            } else {
+                assertThrows(IOException.class, () -> TraceSnapshot.loadCAN(path), "truncated to " + length);
+            }
+            assertEquals(parsed, frames(CANTraceParser.parseCANTraceFile(path)), "truncated to " + length);
+        }
+    }
+
+    @Test
+    void corruptSnapshotIsACacheMiss() throws IOException {
+        String path = writeCANTrace(500);
+        List<String> parsed = frames(CANTraceParser.parseCANTraceFile(path));
+        Path snapshot = TraceSnapshot.snapshotPath(path);
+        byte[] complete = Files.readAllBytes(snapshot);
+
+        // overwrite 8 bytes at a time after the validated part of the header, i.e.
+        // the counts, the id names and the column directory
+        for (int offset = 40; offset < 200; offset += 8) {
+            byte[] corrupt = complete.clone();
+            Arrays.fill(corrupt, offset, offset + 8, (byte) 0xA5);
+            Files.write(snapshot, corrupt);
+            try {
+                // some bytes are not checked, e.g. the index stride
+                TraceSnapshot.loadCAN(path);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Corrupt snapshot") || e.getMessage().startsWith("Snapshot column"),
+                        e.getMessage());
+            }
+            Files.write(snapshot, corrupt);
+            assertNotNull(CANTraceParser.parseCANTraceFile(path), "corrupt at " + offset);
+        }
+        Files.write(snapshot, complete);
+        assertEquals(parsed, frames(CANTraceParser.parseCANTraceFile(path)));
+    }
+
+    @Test
+    void snapshotWithAFlippedByteIsRejectedOrReplaysCompletely() throws IOException {
+        String path = writeCANTrace(200);
+        CANTraceParser.parseCANTraceFile(path);
+        Path snapshot = TraceSnapshot.snapshotPath(path);
+        byte[] complete = Files.readAllBytes(snapshot);
+
+        // counts, id names, directory and every column; a flipped signal value or
+        // timestamp still loads, but no flip may fail later in the replay
+        int rejected = 0;
+        for (int offset = 40; offset < complete.length; offset++) {
+            byte[] corrupt = complete.clone();
+            corrupt[offset] ^= (byte) 0xFF;
+            Files.write(snapshot, corrupt);
+            ColumnarCANTrace loaded;
+            try {
+                loaded = TraceSnapshot.loadCAN(path);
+            } catch (IOException e) {
+                rejected++;
+                continue;
+            }
+            try {
+                frames(loaded);
+                frames(loaded.view());
+                loaded.cursor(500, 1500).next();
+                loaded.seek(1000);
+                loaded.getNextMessage();
+            } catch (RuntimeException e) {
+                throw new AssertionError("flipped byte at " + offset + " loaded, then failed", e);
+            }
+        }
+        assertTrue(rejected > 0);
+    }
+}